@@ -0,0 +1,56 @@
+package loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and outcome counters of one endpoint
+ */
+public class EndpointStats {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Constructor of EndpointStats
+     * @param name the name of the endpoint, e.g. "GET /search"
+     */
+    public EndpointStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one request
+     * @param micros the latency measured from the intended start time
+     * @param error true if the request failed
+     */
+    public void record(long micros, boolean error) {
+        latency.record(micros);
+        if (error) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Getter for the endpoint name
+     * @return the endpoint name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for the latency histogram
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Gets the number of failed requests
+     * @return the number of failed requests
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+}
@@ -0,0 +1,163 @@
+package loadtest;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One scripted user journey: sign in, search, open a hotel, page through its reviews,
+ * add it to favorites and history, post a review and log out.
+ *
+ * Latency of the first request is measured from the intended arrival time of the journey,
+ * and latency of every following request from the moment the user meant to send it
+ * (end of the previous request plus think time), so a stalled server or a saturated
+ * generator is charged to the measurements instead of being silently omitted.
+ */
+public class Journey implements Runnable {
+    private static final Pattern HOTEL_LINK = Pattern.compile("/hotel\\?hotelId=(\\d+)");
+    private static final String[] SEARCH_TERMS = {"", "hotel", "inn", "san", "suites", "hilton", "marriott", "union"};
+
+    private final LoadGenerator generator;
+    private final long intendedStart;
+    private final UserSession session;
+
+    /**
+     * Constructor of Journey
+     * @param generator the load generator that owns the shared state
+     * @param intendedStart the nano time at which the journey was scheduled to start
+     */
+    public Journey(LoadGenerator generator, long intendedStart) {
+        this.generator = generator;
+        this.intendedStart = intendedStart;
+        this.session = generator.newSession();
+    }
+
+    /**
+     * Runs the steps of the journey, stopping at the first failed step
+     */
+    @Override
+    public void run() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int userNo = random.nextInt(generator.getUsers());
+        String username = generator.getUsernamePrefix() + userNo;
+        String password = "loadtest-" + userNo;
+        long next = intendedStart;
+
+        HttpResponse<String> response;
+        if ((response = step("GET /portal", next, () -> session.get("/portal"))) == null) {
+            return;
+        }
+        next = afterThink();
+
+        Map<String, String> form = new LinkedHashMap<>();
+        form.put("username", username);
+        form.put("pass", password);
+        form.put("register", generator.claimRegistration(userNo) ? "Sign up" : "Sign in");
+        if ((response = step("POST /portal", next, () -> session.post("/portal", form))) == null) {
+            return;
+        }
+        next = afterThink();
+
+        String term = SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)];
+        String searchPath = term.isEmpty() ? "/search" : "/search?hotelName=" + term;
+        if ((response = step("GET /search", next, () -> session.get(searchPath))) == null) {
+            return;
+        }
+        List<String> hotelIds = new ArrayList<>();
+        Matcher matcher = HOTEL_LINK.matcher(response.body());
+        while (matcher.find()) {
+            hotelIds.add(matcher.group(1));
+        }
+        generator.rememberHotels(hotelIds);
+        String hotelId = hotelIds.isEmpty() ? generator.anyHotel() : hotelIds.get(random.nextInt(hotelIds.size()));
+        if (hotelId == null) {
+            return;
+        }
+        next = afterThink();
+
+        if (step("GET /hotel", next, () -> session.get("/hotel?hotelId=" + hotelId)) == null) {
+            return;
+        }
+        next = afterThink();
+
+        String[] pages = {"?hotelId=" + hotelId + "&page=0", "?page=next", "?page=next", "?page=previous"};
+        for (String page : pages) {
+            if (step("GET /showreview", next, () -> session.get("/showreview" + page)) == null) {
+                return;
+            }
+            next = afterThink();
+        }
+
+        if (step("GET /favorite", next, () -> session.get("/favorite?hotelId=" + hotelId)) == null) {
+            return;
+        }
+        next = afterThink();
+
+        if (step("GET /history", next, () -> session.get("/history?hotelId=" + hotelId)) == null) {
+            return;
+        }
+        next = afterThink();
+
+        Map<String, String> review = new LinkedHashMap<>();
+        review.put("choice", random.nextBoolean() ? "add" : "modify");
+        review.put("title", "Load test stay");
+        review.put("text", "Generated by the load test at " + System.currentTimeMillis());
+        if (step("POST /review", next, () -> session.post("/review", review)) == null) {
+            return;
+        }
+        next = afterThink();
+
+        step("GET /logout", next, () -> session.get("/logout"));
+    }
+
+    /**
+     * Sends one request and records its latency from the intended start time
+     * @param endpoint the endpoint name used in the report
+     * @param intended the nano time at which the request should have been sent
+     * @param call the request
+     * @return the response, or null if the request failed
+     */
+    private HttpResponse<String> step(String endpoint, long intended, Call call) {
+        HttpResponse<String> response = null;
+        boolean error;
+        try {
+            response = call.send();
+            error = response.statusCode() >= 400;
+        } catch (Exception e) {
+            error = true;
+            generator.recordFailure(endpoint, e);
+        }
+        long micros = (System.nanoTime() - intended) / 1000;
+        generator.stats(endpoint).record(micros, error);
+        return error ? null : response;
+    }
+
+    /**
+     * Waits for the think time of the user
+     * @return the nano time at which the next request is intended to start
+     */
+    private long afterThink() {
+        long think = generator.getThinkNanos();
+        long intended = System.nanoTime() + think;
+        if (think > 0) {
+            long remaining;
+            while ((remaining = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+        return intended;
+    }
+
+    /**
+     * A single request of the journey
+     */
+    private interface Call {
+        HttpResponse<String> send() throws Exception;
+    }
+}
@@ -0,0 +1,235 @@
+package loadtest;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An open-loop load generator that replays scripted user journeys against a running JettyHotelServer.
+ *
+ * Journeys arrive at a fixed (or Poisson) rate regardless of how fast the server answers,
+ * so a slow server builds up a backlog instead of slowing the generator down.
+ *
+ * Usage: java loadtest.LoadGenerator [--target http://localhost:8080] [--rate 10] [--duration 60]
+ * [--users 100] [--think 0] [--threads 256] [--timeout 10000] [--arrival uniform|poisson]
+ */
+public class LoadGenerator {
+    private String target = "http://localhost:8080";
+    private double rate = 10;
+    private int duration = 60;
+    private int users = 100;
+    private long thinkMillis = 0;
+    private int threads = 256;
+    private long timeoutMillis = 10000;
+    private boolean poisson = false;
+
+    private final String usernamePrefix = "lt" + Long.toString(System.currentTimeMillis() % 100000, 36) + "u";
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final Set<Integer> registered = ConcurrentHashMap.newKeySet();
+    private final Set<String> hotels = ConcurrentHashMap.newKeySet();
+    private volatile List<String> hotelList = new ArrayList<>();
+    private HttpClient client;
+
+    /**
+     * Parses the command line arguments
+     * @param args the command line arguments
+     */
+    private void parseArgs(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--target" -> target = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                case "--rate" -> rate = Double.parseDouble(value);
+                case "--duration" -> duration = Integer.parseInt(value);
+                case "--users" -> users = Integer.parseInt(value);
+                case "--think" -> thinkMillis = Long.parseLong(value);
+                case "--threads" -> threads = Integer.parseInt(value);
+                case "--timeout" -> timeoutMillis = Long.parseLong(value);
+                case "--arrival" -> poisson = value.equals("poisson");
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Schedules journeys at the configured arrival rate and prints the report
+     * @throws InterruptedException if the generator is interrupted
+     */
+    public void run() throws InterruptedException {
+        client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofMillis(timeoutMillis))
+                .build();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+
+        System.out.printf("Replaying journeys against %s at %.1f journeys/s for %ds (%s arrivals)%n",
+                target, rate, duration, poisson ? "poisson" : "uniform");
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(duration);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(10);
+        long intended = start;
+        long journeys = 0;
+        while (intended < end) {
+            long remaining;
+            while ((remaining = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            workers.execute(new Journey(this, intended));
+            journeys++;
+            if (System.nanoTime() >= nextReport) {
+                printProgress(start);
+                nextReport += TimeUnit.SECONDS.toNanos(10);
+            }
+            intended += poisson
+                    ? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * intervalNanos)
+                    : intervalNanos;
+        }
+        workers.shutdown();
+        workers.awaitTermination(timeoutMillis * 20, TimeUnit.MILLISECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        printReport(journeys, seconds);
+    }
+
+    /**
+     * Prints the number of requests sent so far
+     * @param start the nano time at which the run started
+     */
+    private void printProgress(long start) {
+        long requests = 0;
+        long errors = 0;
+        for (EndpointStats endpoint : stats.values()) {
+            requests += endpoint.getLatency().getCount();
+            errors += endpoint.getErrors();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("[%5.0fs] %d requests, %.1f req/s, %d errors%n", seconds, requests, requests / seconds, errors);
+    }
+
+    /**
+     * Prints the throughput, error and latency report of every endpoint
+     * @param journeys the number of journeys started
+     * @param seconds the length of the run in seconds
+     */
+    private void printReport(long journeys, double seconds) {
+        System.out.printf("%nJourneys started: %d in %.1fs%n", journeys, seconds);
+        System.out.printf("%-18s %8s %8s %8s %10s %10s %10s %10s %10s%n",
+                "endpoint", "count", "errors", "req/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)");
+        long total = 0;
+        long errors = 0;
+        for (EndpointStats endpoint : new TreeMap<>(stats).values()) {
+            LatencyHistogram latency = endpoint.getLatency();
+            total += latency.getCount();
+            errors += endpoint.getErrors();
+            System.out.printf("%-18s %8d %8d %8.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                    endpoint.getName(), latency.getCount(), endpoint.getErrors(), latency.getCount() / seconds,
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+                    latency.getMax() / 1000.0);
+        }
+        System.out.printf("%-18s %8d %8d %8.1f%n", "total", total, errors, total / seconds);
+        if (!failures.isEmpty()) {
+            System.out.println("\nFailures:");
+            for (Map.Entry<String, AtomicLong> failure : new TreeMap<>(failures).entrySet()) {
+                System.out.println("  " + failure.getValue() + " x " + failure.getKey());
+            }
+        }
+    }
+
+    /**
+     * Creates the client side of a new simulated user
+     * @return the user session
+     */
+    public UserSession newSession() {
+        return new UserSession(client, target, Duration.ofMillis(timeoutMillis));
+    }
+
+    /**
+     * Gets the statistics of an endpoint, creating them on first use
+     * @param endpoint the endpoint name
+     * @return the statistics of the endpoint
+     */
+    public EndpointStats stats(String endpoint) {
+        return stats.computeIfAbsent(endpoint, EndpointStats::new);
+    }
+
+    /**
+     * Counts a request that failed without a response
+     * @param endpoint the endpoint name
+     * @param e the exception thrown by the request
+     */
+    public void recordFailure(String endpoint, Exception e) {
+        failures.computeIfAbsent(endpoint + ": " + e.getClass().getSimpleName(), k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Claims the sign up of a simulated user, so that exactly one journey registers each user
+     * @param userNo the number of the user
+     * @return true if the caller should sign the user up, false if it should sign in
+     */
+    public boolean claimRegistration(int userNo) {
+        return registered.add(userNo);
+    }
+
+    /**
+     * Adds hotel ids seen in search results to the pool used when a search comes back empty
+     * @param ids the hotel ids
+     */
+    public void rememberHotels(Collection<String> ids) {
+        if (hotels.addAll(ids)) {
+            hotelList = new ArrayList<>(hotels);
+        }
+    }
+
+    /**
+     * Picks a random hotel id from the ones seen so far
+     * @return a hotel id, or null if no hotel has been seen yet
+     */
+    public String anyHotel() {
+        List<String> list = hotelList;
+        return list.isEmpty() ? null : list.get(ThreadLocalRandom.current().nextInt(list.size()));
+    }
+
+    /**
+     * Getter for the number of simulated users
+     * @return the number of simulated users
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * Getter for the prefix of generated usernames
+     * @return the username prefix
+     */
+    public String getUsernamePrefix() {
+        return usernamePrefix;
+    }
+
+    /**
+     * Getter for the think time between two requests of a journey
+     * @return the think time in nanoseconds
+     */
+    public long getThinkNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parseArgs(args);
+        generator.run();
+    }
+}
@@ -0,0 +1,99 @@
+package loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * The client side of one simulated user: keeps the Jetty session cookie
+ * between the requests of a journey.
+ */
+public class UserSession {
+    private final HttpClient client;
+    private final String target;
+    private final Duration timeout;
+    private String sessionCookie;
+
+    /**
+     * Constructor of UserSession
+     * @param client the shared http client
+     * @param target the base url of the server, e.g. http://localhost:8080
+     * @param timeout the timeout of a single request
+     */
+    public UserSession(HttpClient client, String target, Duration timeout) {
+        this.client = client;
+        this.target = target;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sends a GET request
+     * @param pathAndQuery the path and query of the request
+     * @return the response
+     * @throws IOException if the request fails
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public HttpResponse<String> get(String pathAndQuery) throws IOException, InterruptedException {
+        return send(builder(pathAndQuery).GET().build());
+    }
+
+    /**
+     * Sends a form POST request
+     * @param path the path of the request
+     * @param form the form fields
+     * @return the response
+     * @throws IOException if the request fails
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public HttpResponse<String> post(String path, Map<String, String> form) throws IOException, InterruptedException {
+        StringJoiner body = new StringJoiner("&");
+        for (Map.Entry<String, String> field : form.entrySet()) {
+            body.add(URLEncoder.encode(field.getKey(), StandardCharsets.UTF_8) + "="
+                    + URLEncoder.encode(field.getValue(), StandardCharsets.UTF_8));
+        }
+        HttpRequest request = builder(path)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        return send(request);
+    }
+
+    /**
+     * Creates a request builder carrying the session cookie
+     * @param pathAndQuery the path and query of the request
+     * @return the request builder
+     */
+    private HttpRequest.Builder builder(String pathAndQuery) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(target + pathAndQuery)).timeout(timeout);
+        if (sessionCookie != null) {
+            builder.header("Cookie", sessionCookie);
+        }
+        return builder;
+    }
+
+    /**
+     * Sends the request and remembers the session cookie handed out by the server
+     * @param request the request
+     * @return the response
+     * @throws IOException if the request fails
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        List<String> cookies = response.headers().allValues("Set-Cookie");
+        for (String cookie : cookies) {
+            if (cookie.startsWith("JSESSIONID=")) {
+                sessionCookie = cookie.split(";", 2)[0];
+            }
+        }
+        return response;
+    }
+}
@@ -0,0 +1,258 @@
+package database;
+
+import metrics.MetricsRegistry;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of JDBC connections.
+ * Closing a borrowed connection returns it to the pool instead of closing the socket.
+ */
+public class ConnectionPool {
+    private static final long VALIDATE_AFTER_MILLIS = 30_000;
+
+    private final String uri;
+    private final String username;
+    private final String password;
+    private final int size;
+    private final long timeoutMillis;
+    private final String name;
+    private final Semaphore permits;
+    private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger open = new AtomicInteger();
+
+    /**
+     * A physical connection and the time it was last returned
+     */
+    private static class PooledConnection {
+        private final Connection connection;
+        private long returnedAt = System.currentTimeMillis();
+
+        public PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Constructor of ConnectionPool
+     * @param name the name of the pool, used as the metric label
+     * @param uri the jdbc uri of the database
+     * @param username the database user
+     * @param password the database password
+     * @param size the maximum number of connections
+     * @param timeoutMillis how long to wait for a free connection
+     */
+    public ConnectionPool(String name, String uri, String username, String password, int size, long timeoutMillis) {
+        this.name = name;
+        this.uri = uri;
+        this.username = username;
+        this.password = password;
+        this.size = size;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(size, true);
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("db_pool_connections_open", "Physical connections opened by the pool", open::get, "pool", name);
+        metrics.gauge("db_pool_connections_active", "Connections borrowed from the pool", this::getActive, "pool", name);
+    }
+
+    /**
+     * Opens connections until the pool holds the given number of idle connections
+     * @param count the number of connections to open
+     */
+    public void fill(int count) {
+        int target = Math.min(count, size);
+        while (open.get() < target) {
+            try {
+                idle.add(new PooledConnection(openPhysical()));
+            } catch (SQLException e) {
+                System.out.println("Could not open a pooled connection: " + e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Borrows a connection, waiting up to the pool timeout for a free one
+     * @return a connection that is returned to the pool when closed
+     * @throws SQLException if no connection is free in time or a new one can not be opened
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a connection from pool " + name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        } finally {
+            MetricsRegistry.getInstance().histogram("db_pool_wait_seconds", "Time waiting for a pooled connection", "pool", name)
+                    .record(System.nanoTime() - start);
+        }
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.poll()) != null) {
+                if (isUsable(pooled)) {
+                    return wrap(pooled);
+                }
+                discard(pooled);
+            }
+            return wrap(new PooledConnection(openPhysical()));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of borrowed connections
+     * @return the number of borrowed connections
+     */
+    public int getActive() {
+        return size - permits.availablePermits();
+    }
+
+    /**
+     * Gets the number of connections that can still be borrowed without waiting
+     * @return the number of free connections
+     */
+    public int getAvailable() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Closes all idle connections
+     */
+    public void close() {
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Checks that an idle connection still works, only asking the server after a long idle period
+     * @param pooled the idle connection
+     * @return true if the connection can be used
+     */
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            if (pooled.connection.isClosed()) {
+                return false;
+            }
+            return System.currentTimeMillis() - pooled.returnedAt < VALIDATE_AFTER_MILLIS || pooled.connection.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a new physical connection
+     * @return the connection
+     * @throws SQLException if the connection can not be opened
+     */
+    private Connection openPhysical() throws SQLException {
+        Connection connection = DriverManager.getConnection(uri, username, password);
+        open.incrementAndGet();
+        MetricsRegistry.getInstance().counter("db_pool_connects_total", "Physical connections opened", "pool", name).increment();
+        return connection;
+    }
+
+    /**
+     * Closes a physical connection
+     * @param pooled the connection
+     */
+    private void discard(PooledConnection pooled) {
+        open.decrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool, discarding it if it was left in a broken state
+     * @param pooled the connection
+     */
+    private void giveBack(PooledConnection pooled) {
+        try {
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            pooled.returnedAt = System.currentTimeMillis();
+            idle.add(pooled);
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Wraps a physical connection so that close() gives it back to the pool
+     * @param pooled the connection
+     * @return the wrapped connection
+     */
+    private Connection wrap(PooledConnection pooled) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean closed;
+            private final List<Statement> statements = new ArrayList<>();
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!closed) {
+                            closed = true;
+                            for (Statement statement : statements) {
+                                try {
+                                    statement.close();
+                                } catch (SQLException e) {
+                                    System.out.println(e);
+                                }
+                            }
+                            giveBack(pooled);
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return closed || pooled.connection.isClosed();
+                    }
+                    default -> {
+                        if (closed) {
+                            throw new SQLException("Connection returned to the pool");
+                        }
+                        Object result;
+                        try {
+                            result = method.invoke(pooled.connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        if (result instanceof Statement) {
+                            // statements are closed with the physical connection otherwise, which may be never
+                            statements.add((Statement) result);
+                        }
+                        return result;
+                    }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+}
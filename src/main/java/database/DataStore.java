@@ -0,0 +1,220 @@
+package database;
+
+import hotelapp.Hotel;
+import hotelapp.RatingSummary;
+import hotelapp.Review;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The storage engine interface covering users, hotels, reviews, favorites and history.
+ * Use {@link DataStoreFactory#getInstance()} to get the engine selected at startup.
+ */
+public interface DataStore {
+
+    /**
+     * Creates the tables, or whatever structures the engine needs
+     */
+    void createTables();
+
+    /**
+     * Opens connections or other resources ahead of the first request
+     */
+    default void warmUp() {}
+
+    /**
+     * Registers a new user
+     * @param newuser username of new user
+     * @param newpass password of new user
+     * @return true if the user was registered, false if the name is taken or an error happens
+     */
+    boolean registerUser(String newuser, String newpass);
+
+    /**
+     * Authenticates users by checking if the entered password matches the stored one
+     * @param username username
+     * @param password password
+     * @return the time of last login if it matches, otherwise null
+     */
+    Timestamp authenticateUser(String username, String password);
+
+    /**
+     * Checks if the username already exists
+     * @param username username
+     * @return true if the username already exists, otherwise false
+     */
+    boolean checkUsername(String username);
+
+    /**
+     * Adds a hotel
+     * @param hotel the hotel to be added
+     */
+    void addHotel(Hotel hotel);
+
+    /**
+     * Applies the changes of a catalog refresh, all of them or none. The reviews, rating summary,
+     * favorites and history of a removed hotel are removed with it.
+     * @param added the new hotels
+     * @param changed the hotels whose details changed
+     * @param removed the ids of the hotels no longer in the catalog
+     * @return true if the changes were applied, false if an error happens
+     */
+    boolean applyHotelChanges(List<Hotel> added, List<Hotel> changed, List<String> removed);
+
+    /**
+     * Gets the hotel with the given hotel id
+     * @param hotelId the id of the hotel
+     * @return the Hotel object with the given id if it exists, otherwise null
+     */
+    Hotel getHotelWithId(String hotelId);
+
+    /**
+     * Gets all the hotels
+     * @return a list of all the hotels
+     */
+    List<Hotel> getAllHotel();
+
+    /**
+     * Gets a version of the hotel and review data, which changes whenever a hotel, review
+     * or rating summary is added or deleted. Used to tell whether a catalog snapshot is stale.
+     * @return the data version, null if an error happens
+     */
+    String getDataVersion();
+
+    /**
+     * Adds a review, or replaces the review of the hotel with the same source id
+     * @param review the review to be added
+     */
+    void addReview(Review review);
+
+    /**
+     * Adds or replaces several reviews at once, all of them or none
+     * @param reviews the reviews to be added
+     * @return true if the reviews were added, false if an error happens and none were
+     */
+    default boolean addReviews(List<Review> reviews) {
+        for (Review review : reviews) {
+            addReview(review);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a review unless the hotel already has one with the same source id
+     * @param review the review to be added
+     * @return true if the review was added, false if there already is one or an error happens
+     */
+    boolean addReviewIfAbsent(Review review);
+
+    /**
+     * Replaces the title, text, time and rating of the review of the hotel with the same source id
+     * @param review the new content of the review
+     * @return true if the review was found, false if there is none or an error happens
+     */
+    boolean updateReview(Review review);
+
+    /**
+     * Gets the reviews with the given hotel id
+     * @param hotelId the id of the hotel
+     * @return a list of reviews of the hotel, null if an error happens
+     */
+    List<Review> getReviewWithId(String hotelId);
+
+    /**
+     * Gets all the reviews
+     * @return a list of all the reviews, null if an error happens
+     */
+    List<Review> getAllReviews();
+
+    /**
+     * Adds the rating summary of a hotel, replacing the previous one
+     * @param summary the summary to be added
+     */
+    void addRatingSummary(RatingSummary summary);
+
+    /**
+     * Gets the rating summaries of all hotels
+     * @return a list of all the rating summaries, null if an error happens
+     */
+    List<RatingSummary> getAllRatingSummaries();
+
+    /**
+     * Checks if the user has a review of the hotel
+     * @param hotelId the id of the hotel
+     * @param username the username of the user
+     * @return true if there is a review from the user of the hotel, otherwise false
+     */
+    boolean getReviewWithName(String hotelId, String username);
+
+    /**
+     * Deletes the review of the user of the hotel
+     * @param hotelid the id of the hotel
+     * @param username the username of the user
+     * @return true if the review was deleted, false if there is none or an error happens
+     */
+    boolean deleteReview(String hotelid, String username);
+
+    /**
+     * Deletes reviews of a hotel by their source ids, all of them or none
+     * @param hotelId the id of the hotel
+     * @param sourceIds the source ids of the reviews
+     * @return true if the reviews are gone, false if an error happens
+     */
+    boolean deleteReviews(String hotelId, List<String> sourceIds);
+
+    /**
+     * Adds a history if the user clicks the expedia link
+     * @param hotelId the id of the hotel
+     * @param username the username of the user
+     * @return true if the hotel was added, false if an error happens
+     */
+    boolean addExpediaHistory(String hotelId, String username);
+
+    /**
+     * Gets all the expedia history of the user
+     * @param username the username of the user
+     * @return a list of hotel id that the user has searched
+     */
+    List<String> getExpediaHistory(String username);
+
+    /**
+     * Clears all the expedia history of the user
+     * @param username the username of the user
+     */
+    void clearHistory(String username);
+
+    /**
+     * Gets the expedia history of every user, used to precompute which hotels interest the same users
+     * @return the hotel ids in the history of each user by username, null if an error happens
+     */
+    Map<String, List<String>> getAllExpediaHistories();
+
+    /**
+     * Adds a hotel to the favorite list of the user
+     * @param hotelId the id of the hotel
+     * @param username the username of the user
+     * @return true if the hotel was added, false if an error happens
+     */
+    boolean addFavorite(String hotelId, String username);
+
+    /**
+     * Gets the hotel ids of the user's favorite
+     * @param username the username of the user
+     * @return a list of hotel ids
+     */
+    List<String> getFavorite(String username);
+
+    /**
+     * Clears the favorite list of the user
+     * @param username the username of the user
+     */
+    void clearFavorite(String username);
+
+    /**
+     * Gets the favorite hotels of every user, used to precompute which hotels interest the same users
+     * @return the favorite hotel ids of each user by username, null if an error happens
+     */
+    Map<String, List<String>> getAllFavorites();
+}
@@ -0,0 +1,79 @@
+package database;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Selects the storage engine at startup.
+ * The engine is chosen by the "storage" property in database.properties ("mysql", "memory" or "sharded"),
+ * which can be overridden with -Dstorage=... on the command line.
+ */
+public class DataStoreFactory {
+    public static final String PROPERTIES_FILE = "database.properties";
+
+    private static volatile DataStore instance;
+
+    /**
+     * Prevents creating objects of this class
+     */
+    private DataStoreFactory() {}
+
+    /**
+     * Returns the storage engine selected at startup, creating it on first use
+     * @return the storage engine
+     */
+    public static DataStore getInstance() {
+        DataStore store = instance;
+        if (store == null) {
+            synchronized (DataStoreFactory.class) {
+                store = instance;
+                if (store == null) {
+                    store = create(loadConfig());
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Creates the storage engine named in the configuration
+     * @param config the database configuration
+     * @return the storage engine
+     */
+    private static DataStore create(Properties config) {
+        String engine = System.getProperty("storage", config.getProperty("storage", "mysql"));
+        switch (engine) {
+            case "memory" -> {
+                String journal = System.getProperty("journal", config.getProperty("journal", "data/journal.log"));
+                System.out.println("Using the embedded storage engine, journal: " + journal);
+                return new MemoryDataStore(journal, Boolean.parseBoolean(config.getProperty("journal.sync", "false")));
+            }
+            case "mysql" -> {
+                DatabaseHandler handler = DatabaseHandler.getInstance();
+                handler.createTables(); // apply the pending schema migrations
+                return handler;
+            }
+            case "sharded" -> {
+                return ShardedDataStore.fromConfig(config);
+            }
+            default -> throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    /**
+     * Loads database.properties
+     * @return the database configuration, empty if the file can not be read
+     */
+    private static Properties loadConfig() {
+        Properties config = new Properties();
+        try (FileReader fr = new FileReader(PROPERTIES_FILE)) {
+            config.load(fr);
+        }
+        catch (IOException e) {
+            System.out.println(e);
+        }
+        return config;
+    }
+}
@@ -1,7 +1,9 @@
 package database;
 
 import hotelapp.Hotel;
+import hotelapp.RatingSummary;
 import hotelapp.Review;
+import metrics.MetricsRegistry;
 
 import java.io.FileReader;
 import java.io.IOException;
@@ -9,25 +11,79 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.sql.*;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  *
  * Handle all the database-related functionalities
  */
-public class DatabaseHandler {
+public class DatabaseHandler implements DataStore {
 
-    private static DatabaseHandler dbHandler = new DatabaseHandler("database.properties"); // singleton pattern
     private Properties config;
+    private final String name; // primary, or the name of the shard
     private String uri;
     private Random random = new Random();
+    private ConnectionPool pool;
+    private ReplicaRouter replicas;
+    // concurrent identical reads share one query
+    private final SingleFlight<String, Hotel> hotelById;
+    private final SingleFlight<String, List<Hotel>> allHotels;
+    private final SingleFlight<String, String> dataVersion;
+    private final SingleFlight<String, List<Review>> reviewsById;
+    private final SingleFlight<String, List<Review>> allReviews;
+    private final SingleFlight<String, List<RatingSummary>> allRatingSummaries;
+    private final SingleFlight<List<String>, Boolean> reviewByName;
+    private final SingleFlight<String, List<String>> historyByUser;
+    private final SingleFlight<String, List<String>> favoritesByUser;
 
     /**
      * DataBaseHandler is a singleton, we want to prevent other classes
      * from creating objects of this class using the constructor
      */
     private DatabaseHandler(String propertiesFile){
-        this.config = loadConfigFile(propertiesFile);
+        this("primary", loadConfigFile(propertiesFile));
+    }
+
+    /**
+     * Constructor for the primary database or for one shard of a sharded database
+     * @param name the name of the database, used as the pool name and the shard label of the metrics
+     * @param config the configuration of the database
+     */
+    private DatabaseHandler(String name, Properties config) {
+        this.config = config;
+        this.name = name;
+        hotelById = new SingleFlight<>("getHotelWithId", name);
+        allHotels = new SingleFlight<>("getAllHotel", name);
+        dataVersion = new SingleFlight<>("getDataVersion", name);
+        reviewsById = new SingleFlight<>("getReviewWithId", name);
+        allReviews = new SingleFlight<>("getAllReviews", name);
+        allRatingSummaries = new SingleFlight<>("getAllRatingSummaries", name);
+        reviewByName = new SingleFlight<>("getReviewWithName", name);
+        historyByUser = new SingleFlight<>("getExpediaHistory", name);
+        favoritesByUser = new SingleFlight<>("getFavorite", name);
+        open(name);
+    }
+
+    /**
+     * Creates the handler of one shard of a sharded database, see {@link ShardedDataStore}
+     * @param name the name of the shard, used as the pool name
+     * @param config the configuration of the shard: uri, username, password and the pool settings
+     * @return the handler of the shard
+     */
+    public static DatabaseHandler forShard(String name, Properties config) {
+        return new DatabaseHandler(name, config);
+    }
+
+    /**
+     * Creates the connection pools from the configuration
+     * @param name the name of the primary pool
+     */
+    private void open(String name) {
         this.uri = config.getProperty("uri");
+        this.pool = new ConnectionPool(name, uri, config.getProperty("username"), config.getProperty("password"),
+                Integer.parseInt(config.getProperty("pool.size", "10")),
+                Long.parseLong(config.getProperty("pool.timeoutMillis", "5000")));
+        this.replicas = new ReplicaRouter(name, config, config.getProperty("username"), config.getProperty("password"));
     }
 
     /**
@@ -35,15 +91,135 @@ public class DatabaseHandler {
      * @return instance of the database handler
      */
     public static DatabaseHandler getInstance() {
-        return dbHandler;
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Lazily creates the singleton, so that the properties file is only read
+     * when the MySQL storage engine is actually selected
+     */
+    private static class Holder {
+        private static final DatabaseHandler INSTANCE = new DatabaseHandler("database.properties"); // singleton pattern
+    }
+
+    /**
+     * Opens a connection to the primary database
+     * @return a new connection
+     * @throws SQLException if the connection can not be opened
+     */
+    private Connection getConnection() throws SQLException {
+        return borrow(pool);
+    }
+
+    /**
+     * Opens a connection to the primary database for a write, so that the reads of the same user
+     * stay on the primary until the replicas have caught up with it
+     * @return a new connection
+     * @throws SQLException if the connection can not be opened
+     */
+    private Connection getWriteConnection() throws SQLException {
+        ReadConsistency.recordWrite();
+        return borrow(pool);
+    }
+
+    /**
+     * Opens a connection for a read, to a replica unless the user has just written or no replica is in sync
+     * @return a new connection
+     * @throws SQLException if the connection can not be opened
+     */
+    private Connection getReadConnection() throws SQLException {
+        ConnectionPool replica = ReadConsistency.requiresPrimary() ? null : replicas.pick();
+        if (replica != null) {
+            try {
+                Connection connection = borrow(replica);
+                countRead("replica");
+                return connection;
+            } catch (SQLException e) {
+                System.out.println(e); // the lag check will take the replica out, until then read from the primary
+            }
+        }
+        countRead("primary");
+        return borrow(pool);
+    }
+
+    /**
+     * Counts a read by the database it was sent to
+     * @param target primary or replica
+     */
+    private void countRead(String target) {
+        if (replicas.hasReplicas()) {
+            MetricsRegistry.getInstance().counter("db_reads_total", "Reads by the database they were routed to",
+                    "shard", name, "target", target).increment();
+        }
+    }
+
+    /**
+     * Borrows a connection from a pool, timing the wait
+     * @param from the pool of the primary or of a replica
+     * @return a new connection
+     * @throws SQLException if the connection can not be opened
+     */
+    private Connection borrow(ConnectionPool from) throws SQLException {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = System.nanoTime();
+        try {
+            return from.borrow();
+        } catch (SQLException e) {
+            metrics.counter("db_connection_errors_total", "Failed attempts to get a database connection").increment();
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.histogram("db_connect_duration_seconds", "Time to get a database connection").record(elapsed);
+            IngestThrottle.getInstance().recordPoolWait(elapsed);
+            QueryProfile profile = QueryProfile.current();
+            if (profile != null) {
+                profile.recordConnection(elapsed);
+            }
+        }
+    }
+
+    /**
+     * Runs a read, sharing it with identical concurrent reads unless the user must read their own writes,
+     * which a read started earlier on a replica may not see
+     * @param flight the reads in flight
+     * @param key the key of the read
+     * @param query the read
+     * @param <K> the type of the key
+     * @param <V> the type of the result
+     * @return the result of the read
+     */
+    private <K, V> V read(SingleFlight<K, V> flight, K key, Supplier<V> query) {
+        if (ReadConsistency.requiresPrimary()) {
+            return query.get();
+        }
+        return flight.execute(key, query);
+    }
+
+    /**
+     * Opens the minimum number of pooled connections ahead of the first request
+     */
+    @Override
+    public void warmUp() {
+        pool.fill(Integer.parseInt(config.getProperty("pool.min", "2")));
+    }
+
+    /**
+     * Prepares one of the statements in PreparedStatements, timing its executions
+     * @param connection the connection
+     * @param sql the text of the statement
+     * @return the prepared statement
+     * @throws SQLException if the statement can not be prepared
+     */
+    private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return InstrumentedStatement.wrap(connection.prepareStatement(sql), PreparedStatements.nameOf(sql));
     }
 
     /**
      * load database configuration properties
      * @param propertyFile filename of the properties file
-     * @return
+     * @return the configuration, empty if the file can not be read
      */
-    public Properties loadConfigFile(String propertyFile) {
+    public static Properties loadConfigFile(String propertyFile) {
         Properties config = new Properties();
         try (FileReader fr = new FileReader(propertyFile)) {
             config.load(fr);
@@ -56,22 +232,12 @@ public class DatabaseHandler {
     }
 
     /**
-     * Creates a table in the designated database
+     * Creates the tables in the designated database, or brings existing ones up to date,
+     * by applying the pending schema migrations
      */
+    @Override
     public void createTables() {
-        Statement statement;
-        try (Connection dbConnection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            System.out.println("dbConnection successful");
-            statement = dbConnection.createStatement();
-            statement.executeUpdate(PreparedStatements.CREATE_TABLE_USERS);
-            statement.executeUpdate(PreparedStatements.CREATE_TABLE_HOTELS);
-            statement.executeUpdate(PreparedStatements.CREATE_TABLE_REVIEWS);
-            statement.executeUpdate(PreparedStatements.CREATE_TABLE_USERFAVORITES);
-            statement.executeUpdate(PreparedStatements.CREATE_TABLE_EXPEDIAHISTORY);
-        }
-        catch (SQLException ex) {
-             System.out.println(ex);
-        }
+        new SchemaMigrator(this).migrate();
     }
 
 
@@ -119,8 +285,10 @@ public class DatabaseHandler {
      *
      * @param newuser - username of new user
      * @param newpass - password of new user
+     * @return true if the user was registered, false if the name is taken or an error happens
      */
-    public void registerUser(String newuser, String newpass) {
+    @Override
+    public boolean registerUser(String newuser, String newpass) {
         // Generate salt
         byte[] saltBytes = new byte[16];
         random.nextBytes(saltBytes);
@@ -130,15 +298,16 @@ public class DatabaseHandler {
         System.out.println(usersalt);
 
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             System.out.println("Registration: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.REGISTER_SQL);
+                statement = prepare(connection, PreparedStatements.REGISTER_SQL);
                 statement.setString(1, newuser);
                 statement.setString(2, passhash);
                 statement.setString(3, usersalt);
                 statement.executeUpdate();
                 statement.close();
+                return true;
             }
             catch(SQLException e) {
                 System.out.println(e);
@@ -147,6 +316,7 @@ public class DatabaseHandler {
         catch (SQLException ex) {
             System.out.println(ex);
         }
+        return false;
     }
 
     /**
@@ -155,11 +325,12 @@ public class DatabaseHandler {
      * @param password password
      * @return the time of last login if it matches, otherwise null
      */
+    @Override
     public Timestamp authenticateUser(String username, String password) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getConnection()) {
             System.out.println("Authentication: dbConnection successful");
-            statement = connection.prepareStatement(PreparedStatements.AUTH_SQL);
+            statement = prepare(connection, PreparedStatements.AUTH_SQL);
             String usersalt = getSalt(connection, username);
             String passhash = getHash(password, usersalt);
 
@@ -167,7 +338,7 @@ public class DatabaseHandler {
             statement.setString(2, passhash);
             ResultSet results = statement.executeQuery();
             if (results.next()) {
-                statement = connection.prepareStatement(PreparedStatements.UPDATE_LASTLOGIN);
+                statement = prepare(connection, PreparedStatements.UPDATE_LASTLOGIN);
                 statement.setString(1, username);
                 statement.executeUpdate();
             }
@@ -184,11 +355,12 @@ public class DatabaseHandler {
      * @param username username
      * @return true if the username already exists, otherwise false
      */
+    @Override
     public boolean checkUsername(String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getConnection()) {
             System.out.println("Checking: dbConnection successful");
-            statement = connection.prepareStatement(PreparedStatements.CHECK_SQL);
+            statement = prepare(connection, PreparedStatements.CHECK_SQL);
 
             statement.setString(1, username);
             ResultSet results = statement.executeQuery();
@@ -209,7 +381,7 @@ public class DatabaseHandler {
      */
     private String getSalt(Connection connection, String user) {
         String salt = null;
-        try (PreparedStatement statement = connection.prepareStatement(PreparedStatements.SALT_SQL)) {
+        try (PreparedStatement statement = prepare(connection, PreparedStatements.SALT_SQL)) {
             statement.setString(1, user);
             ResultSet results = statement.executeQuery();
             if (results.next()) {
@@ -227,27 +399,78 @@ public class DatabaseHandler {
      * Adds a hotel into database
      * @param hotel the hotel to be added
      */
+    @Override
     public void addHotel(Hotel hotel) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            System.out.println("Add hotel: dbConnection successful");
-            try {
-                statement = connection.prepareStatement(PreparedStatements.ADD_HOTEL);
-                statement.setString(1, hotel.getId());
-                statement.setString(2, hotel.getName());
-                statement.setString(3, hotel.getLat());
-                statement.setString(4, hotel.getLng());
-                statement.setString(5, hotel.getAddress());
-                statement.executeUpdate();
+        changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.ADD_HOTEL);
+            statement.setString(1, hotel.getId());
+            statement.setString(2, hotel.getName());
+            statement.setString(3, hotel.getLat());
+            statement.setString(4, hotel.getLng());
+            statement.setString(5, hotel.getAddress());
+            statement.setString(6, hotel.getCity());
+            statement.executeUpdate();
+            statement.close();
+            return true;
+        });
+    }
+
+    /**
+     * Applies the changes of a catalog refresh in one transaction, batching each kind of statement.
+     * The reviews, rating summary, favorites and history of a removed hotel are deleted with it.
+     * @param added the new hotels
+     * @param changed the hotels whose details changed
+     * @param removed the ids of the hotels no longer in the catalog
+     * @return true if every change was applied, false if none was
+     */
+    @Override
+    public boolean applyHotelChanges(List<Hotel> added, List<Hotel> changed, List<String> removed) {
+        Boolean applied = changeCatalog(connection -> {
+            if (!added.isEmpty()) {
+                PreparedStatement statement = prepare(connection, PreparedStatements.ADD_HOTEL);
+                for (Hotel hotel : added) {
+                    statement.setString(1, hotel.getId());
+                    statement.setString(2, hotel.getName());
+                    statement.setString(3, hotel.getLat());
+                    statement.setString(4, hotel.getLng());
+                    statement.setString(5, hotel.getAddress());
+                    statement.setString(6, hotel.getCity());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
                 statement.close();
             }
-            catch(SQLException e) {
-                System.out.println(e);
+            if (!changed.isEmpty()) {
+                PreparedStatement statement = prepare(connection, PreparedStatements.UPDATE_HOTEL);
+                for (Hotel hotel : changed) {
+                    statement.setString(1, hotel.getName());
+                    statement.setString(2, hotel.getLat());
+                    statement.setString(3, hotel.getLng());
+                    statement.setString(4, hotel.getAddress());
+                    statement.setString(5, hotel.getCity());
+                    statement.setString(6, hotel.getId());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                statement.close();
             }
-        }
-        catch (SQLException ex) {
-            System.out.println(ex);
-        }
+            if (!removed.isEmpty()) {
+                // the rows referring to the hotels first, the foreign keys forbid the other order
+                for (String sql : new String[] {PreparedStatements.DELETE_HOTEL_REVIEWS,
+                        PreparedStatements.DELETE_HOTEL_REVIEWSUMMARY, PreparedStatements.DELETE_HOTEL_FAVORITES,
+                        PreparedStatements.DELETE_HOTEL_HISTORY, PreparedStatements.DELETE_HOTEL}) {
+                    PreparedStatement statement = prepare(connection, sql);
+                    for (String hotelId : removed) {
+                        statement.setString(1, hotelId);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    statement.close();
+                }
+            }
+            return true;
+        });
+        return applied != null;
     }
 
     /**
@@ -255,18 +478,28 @@ public class DatabaseHandler {
      * @param hotelId the id of the hotel
      * @return the Hotel object with the given id if it exists, otherwise null
      */
+    @Override
     public Hotel getHotelWithId(String hotelId) {
+        return read(hotelById, hotelId, () -> queryHotelWithId(hotelId));
+    }
+
+    /**
+     * Runs the query of getHotelWithId, identical concurrent calls are coalesced by the caller
+     * @param hotelId the id of the hotel
+     * @return the hotel, null if it does not exist or an error happens
+     */
+    private Hotel queryHotelWithId(String hotelId) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection()) {
             System.out.println("Get hotel with id: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.GET_HOTELWITHID);
+                statement = prepare(connection, PreparedStatements.GET_HOTELWITHID);
                 statement.setString(1, hotelId);
                 ResultSet results = statement.executeQuery();
                 if (results.next()) {
                     Hotel hotel = new Hotel(results.getString("name"),
                             results.getString("hotelId"), results.getString("lat"),
-                            results.getString("lng"), results.getString("address"));
+                            results.getString("lng"), results.getString("address"), results.getString("city"));
                     statement.close();
                     return hotel;
                 }
@@ -283,23 +516,32 @@ public class DatabaseHandler {
 
     /**
      * Gets all the hotels from database
-     * @return a list of all the hotels
+     * @return an unmodifiable list of all the hotels
      */
+    @Override
     public List<Hotel> getAllHotel() {
+        return read(allHotels, "all", () -> queryAllHotel());
+    }
+
+    /**
+     * Runs the query of getAllHotel, identical concurrent calls are coalesced by the caller
+     * @return a list of all the hotels, null if an error happens
+     */
+    private List<Hotel> queryAllHotel() {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection()) {
             System.out.println("Get all hotels: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.GET_ALLHOTEL);
+                statement = prepare(connection, PreparedStatements.GET_ALLHOTEL);
                 ResultSet results = statement.executeQuery();
                 List<Hotel> hotels = new ArrayList<>();
                 while (results.next()) {
                     hotels.add(new Hotel(results.getString("name"),
                             results.getString("hotelid"), results.getString("lat"),
-                            results.getString("lng"), results.getString("address")));
+                            results.getString("lng"), results.getString("address"), results.getString("city")));
                 }
                 statement.close();
-                return hotels;
+                return Collections.unmodifiableList(hotels); // shared with the coalesced callers
             }
             catch(SQLException e) {
                 System.out.println(e);
@@ -312,23 +554,31 @@ public class DatabaseHandler {
     }
 
     /**
-     * Adds a review into database
-     * @param review the review to be added
+     * Gets the version of the hotel, review and review summary tables: a counter in the dataversion table,
+     * incremented in the transaction of every change this class makes to them. Rows changed by hand, outside
+     * of the application, do not move it.
+     * @return the data version, null if an error happens
      */
-    public void addReview(Review review) {
+    @Override
+    public String getDataVersion() {
+        return dataVersion.execute("version", () -> queryDataVersion());
+    }
+
+    /**
+     * Runs the query of getDataVersion, identical concurrent calls are coalesced by the caller
+     * @return the data version, null if an error happens
+     */
+    private String queryDataVersion() {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            System.out.println("Add review: dbConnection successful");
+        try (Connection connection = getConnection()) {
             try {
-                statement = connection.prepareStatement(PreparedStatements.ADD_REVIEW);
-                statement.setString(1, review.getHotelId());
-                statement.setString(2, review.getUserNickname());
-                statement.setString(3, review.getTitle());
-                statement.setString(4, review.getReviewText());
-                statement.setTimestamp(5, review.getDatePosted());
-                statement.setInt(6, review.getRatingOverall());
-                statement.executeUpdate();
-                statement.close();
+                statement = prepare(connection, PreparedStatements.GET_DATAVERSION);
+                ResultSet results = statement.executeQuery();
+                if (results.next()) {
+                    String version = "mysql:" + results.getLong("version");
+                    statement.close();
+                    return version;
+                }
             }
             catch(SQLException e) {
                 System.out.println(e);
@@ -337,24 +587,225 @@ public class DatabaseHandler {
         catch (SQLException ex) {
             System.out.println(ex);
         }
+        return null;
+    }
+
+    /**
+     * Runs several statements on one connection in one transaction, committing them if they all
+     * succeed and rolling them all back otherwise
+     * @param work the statements to run
+     * @param <T> the type of the result
+     * @return the result of the work, null if an error happens; an unchecked exception thrown by the work
+     * is rethrown after the rollback
+     */
+    public <T> T inTransaction(UnitOfWork<T> work) {
+        try (Connection connection = getWriteConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            }
+            catch (SQLException e) {
+                System.out.println(e);
+                connection.rollback();
+            }
+            catch (RuntimeException | Error e) {
+                // roll back before autocommit is restored, which would otherwise commit the half-done work
+                connection.rollback();
+                throw e;
+            }
+            finally {
+                connection.setAutoCommit(autoCommit); // the connection goes back to the pool
+            }
+        }
+        catch (SQLException ex) {
+            System.out.println(ex);
+        }
+        return null;
+    }
+
+    /**
+     * Runs a change to the hotels, reviews or review summaries in one transaction with the increment of the
+     * data version, so that the version moves exactly when the change commits. The increment comes last:
+     * the version row stays locked, and concurrent changes wait, only until the commit.
+     * @param work the statements of the change
+     * @param <T> the type of the result
+     * @return the result of the work, null if an error happens
+     */
+    private <T> T changeCatalog(UnitOfWork<T> work) {
+        return inTransaction(connection -> {
+            T result = work.run(connection);
+            PreparedStatement statement = prepare(connection, PreparedStatements.BUMP_DATAVERSION);
+            statement.executeUpdate();
+            statement.close();
+            return result;
+        });
+    }
+
+    /**
+     * Adds a review into database, or replaces the review of the hotel with the same source id
+     * @param review the review to be added
+     */
+    @Override
+    public void addReview(Review review) {
+        changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.ADD_REVIEW);
+            setReview(statement, review);
+            statement.executeUpdate();
+            statement.close();
+            return true;
+        });
+    }
+
+    /**
+     * Adds or replaces the reviews in one transaction, sent as one batch
+     * @param reviews the reviews to be added
+     * @return true if the transaction committed
+     */
+    @Override
+    public boolean addReviews(List<Review> reviews) {
+        if (reviews.isEmpty()) {
+            return true;
+        }
+        Boolean added = changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.ADD_REVIEW);
+            for (Review review : reviews) {
+                setReview(statement, review);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            statement.close();
+            return true;
+        });
+        return added != null;
+    }
+
+    /**
+     * Adds a review unless the hotel already has one with the same source id
+     * @param review the review to be added
+     * @return true if the review was added, false if there already is one or an error happens
+     */
+    @Override
+    public boolean addReviewIfAbsent(Review review) {
+        Boolean changed = changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.ADD_REVIEW_IFABSENT);
+            setReview(statement, review);
+            boolean inserted = statement.executeUpdate() > 0;
+            statement.close();
+            return inserted;
+        });
+        return changed != null && changed;
+    }
+
+    /**
+     * Replaces the content of the review of the hotel with the same source id
+     * @param review the new content of the review
+     * @return true if the review was found, false if there is none or an error happens
+     */
+    @Override
+    public boolean updateReview(Review review) {
+        Boolean changed = changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.UPDATE_REVIEW);
+            statement.setString(1, review.getTitle());
+            statement.setString(2, review.getReviewText());
+            statement.setTimestamp(3, review.getDatePosted());
+            statement.setInt(4, review.getRatingOverall());
+            statement.setString(5, review.getHotelId());
+            statement.setString(6, review.getSourceId());
+            boolean updated = statement.executeUpdate() > 0;
+            statement.close();
+            return updated;
+        });
+        return changed != null && changed;
+    }
+
+    /**
+     * Sets the parameters of ADD_REVIEW and ADD_REVIEW_IFABSENT
+     * @param statement the statement
+     * @param review the review
+     * @throws SQLException if a parameter can not be set
+     */
+    private static void setReview(PreparedStatement statement, Review review) throws SQLException {
+        statement.setString(1, review.getHotelId());
+        statement.setString(2, review.getSourceId());
+        statement.setString(3, review.getUserNickname());
+        statement.setString(4, review.getTitle());
+        statement.setString(5, review.getReviewText());
+        statement.setTimestamp(6, review.getDatePosted());
+        statement.setInt(7, review.getRatingOverall());
     }
 
     /**
      * Gets the reviews with the given hotel id
      * @param hotelId the id of the hotel
-     * @return a list of reviews of the hotel, null if an error happens
+     * @return an unmodifiable list of reviews of the hotel, null if an error happens
      */
+    @Override
     public List<Review> getReviewWithId(String hotelId) {
+        return read(reviewsById, hotelId, () -> queryReviewWithId(hotelId));
+    }
+
+    /**
+     * Runs the query of getReviewWithId, identical concurrent calls are coalesced by the caller
+     * @param hotelId the id of the hotel
+     * @return a list of reviews of the hotel, null if an error happens
+     */
+    private List<Review> queryReviewWithId(String hotelId) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection()) {
             System.out.println("Get review with id: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.GET_REVIEWWITHID);
+                statement = prepare(connection, PreparedStatements.GET_REVIEWWITHID);
                 statement.setString(1, hotelId);
                 ResultSet results = statement.executeQuery();
                 List<Review> reviews = new ArrayList<>();
                 while (results.next()) {
-                    reviews.add(new Review(results.getString("hotelid"),
+                    reviews.add(new Review(Review.reviewIdOf(results.getString("sourceid")),
+                            results.getString("hotelid"),
+                            results.getString("title"),
+                            results.getString("text"),
+                            results.getString("username"),
+                            results.getTimestamp("time"),
+                            results.getInt("rating")));
+                }
+                statement.close();
+                return Collections.unmodifiableList(reviews); // shared with the coalesced callers
+            }
+            catch(SQLException e) {
+                System.out.println(e);
+            }
+        }
+        catch (SQLException ex) {
+            System.out.println(ex);
+        }
+        return null;
+    }
+
+    /**
+     * Gets all the reviews from database
+     * @return an unmodifiable list of all the reviews, null if an error happens
+     */
+    @Override
+    public List<Review> getAllReviews() {
+        return read(allReviews, "all", () -> queryAllReviews());
+    }
+
+    /**
+     * Runs the query of getAllReviews, identical concurrent calls are coalesced by the caller
+     * @return a list of all the reviews, null if an error happens
+     */
+    private List<Review> queryAllReviews() {
+        PreparedStatement statement;
+        try (Connection connection = getReadConnection()) {
+            try {
+                statement = prepare(connection, PreparedStatements.GET_ALLREVIEW);
+                ResultSet results = statement.executeQuery();
+                List<Review> reviews = new ArrayList<>();
+                while (results.next()) {
+                    reviews.add(new Review(Review.reviewIdOf(results.getString("sourceid")),
+                            results.getString("hotelid"),
                             results.getString("title"),
                             results.getString("text"),
                             results.getString("username"),
@@ -362,7 +813,67 @@ public class DatabaseHandler {
                             results.getInt("rating")));
                 }
                 statement.close();
-                return reviews;
+                return Collections.unmodifiableList(reviews); // shared with the coalesced callers
+            }
+            catch(SQLException e) {
+                System.out.println(e);
+            }
+        }
+        catch (SQLException ex) {
+            System.out.println(ex);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the review summary of a hotel into database, replacing the previous one
+     * @param summary the summary to be added
+     */
+    @Override
+    public void addRatingSummary(RatingSummary summary) {
+        changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.ADD_REVIEWSUMMARY);
+            statement.setString(1, summary.getHotelId());
+            statement.setInt(2, summary.getTotalReviewCnt());
+            float[] values = summary.toArray();
+            for (int i = 0; i < values.length; i++) {
+                statement.setFloat(3 + i, values[i]);
+            }
+            statement.executeUpdate();
+            statement.close();
+            return true;
+        });
+    }
+
+    /**
+     * Gets the review summaries of all hotels from database
+     * @return an unmodifiable list of all the summaries, null if an error happens
+     */
+    @Override
+    public List<RatingSummary> getAllRatingSummaries() {
+        return read(allRatingSummaries, "all", () -> queryAllRatingSummaries());
+    }
+
+    /**
+     * Runs the query of getAllRatingSummaries, identical concurrent calls are coalesced by the caller
+     * @return a list of all the rating summaries, null if an error happens
+     */
+    private List<RatingSummary> queryAllRatingSummaries() {
+        PreparedStatement statement;
+        try (Connection connection = getReadConnection()) {
+            try {
+                statement = prepare(connection, PreparedStatements.GET_ALLREVIEWSUMMARY);
+                ResultSet results = statement.executeQuery();
+                List<RatingSummary> summaries = new ArrayList<>();
+                while (results.next()) {
+                    float[] values = new float[RatingSummary.DIMENSIONS.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = results.getFloat(3 + i); // the rating columns follow hotelid and totalreviews
+                    }
+                    summaries.add(new RatingSummary(results.getString("hotelid"), results.getInt("totalreviews"), values));
+                }
+                statement.close();
+                return Collections.unmodifiableList(summaries); // shared with the coalesced callers
             }
             catch(SQLException e) {
                 System.out.println(e);
@@ -380,12 +891,24 @@ public class DatabaseHandler {
      * @param username the username of the user
      * @return true if there is a review from the user of the hotel, otherwise false
      */
+    @Override
     public boolean getReviewWithName(String hotelId, String username) {
+        Boolean found = read(reviewByName, Arrays.asList(hotelId, username), () -> queryReviewWithName(hotelId, username));
+        return found != null && found;
+    }
+
+    /**
+     * Runs the query of getReviewWithName, identical concurrent calls are coalesced by the caller
+     * @param hotelId the id of the hotel
+     * @param username the username of the user
+     * @return true if there is a review from the user of the hotel, otherwise false
+     */
+    private boolean queryReviewWithName(String hotelId, String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection()) {
             System.out.println("Get review with username: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.GET_REVIEWWITHNAME);
+                statement = prepare(connection, PreparedStatements.GET_REVIEWWITHNAME);
                 statement.setString(1, hotelId);
                 statement.setString(2, username);
                 ResultSet results = statement.executeQuery();
@@ -407,42 +930,64 @@ public class DatabaseHandler {
      * Deletes the review of the user of the hotel
      * @param hotelid the id of the hotel
      * @param username the username of the user
+     * @return true if the review was deleted, false if there is none or an error happens
      */
-    public void deleteReview(String hotelid, String username) {
-        PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
-            System.out.println("Delete review: dbConnection successful");
-            try {
-                statement = connection.prepareStatement(PreparedStatements.DELETE_REVIEW);
-                statement.setString(1, hotelid);
-                statement.setString(2, username);
-                statement.executeUpdate();
-                statement.close();
-            }
-            catch(SQLException e) {
-                System.out.println(e);
-            }
-        }
-        catch (SQLException ex) {
-            System.out.println(ex);
+    @Override
+    public boolean deleteReview(String hotelid, String username) {
+        Boolean changed = changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.DELETE_REVIEW);
+            statement.setString(1, hotelid);
+            statement.setString(2, Review.userSourceId(username));
+            boolean deleted = statement.executeUpdate() > 0;
+            statement.close();
+            return deleted;
+        });
+        return changed != null && changed;
+    }
+
+    /**
+     * Deletes reviews of a hotel by their source ids in one batched transaction
+     * @param hotelId the id of the hotel
+     * @param sourceIds the source ids of the reviews
+     * @return true if the reviews are gone, false if none was deleted because of an error
+     */
+    @Override
+    public boolean deleteReviews(String hotelId, List<String> sourceIds) {
+        if (sourceIds.isEmpty()) {
+            return true;
         }
+        Boolean deleted = changeCatalog(connection -> {
+            PreparedStatement statement = prepare(connection, PreparedStatements.DELETE_REVIEW);
+            for (String sourceId : sourceIds) {
+                statement.setString(1, hotelId);
+                statement.setString(2, sourceId);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            statement.close();
+            return true;
+        });
+        return deleted != null;
     }
 
     /**
      * Adds a history if the user clicks the expedia link
      * @param hotelId the id of the hotel
      * @param username the username of the user
+     * @return true if the hotel was added, false if an error happens
      */
-    public void addExpediaHistory(String hotelId, String username) {
+    @Override
+    public boolean addExpediaHistory(String hotelId, String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             System.out.println("Add Expedia history: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.ADD_EXPEDIAHISTORY);
+                statement = prepare(connection, PreparedStatements.ADD_EXPEDIAHISTORY);
                 statement.setString(1, username);
                 statement.setString(2, hotelId);
                 statement.executeUpdate();
                 statement.close();
+                return true;
             }
             catch(SQLException e) {
                 System.out.println(e);
@@ -451,20 +996,31 @@ public class DatabaseHandler {
         catch (SQLException ex) {
             System.out.println(ex);
         }
+        return false;
     }
 
     /**
      * Gets all the expedia history of the user
      * @param username the username of the user
-     * @return a list of hotel id that the user has searched
+     * @return an unmodifiable list of hotel id that the user has searched
      */
+    @Override
     public List<String> getExpediaHistory(String username) {
+        return read(historyByUser, username, () -> queryExpediaHistory(username));
+    }
+
+    /**
+     * Runs the query of getExpediaHistory, identical concurrent calls are coalesced by the caller
+     * @param username the username of the user
+     * @return a list of hotel id that the user has searched
+     */
+    private List<String> queryExpediaHistory(String username) {
         PreparedStatement statement;
         List<String> history = new ArrayList<>();
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection()) {
             System.out.println("Get Expedia history: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.GET_EXPEDIAHISTORY);
+                statement = prepare(connection, PreparedStatements.GET_EXPEDIAHISTORY);
                 statement.setString(1, username);
                 ResultSet results = statement.executeQuery();
                 while (results.next()) {
@@ -479,19 +1035,20 @@ public class DatabaseHandler {
         catch (SQLException ex) {
             System.out.println(ex);
         }
-        return history;
+        return Collections.unmodifiableList(history); // shared with the coalesced callers
     }
 
     /**
      * Clears all the expedia history of the user
      * @param username the username of the user
      */
+    @Override
     public void clearHistory(String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             System.out.println("Clear history: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.CLEAR_HISTORY);
+                statement = prepare(connection, PreparedStatements.CLEAR_HISTORY);
                 statement.setString(1, username);
                 statement.executeUpdate();
                 statement.close();
@@ -505,21 +1062,33 @@ public class DatabaseHandler {
         }
     }
 
+    /**
+     * Gets the expedia history of every user
+     * @return the hotel ids in the history of each user by username, null if an error happens
+     */
+    @Override
+    public Map<String, List<String>> getAllExpediaHistories() {
+        return queryHotelsByUser(PreparedStatements.GET_ALLEXPEDIAHISTORY);
+    }
+
     /**
      * Adds a hotel to the favorite list of the user
      * @param hotelId the id of the hotel
      * @param username the username of the user
+     * @return true if the hotel was added, false if an error happens
      */
-    public void addFavorite(String hotelId, String username) {
+    @Override
+    public boolean addFavorite(String hotelId, String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             System.out.println("Add favorite hotel: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.ADD_FAVORITE);
+                statement = prepare(connection, PreparedStatements.ADD_FAVORITE);
                 statement.setString(1, username);
                 statement.setString(2, hotelId);
                 statement.executeUpdate();
                 statement.close();
+                return true;
             }
             catch(SQLException e) {
                 System.out.println(e);
@@ -528,20 +1097,31 @@ public class DatabaseHandler {
         catch (SQLException ex) {
             System.out.println(ex);
         }
+        return false;
     }
 
     /**
      * Gets the hotel ids of the user's favorite
      * @param username the username of the user
-     * @return a list of hotel ids
+     * @return an unmodifiable list of hotel ids
      */
+    @Override
     public List<String> getFavorite(String username) {
+        return read(favoritesByUser, username, () -> queryFavorite(username));
+    }
+
+    /**
+     * Runs the query of getFavorite, identical concurrent calls are coalesced by the caller
+     * @param username the username of the user
+     * @return a list of hotel ids
+     */
+    private List<String> queryFavorite(String username) {
         PreparedStatement statement;
         List<String> favorites = new ArrayList<>();
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getReadConnection()) {
             System.out.println("Get favorite: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.GET_FAVORITE);
+                statement = prepare(connection, PreparedStatements.GET_FAVORITE);
                 statement.setString(1, username);
                 ResultSet results = statement.executeQuery();
                 while (results.next()) {
@@ -556,19 +1136,20 @@ public class DatabaseHandler {
         catch (SQLException ex) {
             System.out.println(ex);
         }
-        return favorites;
+        return Collections.unmodifiableList(favorites); // shared with the coalesced callers
     }
 
     /**
      * Clears the favorite list of the user
      * @param username the username of the user
      */
+    @Override
     public void clearFavorite(String username) {
         PreparedStatement statement;
-        try (Connection connection = DriverManager.getConnection(uri, config.getProperty("username"), config.getProperty("password"))) {
+        try (Connection connection = getWriteConnection()) {
             System.out.println("Clear favorite: dbConnection successful");
             try {
-                statement = connection.prepareStatement(PreparedStatements.CLEAR_FAVORITE);
+                statement = prepare(connection, PreparedStatements.CLEAR_FAVORITE);
                 statement.setString(1, username);
                 statement.executeUpdate();
                 statement.close();
@@ -582,6 +1163,44 @@ public class DatabaseHandler {
         }
     }
 
+    /**
+     * Gets the favorite hotels of every user
+     * @return the favorite hotel ids of each user by username, null if an error happens
+     */
+    @Override
+    public Map<String, List<String>> getAllFavorites() {
+        return queryHotelsByUser(PreparedStatements.GET_ALLFAVORITE);
+    }
+
+    /**
+     * Reads a table of (username, hotelid) rows
+     * @param sql the query selecting the rows
+     * @return the hotel ids of each user by username, null if an error happens
+     */
+    private Map<String, List<String>> queryHotelsByUser(String sql) {
+        PreparedStatement statement;
+        try (Connection connection = getReadConnection()) {
+            try {
+                statement = prepare(connection, sql);
+                ResultSet results = statement.executeQuery();
+                Map<String, List<String>> hotelsByUser = new HashMap<>();
+                while (results.next()) {
+                    hotelsByUser.computeIfAbsent(results.getString("username"), k -> new ArrayList<>())
+                            .add(results.getString("hotelid"));
+                }
+                statement.close();
+                return hotelsByUser;
+            }
+            catch(SQLException e) {
+                System.out.println(e);
+            }
+        }
+        catch (SQLException ex) {
+            System.out.println(ex);
+        }
+        return null;
+    }
+
     public static void main(String[] args) {
         DatabaseHandler dbhandler = DatabaseHandler.getInstance();
         dbhandler.createTables();
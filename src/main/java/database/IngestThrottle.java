@@ -0,0 +1,255 @@
+package database;
+
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket limiting how many review files per second ingest may parse while the server is serving.
+ * Once a second the rate is adjusted from what the requests saw in that second: it is halved when the
+ * p99 request latency or the p99 wait for a database connection is above its target, doubled when no
+ * request came in, and raised by a tenth otherwise. The rate can also be fixed, and ingest paused and
+ * resumed, at runtime. Until the server enables it, ingest is not throttled at all.
+ *
+ * Configured with system properties: ingest.rate (default 200 files/s), ingest.minRate (5),
+ * ingest.maxRate (5000), ingest.targetLatencyMillis (250) and ingest.targetPoolWaitMillis (20).
+ */
+public class IngestThrottle {
+    private static final IngestThrottle INSTANCE = new IngestThrottle(
+            Double.parseDouble(System.getProperty("ingest.rate", "200")),
+            Double.parseDouble(System.getProperty("ingest.minRate", "5")),
+            Double.parseDouble(System.getProperty("ingest.maxRate", "5000")),
+            Long.getLong("ingest.targetLatencyMillis", 250) * 1_000_000,
+            Long.getLong("ingest.targetPoolWaitMillis", 20) * 1_000_000);
+
+    private final double minRate;
+    private final double maxRate;
+    private final long targetLatencyNanos;
+    private final long targetPoolWaitNanos;
+
+    private volatile boolean enabled;
+    private double rate; // files per second
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private boolean paused;
+    private boolean manual; // the rate was fixed by hand, do not adapt it
+    private volatile LatencyHistogram requests = new LatencyHistogram(); // the current second
+    private volatile LatencyHistogram poolWaits = new LatencyHistogram(); // the current second
+    private long lastLatencyNanos;
+    private long lastPoolWaitNanos;
+
+    /**
+     * Constructor of IngestThrottle
+     * @param rate the rate to start with, in files per second
+     * @param minRate the lowest the rate can adapt to
+     * @param maxRate the highest the rate can adapt to
+     * @param targetLatencyNanos the p99 request latency above which ingest backs off
+     * @param targetPoolWaitNanos the p99 connection wait above which ingest backs off
+     */
+    private IngestThrottle(double rate, double minRate, double maxRate, long targetLatencyNanos,
+                           long targetPoolWaitNanos) {
+        this.rate = rate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.targetPoolWaitNanos = targetPoolWaitNanos;
+    }
+
+    /**
+     * Returns the throttle shared by every ingest
+     * @return the throttle
+     */
+    public static IngestThrottle getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts throttling ingest and adapting the rate once a second; called by the server, so that
+     * command-line ingest runs at full speed
+     */
+    public synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        enabled = true;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("ingest_throttle_rate", "Review files per second ingest may parse", this::getRate);
+        metrics.gauge("ingest_throttle_paused", "1 if ingest is paused", () -> isPaused() ? 1 : 0);
+        ScheduledExecutorService adjuster = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ingest-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        adjuster.scheduleAtFixedRate(this::adjust, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits until ingest may parse one more file
+     */
+    public void acquire() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        synchronized (this) {
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    tokens = Math.min(burst(), tokens + rate * (now - refilledAt) / 1e9);
+                    refilledAt = now;
+                    if (paused) {
+                        wait();
+                    } else if (tokens >= 1) {
+                        tokens -= 1;
+                        break;
+                    } else {
+                        long waitNanos = (long) ((1 - tokens) / rate * 1e9);
+                        wait(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        MetricsRegistry.getInstance().histogram("ingest_throttle_wait_seconds", "Time ingest waited for the throttle")
+                .record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the latency of a served request
+     * @param nanos the latency
+     */
+    public void recordRequest(long nanos) {
+        if (enabled) {
+            requests.record(nanos);
+        }
+    }
+
+    /**
+     * Records how long a query waited for a database connection
+     * @param nanos the wait
+     */
+    public void recordPoolWait(long nanos) {
+        if (enabled) {
+            poolWaits.record(nanos);
+        }
+    }
+
+    /**
+     * Adapts the rate to the latencies of the last second
+     */
+    private void adjust() {
+        LatencyHistogram lastRequests = requests;
+        LatencyHistogram lastPoolWaits = poolWaits;
+        requests = new LatencyHistogram();
+        poolWaits = new LatencyHistogram();
+        long latency = lastRequests.getValueAtQuantile(0.99);
+        long poolWait = lastPoolWaits.getValueAtQuantile(0.99);
+        synchronized (this) {
+            lastLatencyNanos = latency;
+            lastPoolWaitNanos = poolWait;
+            if (manual) {
+                return;
+            }
+            if (latency > targetLatencyNanos || poolWait > targetPoolWaitNanos) {
+                rate = Math.max(minRate, rate / 2);
+            } else if (lastRequests.getCount() == 0) {
+                rate = Math.min(maxRate, rate * 2); // nobody to protect
+            } else {
+                rate = Math.min(maxRate, rate * 1.1);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gets the most tokens the bucket holds, a tenth of a second of the rate
+     * @return the burst size
+     */
+    private double burst() {
+        return Math.max(1, rate / 10);
+    }
+
+    /**
+     * Stops ingest before its next file
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Lets ingest go on
+     */
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Fixes the rate, which no longer adapts until {@link #setAdaptive()} is called
+     * @param filesPerSecond the rate
+     */
+    public synchronized void setRate(double filesPerSecond) {
+        rate = Math.max(0.1, filesPerSecond);
+        manual = true;
+        notifyAll();
+    }
+
+    /**
+     * Lets the rate adapt to the latencies again
+     */
+    public synchronized void setAdaptive() {
+        manual = false;
+    }
+
+    /**
+     * Getter for the rate
+     * @return the rate in files per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Checks if ingest is paused
+     * @return true if it is paused
+     */
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Checks if the rate was fixed by hand
+     * @return true if the rate does not adapt
+     */
+    public synchronized boolean isManual() {
+        return manual;
+    }
+
+    /**
+     * Checks if ingest is throttled
+     * @return true once the server has enabled the throttle
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the p99 request latency of the last second
+     * @return the latency in nanoseconds
+     */
+    public synchronized long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Gets the p99 connection wait of the last second
+     * @return the wait in nanoseconds
+     */
+    public synchronized long getLastPoolWaitNanos() {
+        return lastPoolWaitNanos;
+    }
+}
@@ -0,0 +1,114 @@
+package database;
+
+import metrics.MetricsRegistry;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Wraps a PreparedStatement so that every execution is timed and every failure is counted,
+ * labelled with the name of the statement in PreparedStatements.
+ * Executions and rows read are also added to the QueryProfile of the current request.
+ */
+public class InstrumentedStatement implements InvocationHandler {
+    private final PreparedStatement statement;
+    private final String name;
+
+    /**
+     * Constructor of InstrumentedStatement
+     * @param statement the statement to be wrapped
+     * @param name the name of the statement
+     */
+    private InstrumentedStatement(PreparedStatement statement, String name) {
+        this.statement = statement;
+        this.name = name;
+    }
+
+    /**
+     * Wraps a prepared statement
+     * @param statement the statement to be wrapped
+     * @param name the name of the statement, used as the metric label
+     * @return a prepared statement that records metrics
+     */
+    public static PreparedStatement wrap(PreparedStatement statement, String name) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InstrumentedStatement(statement, name));
+    }
+
+    /**
+     * Times calls to the execute methods and passes everything else through
+     * @param proxy the proxy instance
+     * @param method the method called
+     * @param args the arguments of the call
+     * @return the result of the call
+     * @throws Throwable the exception thrown by the statement
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().startsWith("execute")) {
+            return call(method, args);
+        }
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        QueryProfile profile = QueryProfile.current();
+        long start = System.nanoTime();
+        try {
+            Object result = call(method, args);
+            if (profile != null && result instanceof ResultSet) {
+                return countRows((ResultSet) result, profile);
+            }
+            return result;
+        } catch (SQLException e) {
+            metrics.counter("db_errors_total", "Failed database statements", "statement", name).increment();
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.histogram("db_query_duration_seconds", "Latency of database statements", "statement", name)
+                    .record(elapsed);
+            if (profile != null) {
+                profile.recordStatement(name, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Wraps a result set so that every row read is added to the profile
+     * @param results the result set
+     * @param profile the profile of the current request
+     * @return a result set counting the rows read
+     */
+    private static ResultSet countRows(ResultSet results, QueryProfile profile) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(results, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                profile.recordRow();
+            }
+            return result;
+        };
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, handler);
+    }
+
+    /**
+     * Calls the wrapped statement, unwrapping reflection exceptions
+     * @param method the method called
+     * @param args the arguments of the call
+     * @return the result of the call
+     * @throws Throwable the exception thrown by the statement
+     */
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(statement, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package database;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import hotelapp.Hotel;
+import hotelapp.RatingSummary;
+import hotelapp.Review;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embedded storage engine that keeps everything in concurrent in-memory maps.
+ * Every change is appended to a journal file first, and the journal is replayed on startup,
+ * so the data survives restarts without a database server.
+ */
+public class MemoryDataStore implements DataStore {
+    /** Orders hotel ids numerically, like the INTEGER primary key of the hotels table */
+    private static final Comparator<String> HOTEL_ID_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    private final ConcurrentMap<String, User> users = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Hotel> hotels = new ConcurrentSkipListMap<>(HOTEL_ID_ORDER);
+    private final ConcurrentMap<String, List<Review>> reviews = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RatingSummary> summaries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> favorites = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> histories = new ConcurrentHashMap<>();
+    private final AtomicLong catalogChanges = new AtomicLong();
+
+    private final Gson gson = new Gson();
+    private final Random random = new SecureRandom();
+    private final boolean sync;
+    private FileOutputStream journalStream;
+    private Writer journal;
+
+    /**
+     * A registered user
+     */
+    private static class User {
+        private final String passhash;
+        private final String usersalt;
+        private volatile Timestamp lastlogin;
+
+        public User(String passhash, String usersalt, Timestamp lastlogin) {
+            this.passhash = passhash;
+            this.usersalt = usersalt;
+            this.lastlogin = lastlogin;
+        }
+    }
+
+    /**
+     * One line of the journal
+     */
+    private static class JournalEntry {
+        private String op;
+        private String[] args;
+
+        public JournalEntry(String op, String... args) {
+            this.op = op;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Constructor of MemoryDataStore, replays the journal and opens it for appending
+     * @param journalFile the path of the journal file
+     * @param sync true to force every journal write to disk before returning
+     */
+    public MemoryDataStore(String journalFile, boolean sync) {
+        this.sync = sync;
+        Path path = Paths.get(journalFile);
+        replay(path);
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            journalStream = new FileOutputStream(path.toFile(), true);
+            journal = new OutputStreamWriter(journalStream, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Could not open the journal, changes will not be persisted: " + e);
+        }
+    }
+
+    /**
+     * Replays the journal into the in-memory maps
+     * @param path the path of the journal file
+     */
+    private void replay(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        int count = 0;
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                try {
+                    JournalEntry entry = gson.fromJson(line, JournalEntry.class);
+                    if (entry != null) {
+                        apply(entry);
+                        count++;
+                    }
+                } catch (JsonSyntaxException e) {
+                    // a torn last line from a crash, everything before it is intact
+                    System.out.println("Skipping a corrupt journal entry: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read the journal: " + e);
+        }
+        System.out.println("Replayed " + count + " journal entries");
+    }
+
+    /**
+     * Applies a change to the in-memory maps
+     * @param entry the change
+     */
+    private void apply(JournalEntry entry) {
+        String[] a = entry.args;
+        if (entry.op.equals("addHotel") || entry.op.equals("addReview") || entry.op.equals("deleteReview")
+                || entry.op.equals("addRatingSummary") || entry.op.equals("applyHotelChanges")
+                || entry.op.equals("deleteReviews")) {
+            catalogChanges.incrementAndGet();
+        }
+        switch (entry.op) {
+            case "registerUser" -> users.putIfAbsent(a[0], new User(a[1], a[2], Timestamp.valueOf(a[3])));
+            case "login" -> {
+                User user = users.get(a[0]);
+                if (user != null) {
+                    user.lastlogin = Timestamp.valueOf(a[1]);
+                }
+            }
+            case "addHotel" -> hotels.putIfAbsent(a[0], new Hotel(a[1], a[0], a[2], a[3], a[4], a.length > 5 ? a[5] : null));
+            case "applyHotelChanges" -> {
+                // the number of hotels put, six fields for each of them, then the ids of the hotels removed
+                int put = Integer.parseInt(a[0]);
+                for (int i = 0; i < put; i++) {
+                    int f = 1 + 6 * i;
+                    hotels.put(a[f], new Hotel(a[f + 1], a[f], a[f + 2], a[f + 3], a[f + 4], a[f + 5]));
+                }
+                for (int i = 1 + 6 * put; i < a.length; i++) {
+                    String hotelId = a[i];
+                    hotels.remove(hotelId);
+                    reviews.remove(hotelId);
+                    summaries.remove(hotelId);
+                    for (Set<String> set : favorites.values()) {
+                        set.remove(hotelId);
+                    }
+                    for (Set<String> set : histories.values()) {
+                        set.remove(hotelId);
+                    }
+                }
+            }
+            case "addReview" -> {
+                List<Review> list = reviews.computeIfAbsent(a[0], k -> new ArrayList<>());
+                Review review = new Review(a.length > 6 ? a[6] : null, a[0], a[2], a[3], a[1],
+                        Timestamp.valueOf(a[4]), Integer.parseInt(a[5]));
+                synchronized (list) {
+                    if (a.length > 6) { // entries written before source ids were only ever appended
+                        list.removeIf(r -> r.getSourceId().equals(review.getSourceId()));
+                    }
+                    list.add(review);
+                }
+            }
+            case "deleteReview" -> {
+                List<Review> list = reviews.get(a[0]);
+                if (list != null) {
+                    synchronized (list) {
+                        list.removeIf(r -> r.getSourceId().equals(Review.userSourceId(a[1])));
+                    }
+                }
+            }
+            case "deleteReviews" -> {
+                List<Review> list = reviews.get(a[0]);
+                if (list != null) {
+                    Set<String> sourceIds = new HashSet<>(Arrays.asList(a).subList(1, a.length));
+                    synchronized (list) {
+                        list.removeIf(r -> sourceIds.contains(r.getSourceId()));
+                    }
+                }
+            }
+            case "addRatingSummary" -> {
+                float[] values = new float[a.length - 2];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Float.parseFloat(a[2 + i]);
+                }
+                summaries.put(a[0], new RatingSummary(a[0], Integer.parseInt(a[1]), values));
+            }
+            case "addExpediaHistory" -> histories.computeIfAbsent(a[1], k -> Collections.synchronizedSet(new LinkedHashSet<>())).add(a[0]);
+            case "clearHistory" -> histories.remove(a[0]);
+            case "addFavorite" -> favorites.computeIfAbsent(a[1], k -> Collections.synchronizedSet(new LinkedHashSet<>())).add(a[0]);
+            case "clearFavorite" -> favorites.remove(a[0]);
+            default -> System.out.println("Unknown journal operation: " + entry.op);
+        }
+    }
+
+    /**
+     * Appends a change to the journal and then applies it, unless the journal could not be written:
+     * the change would then look done and be gone after a restart
+     * @param op the name of the operation
+     * @param args the arguments of the operation
+     * @return true if the change was journaled and applied
+     */
+    private synchronized boolean write(String op, String... args) {
+        JournalEntry entry = new JournalEntry(op, args);
+        if (journal != null) {
+            try {
+                journal.write(gson.toJson(entry));
+                journal.write('\n');
+                journal.flush();
+                if (sync) {
+                    journalStream.getFD().sync();
+                }
+            } catch (IOException e) {
+                System.out.println("Could not write the journal: " + e);
+                return false;
+            }
+        }
+        apply(entry);
+        return true;
+    }
+
+    /**
+     * Nothing to create, the maps exist from the start
+     */
+    @Override
+    public void createTables() {}
+
+    @Override
+    public synchronized boolean registerUser(String newuser, String newpass) {
+        byte[] saltBytes = new byte[16];
+        random.nextBytes(saltBytes);
+        String usersalt = DatabaseHandler.encodeHex(saltBytes, 32);
+        String passhash = DatabaseHandler.getHash(newpass, usersalt);
+        if (users.containsKey(newuser)) {
+            System.out.println("Duplicate username: " + newuser);
+            return false;
+        }
+        return write("registerUser", newuser, passhash, usersalt, now().toString());
+    }
+
+    @Override
+    public Timestamp authenticateUser(String username, String password) {
+        User user = users.get(username);
+        if (user == null || !user.passhash.equals(DatabaseHandler.getHash(password, user.usersalt))) {
+            return null;
+        }
+        Timestamp lastlogin = user.lastlogin;
+        write("login", username, now().toString());
+        return lastlogin;
+    }
+
+    @Override
+    public boolean checkUsername(String username) {
+        return users.containsKey(username);
+    }
+
+    @Override
+    public void addHotel(Hotel hotel) {
+        if (hotels.containsKey(hotel.getId())) {
+            System.out.println("Duplicate hotel: " + hotel.getId());
+            return;
+        }
+        write("addHotel", hotel.getId(), hotel.getName(), hotel.getLat(), hotel.getLng(), hotel.getAddress(), hotel.getCity());
+    }
+
+    /**
+     * Applies the changes of a catalog refresh as a single journal entry, so a crash keeps all of them or none
+     * @param added the new hotels
+     * @param changed the hotels whose details changed
+     * @param removed the ids of the hotels no longer in the catalog
+     * @return true if the changes were journaled
+     */
+    @Override
+    public boolean applyHotelChanges(List<Hotel> added, List<Hotel> changed, List<String> removed) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(added.size() + changed.size()));
+        for (List<Hotel> list : List.of(added, changed)) {
+            for (Hotel hotel : list) {
+                Collections.addAll(args, hotel.getId(), hotel.getName(), hotel.getLat(), hotel.getLng(),
+                        hotel.getAddress(), hotel.getCity());
+            }
+        }
+        args.addAll(removed);
+        return write("applyHotelChanges", args.toArray(new String[0]));
+    }
+
+    @Override
+    public Hotel getHotelWithId(String hotelId) {
+        return hotels.get(hotelId);
+    }
+
+    @Override
+    public List<Hotel> getAllHotel() {
+        return new ArrayList<>(hotels.values());
+    }
+
+    @Override
+    public String getDataVersion() {
+        return "memory:" + catalogChanges.get();
+    }
+
+    @Override
+    public void addReview(Review review) {
+        writeReview(review);
+    }
+
+    @Override
+    public boolean addReviews(List<Review> reviews) {
+        boolean written = true;
+        for (Review review : reviews) {
+            written &= writeReview(review); // a retry replaces the reviews already written
+        }
+        return written;
+    }
+
+    /**
+     * Journals a review, replacing the review of the hotel with the same source id
+     * @param review the review
+     * @return true if the review was journaled
+     */
+    private boolean writeReview(Review review) {
+        return write("addReview", review.getHotelId(), review.getUserNickname(), review.getTitle(), review.getReviewText(),
+                review.getDatePosted().toString(), String.valueOf(review.getRatingOverall()), review.getReviewId());
+    }
+
+    @Override
+    public synchronized boolean addReviewIfAbsent(Review review) {
+        if (hasReview(review.getHotelId(), review.getSourceId())) {
+            return false;
+        }
+        return writeReview(review);
+    }
+
+    @Override
+    public synchronized boolean updateReview(Review review) {
+        if (!hasReview(review.getHotelId(), review.getSourceId())) {
+            return false;
+        }
+        return writeReview(review); // replaces the review with the same source id
+    }
+
+    /**
+     * Checks if a hotel has a review with the given source id
+     * @param hotelId the id of the hotel
+     * @param sourceId the source id of the review
+     * @return true if there is such a review
+     */
+    private boolean hasReview(String hotelId, String sourceId) {
+        List<Review> list = reviews.get(hotelId);
+        if (list == null) {
+            return false;
+        }
+        synchronized (list) {
+            for (Review review : list) {
+                if (review.getSourceId().equals(sourceId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<Review> getReviewWithId(String hotelId) {
+        List<Review> list = reviews.get(hotelId);
+        if (list == null) {
+            return new ArrayList<>();
+        }
+        synchronized (list) {
+            return new ArrayList<>(list);
+        }
+    }
+
+    @Override
+    public List<Review> getAllReviews() {
+        List<Review> all = new ArrayList<>();
+        for (List<Review> list : reviews.values()) {
+            synchronized (list) {
+                all.addAll(list);
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public void addRatingSummary(RatingSummary summary) {
+        float[] values = summary.toArray();
+        String[] args = new String[values.length + 2];
+        args[0] = summary.getHotelId();
+        args[1] = String.valueOf(summary.getTotalReviewCnt());
+        for (int i = 0; i < values.length; i++) {
+            args[2 + i] = String.valueOf(values[i]);
+        }
+        write("addRatingSummary", args);
+    }
+
+    @Override
+    public List<RatingSummary> getAllRatingSummaries() {
+        return new ArrayList<>(summaries.values());
+    }
+
+    @Override
+    public boolean getReviewWithName(String hotelId, String username) {
+        List<Review> list = reviews.get(hotelId);
+        if (list == null) {
+            return false;
+        }
+        synchronized (list) {
+            for (Review review : list) {
+                if (review.getUserNickname().equals(username)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean deleteReview(String hotelid, String username) {
+        if (!hasReview(hotelid, Review.userSourceId(username))) {
+            return false;
+        }
+        return write("deleteReview", hotelid, username);
+    }
+
+    @Override
+    public boolean deleteReviews(String hotelId, List<String> sourceIds) {
+        if (!sourceIds.isEmpty()) {
+            List<String> args = new ArrayList<>();
+            args.add(hotelId);
+            args.addAll(sourceIds);
+            return write("deleteReviews", args.toArray(new String[0]));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addExpediaHistory(String hotelId, String username) {
+        return write("addExpediaHistory", hotelId, username);
+    }
+
+    @Override
+    public List<String> getExpediaHistory(String username) {
+        return copyOf(histories.get(username));
+    }
+
+    @Override
+    public void clearHistory(String username) {
+        write("clearHistory", username);
+    }
+
+    @Override
+    public Map<String, List<String>> getAllExpediaHistories() {
+        return copyOf(histories);
+    }
+
+    @Override
+    public boolean addFavorite(String hotelId, String username) {
+        return write("addFavorite", hotelId, username);
+    }
+
+    @Override
+    public List<String> getFavorite(String username) {
+        return copyOf(favorites.get(username));
+    }
+
+    @Override
+    public void clearFavorite(String username) {
+        write("clearFavorite", username);
+    }
+
+    @Override
+    public Map<String, List<String>> getAllFavorites() {
+        return copyOf(favorites);
+    }
+
+    /**
+     * Copies the synchronized sets of every user into lists
+     * @param sets the sets by username
+     * @return the lists by username
+     */
+    private static Map<String, List<String>> copyOf(Map<String, Set<String>> sets) {
+        Map<String, List<String>> copy = new HashMap<>();
+        sets.forEach((username, set) -> copy.put(username, copyOf(set)));
+        return copy;
+    }
+
+    /**
+     * Copies a synchronized set into a list
+     * @param set the set, may be null
+     * @return a list with the elements of the set
+     */
+    private static List<String> copyOf(Set<String> set) {
+        if (set == null) {
+            return new ArrayList<>();
+        }
+        synchronized (set) {
+            return new ArrayList<>(set);
+        }
+    }
+
+    /**
+     * Gets the current time truncated to seconds, like a DATETIME column
+     * @return the current time
+     */
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+    }
+}
@@ -1,5 +1,10 @@
 package database;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
 public class PreparedStatements {
     /** Prepared Statements for creating the users table */
     public static final String CREATE_TABLE_USERS =
@@ -17,7 +22,8 @@ public class PreparedStatements {
                     "name VARCHAR(64) NOT NULL, " +
                     "lat VARCHAR(32) NOT NULL, " +
                     "lng VARCHAR(32) NOT NULL, " +
-                    "address VARCHAR(32) NOT NULL);";
+                    "address VARCHAR(32) NOT NULL, " +
+                    "city VARCHAR(64));";
 
     /** Prepared Statements for creating the reviews table */
     public static final String CREATE_TABLE_REVIEWS =
@@ -25,6 +31,8 @@ public class PreparedStatements {
                     "reviewid INTEGER PRIMARY KEY AUTO_INCREMENT, " +
                     "hotelid INTEGER NOT NULL, " +
                     "FOREIGN KEY (hotelid) REFERENCES hotels(hotelid), " +
+                    "sourceid VARCHAR(64) NOT NULL, " +
+                    "UNIQUE KEY hotel_source (hotelid, sourceid), " +
                     "username VARCHAR(32) NOT NULL, " +
                     "title VARCHAR(64) NOT NULL, " +
                     "text LONGTEXT, " +
@@ -47,6 +55,22 @@ public class PreparedStatements {
                     "hotelid INT NOT NULL, " +
                     "CONSTRAINT con PRIMARY KEY (username, hotelid));";
 
+    /** Prepared Statements for creating the per-hotel review summary table */
+    public static final String CREATE_TABLE_REVIEWSUMMARIES =
+            "CREATE TABLE reviewsummaries (" +
+                    "hotelid INTEGER PRIMARY KEY, " +
+                    "totalreviews INT NOT NULL, " +
+                    "overall FLOAT NOT NULL, " +
+                    "cleanliness FLOAT NOT NULL, " +
+                    "serviceandstaff FLOAT NOT NULL, " +
+                    "roomcomfort FLOAT NOT NULL, " +
+                    "hotelcondition FLOAT NOT NULL, " +
+                    "location FLOAT NOT NULL, " +
+                    "neighborhood FLOAT NOT NULL, " +
+                    "valueformoney FLOAT NOT NULL, " +
+                    "roomquality FLOAT NOT NULL, " +
+                    "recommended FLOAT NOT NULL);";
+
     /** Used to insert a new user into the database. */
     public static final String REGISTER_SQL =
             "INSERT INTO users (username, password, usersalt, lastlogin) " + "VALUES (?, ?, ?, NOW());";
@@ -73,7 +97,31 @@ public class PreparedStatements {
 
     /**Used to add a hotel*/
     public static final String ADD_HOTEL =
-            "INSERT INTO hotels (hotelid, name, lat, lng, address) " + "VALUES (?, ?, ?, ?, ?);";
+            "INSERT INTO hotels (hotelid, name, lat, lng, address, city) " + "VALUES (?, ?, ?, ?, ?, ?);";
+
+    /**Used to change the hotel with id*/
+    public static final String UPDATE_HOTEL =
+            "UPDATE hotels SET name=?, lat=?, lng=?, address=?, city=? WHERE hotelid=?";
+
+    /**Used to delete the hotel with id, once nothing refers to it*/
+    public static final String DELETE_HOTEL =
+            "DELETE FROM hotels WHERE hotelid=?";
+
+    /**Used to delete the reviews of a deleted hotel*/
+    public static final String DELETE_HOTEL_REVIEWS =
+            "DELETE FROM reviews WHERE hotelid=?";
+
+    /**Used to delete the review summary of a deleted hotel*/
+    public static final String DELETE_HOTEL_REVIEWSUMMARY =
+            "DELETE FROM reviewsummaries WHERE hotelid=?";
+
+    /**Used to remove a deleted hotel from the favorites of every user*/
+    public static final String DELETE_HOTEL_FAVORITES =
+            "DELETE FROM userfavorites WHERE hotelid=?";
+
+    /**Used to remove a deleted hotel from the history of every user*/
+    public static final String DELETE_HOTEL_HISTORY =
+            "DELETE FROM expediahistory WHERE hotelid=?";
 
     /**Used to get the hotel with id*/
     public static final String GET_HOTELWITHID =
@@ -83,21 +131,59 @@ public class PreparedStatements {
     public static final String GET_ALLHOTEL =
             "SELECT * FROM hotels";
 
-    /**Used to add a review*/
+    /**Used to get the counter every change to the hotels, reviews or review summaries increments*/
+    public static final String GET_DATAVERSION =
+            "SELECT version FROM dataversion WHERE id=1";
+
+    /**Used to increment the data version, in the transaction of the change*/
+    public static final String BUMP_DATAVERSION =
+            "UPDATE dataversion SET version=version+1 WHERE id=1";
+
+    /**Used to add a review, or replace the review of the hotel with the same source id*/
     public static final String ADD_REVIEW =
-            "INSERT INTO reviews (hotelid, username, title, text, time, rating) " + "VALUES (?, ?, ?, ?, ?, ?);";
+            "INSERT INTO reviews (hotelid, sourceid, username, title, text, time, rating) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE username=VALUES(username), title=VALUES(title), text=VALUES(text), " +
+            "time=VALUES(time), rating=VALUES(rating);";
+
+    /**Used to add a review unless the hotel has one with the same source id*/
+    public static final String ADD_REVIEW_IFABSENT =
+            "INSERT IGNORE INTO reviews (hotelid, sourceid, username, title, text, time, rating) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?);";
+
+    /**Used to change the review of the hotel with the source id*/
+    public static final String UPDATE_REVIEW =
+            "UPDATE reviews SET title=?, text=?, time=?, rating=? WHERE hotelid=? AND sourceid=?";
 
     /**Used to get the review with hotel id*/
     public static final String GET_REVIEWWITHID =
             "SELECT * FROM reviews WHERE hotelid=?";
 
+    /**Used to get all the reviews*/
+    public static final String GET_ALLREVIEW =
+            "SELECT * FROM reviews";
+
+    /**Used to add or replace the review summary of a hotel*/
+    public static final String ADD_REVIEWSUMMARY =
+            "INSERT INTO reviewsummaries (hotelid, totalreviews, overall, cleanliness, serviceandstaff, roomcomfort, " +
+            "hotelcondition, location, neighborhood, valueformoney, roomquality, recommended) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE totalreviews=VALUES(totalreviews), overall=VALUES(overall), " +
+            "cleanliness=VALUES(cleanliness), serviceandstaff=VALUES(serviceandstaff), roomcomfort=VALUES(roomcomfort), " +
+            "hotelcondition=VALUES(hotelcondition), location=VALUES(location), neighborhood=VALUES(neighborhood), " +
+            "valueformoney=VALUES(valueformoney), roomquality=VALUES(roomquality), recommended=VALUES(recommended);";
+
+    /**Used to get the review summaries of all hotels*/
+    public static final String GET_ALLREVIEWSUMMARY =
+            "SELECT * FROM reviewsummaries";
+
     /**Used to get the review with the username and hotel id*/
     public static final String GET_REVIEWWITHNAME =
             "SELECT * FROM reviews WHERE hotelid=? AND username=?";
 
-    /**Used to delete the review of the hotel of the user */
+    /**Used to delete the review of the hotel with the source id */
     public static final String DELETE_REVIEW =
-            "DELETE FROM reviews WHERE hotelid=? AND username=?";
+            "DELETE FROM reviews WHERE hotelid=? AND sourceid=?";
 
     /**Used to add an expedia history*/
     public static final String ADD_EXPEDIAHISTORY =
@@ -107,6 +193,10 @@ public class PreparedStatements {
     public static final String GET_EXPEDIAHISTORY =
             "SELECT * FROM expediahistory WHERE username=?";
 
+    /**Used to get the expedia histories of all users*/
+    public static final String GET_ALLEXPEDIAHISTORY =
+            "SELECT username, hotelid FROM expediahistory";
+
     /**Used to clear the expedia history of the user*/
     public static final String CLEAR_HISTORY =
             "DELETE FROM expediahistory WHERE username=?";
@@ -119,7 +209,35 @@ public class PreparedStatements {
     public static final String GET_FAVORITE =
             "SELECT * FROM userfavorites WHERE username=?";
 
+    /**Used to get the favorite hotels of all users*/
+    public static final String GET_ALLFAVORITE =
+            "SELECT username, hotelid FROM userfavorites";
+
     /**Used to clear the favorite hotels of the user*/
     public static final String CLEAR_FAVORITE =
             "DELETE FROM userfavorites WHERE username=?";
+
+    /** Maps the text of every statement above to the name of its constant */
+    private static final Map<String, String> NAMES = new HashMap<>();
+
+    static {
+        for (Field field : PreparedStatements.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                try {
+                    NAMES.put((String) field.get(null), field.getName());
+                } catch (IllegalAccessException e) {
+                    System.out.println(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the constant holding a statement, used to label metrics
+     * @param sql the text of the statement
+     * @return the constant name, or "OTHER" for statements not defined here
+     */
+    public static String nameOf(String sql) {
+        return NAMES.getOrDefault(sql, "OTHER");
+    }
 }
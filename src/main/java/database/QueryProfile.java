@@ -0,0 +1,121 @@
+package database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the database work done while handling one HTTP request: statements executed,
+ * connections opened, rows read and time spent, plus how often each statement shape ran.
+ * A profile is bound to the request thread between {@link #start()} and {@link #end()};
+ * outside of a request nothing is recorded.
+ */
+public class QueryProfile {
+    private static final ThreadLocal<QueryProfile> current = new ThreadLocal<>();
+
+    private int calls;
+    private int connections;
+    private long rows;
+    private long nanos;
+    private final Map<String, Integer> statements = new LinkedHashMap<>();
+
+    /**
+     * Starts a profile on the current thread
+     * @return the new profile
+     */
+    public static QueryProfile start() {
+        QueryProfile profile = new QueryProfile();
+        current.set(profile);
+        return profile;
+    }
+
+    /**
+     * Ends the profile of the current thread
+     */
+    public static void end() {
+        current.remove();
+    }
+
+    /**
+     * Gets the profile of the current thread
+     * @return the profile, or null if no request is being profiled
+     */
+    public static QueryProfile current() {
+        return current.get();
+    }
+
+    /**
+     * Records an executed statement
+     * @param name the name of the statement in PreparedStatements
+     * @param elapsed the execution time in nanoseconds
+     */
+    public void recordStatement(String name, long elapsed) {
+        calls++;
+        nanos += elapsed;
+        statements.merge(name, 1, Integer::sum);
+    }
+
+    /**
+     * Records an opened connection
+     * @param elapsed the time to open the connection in nanoseconds
+     */
+    public void recordConnection(long elapsed) {
+        connections++;
+        nanos += elapsed;
+    }
+
+    /**
+     * Records a row read from a result set
+     */
+    public void recordRow() {
+        rows++;
+    }
+
+    /**
+     * Getter for the number of executed statements
+     * @return the number of executed statements
+     */
+    public int getCalls() {
+        return calls;
+    }
+
+    /**
+     * Getter for the number of opened connections
+     * @return the number of opened connections
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Getter for the number of rows read
+     * @return the number of rows read
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Getter for the time spent in the database
+     * @return the time in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Gets how often each statement ran
+     * @return the execution count per statement name
+     */
+    public Map<String, Integer> getStatements() {
+        return statements;
+    }
+
+    /**
+     * toString method for the profile
+     * @return a one-line summary of the profile
+     */
+    public String toString() {
+        return calls + " statements, " + connections + " connections, " + rows + " rows, "
+                + String.format("%.1f", nanos / 1e6) + " ms " + statements;
+    }
+}
@@ -0,0 +1,91 @@
+package database;
+
+/**
+ * Tracks when the current user last wrote to the primary, so that their reads go to the primary too
+ * until the replicas have had time to catch up. The time is bound to the request thread between
+ * {@link #start(long)} and {@link #end()} and carried from request to request in the session;
+ * outside of a request, reads may always use a replica.
+ */
+public class ReadConsistency {
+    private static final ThreadLocal<ReadConsistency> current = new ThreadLocal<>();
+
+    private final long stickyMillis;
+    private volatile long primaryUntil;
+
+    /**
+     * Constructor of ReadConsistency
+     * @param primaryUntil until when reads must use the primary, in epoch milliseconds
+     * @param stickyMillis how long reads stay on the primary after a write
+     */
+    private ReadConsistency(long primaryUntil, long stickyMillis) {
+        this.primaryUntil = primaryUntil;
+        this.stickyMillis = stickyMillis;
+    }
+
+    /**
+     * Starts tracking the writes of a request on the current thread
+     * @param primaryUntil until when reads must use the primary, from the previous requests of the session
+     * @param stickyMillis how long reads stay on the primary after a write
+     * @return the state of the request
+     */
+    public static ReadConsistency start(long primaryUntil, long stickyMillis) {
+        ReadConsistency consistency = new ReadConsistency(primaryUntil, stickyMillis);
+        current.set(consistency);
+        return consistency;
+    }
+
+    /**
+     * Gets the state of the request on the current thread, to hand it to threads working for the request
+     * @return the state of the request, or null outside of a request
+     */
+    public static ReadConsistency get() {
+        return current.get();
+    }
+
+    /**
+     * Tracks the writes of a request on the current thread too, so that a write made by another thread
+     * on behalf of the request sends the request's later reads to the primary; call end when done
+     * @param consistency the state of the request, from get, may be null
+     */
+    public static void bind(ReadConsistency consistency) {
+        if (consistency != null) {
+            current.set(consistency);
+        } else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Stops tracking the writes of the current thread
+     */
+    public static void end() {
+        current.remove();
+    }
+
+    /**
+     * Records a write by the current request
+     */
+    public static void recordWrite() {
+        ReadConsistency consistency = current.get();
+        if (consistency != null) {
+            consistency.primaryUntil = System.currentTimeMillis() + consistency.stickyMillis;
+        }
+    }
+
+    /**
+     * Checks if the reads of the current request must use the primary
+     * @return true if the user wrote recently
+     */
+    public static boolean requiresPrimary() {
+        ReadConsistency consistency = current.get();
+        return consistency != null && System.currentTimeMillis() < consistency.primaryUntil;
+    }
+
+    /**
+     * Getter for the time until which reads must use the primary
+     * @return the time in epoch milliseconds, to be kept in the session
+     */
+    public long getPrimaryUntil() {
+        return primaryUntil;
+    }
+}
@@ -0,0 +1,193 @@
+package database;
+
+import metrics.MetricsRegistry;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads reads over the read replicas, round-robin or to the replica with the fewest borrowed connections.
+ * A background check measures the replication lag of every replica and stops routing reads to the ones
+ * behind by more than the threshold, or unreachable, until they have caught up again.
+ *
+ * Configured in database.properties: replicas (comma-separated jdbc uris), replica.username and
+ * replica.password (default: those of the primary), replica.routing (round-robin or least-loaded),
+ * replica.maxLagSeconds (default 5), replica.checkMillis (default 1000) and replica.lagQuery, a query whose
+ * first column is the lag in seconds, for example on a heartbeat table; by default SHOW REPLICA STATUS.
+ */
+public class ReplicaRouter {
+
+    /**
+     * A read replica and its last known state
+     */
+    private static class Replica {
+        private final String name;
+        private final ConnectionPool pool;
+        private volatile boolean healthy;
+        private volatile double lagSeconds = Double.NaN;
+
+        public Replica(String name, ConnectionPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+    }
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final boolean leastLoaded;
+    private final double maxLagSeconds;
+    private final String lagQuery;
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService checker;
+
+    /**
+     * Constructor of ReplicaRouter
+     * @param primary the name of the primary pool, replicas of a shard are named after it
+     * @param config the database configuration
+     * @param primaryUsername the database user of the primary
+     * @param primaryPassword the database password of the primary
+     */
+    public ReplicaRouter(String primary, Properties config, String primaryUsername, String primaryPassword) {
+        this.leastLoaded = "least-loaded".equals(config.getProperty("replica.routing", "round-robin"));
+        this.maxLagSeconds = Double.parseDouble(config.getProperty("replica.maxLagSeconds", "5"));
+        this.lagQuery = config.getProperty("replica.lagQuery");
+        String uris = config.getProperty("replicas", "").trim();
+        if (uris.isEmpty()) {
+            return;
+        }
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        for (String uri : uris.split("\\s*,\\s*")) {
+            String name = (primary.equals("primary") ? "" : primary + "-") + "replica-" + replicas.size();
+            Replica replica = new Replica(name, new ConnectionPool(name, uri,
+                    config.getProperty("replica.username", primaryUsername),
+                    config.getProperty("replica.password", primaryPassword),
+                    Integer.parseInt(config.getProperty("pool.size", "10")),
+                    Long.parseLong(config.getProperty("pool.timeoutMillis", "5000"))));
+            replicas.add(replica);
+            metrics.gauge("db_replica_lag_seconds", "Replication lag of the replica", () -> replica.lagSeconds,
+                    "replica", name);
+            metrics.gauge("db_replica_healthy", "1 if reads are routed to the replica", () -> replica.healthy ? 1 : 0,
+                    "replica", name);
+        }
+        checkLag(); // route to the replicas only once they are known to be in sync
+        long period = Long.parseLong(config.getProperty("replica.checkMillis", "1000"));
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-lag-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::checkLag, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Picks the replica to send a read to
+     * @return the pool of a healthy replica, or null to read from the primary
+     */
+    public ConnectionPool pick() {
+        Replica best = null;
+        int n = replicas.size();
+        int start = n == 0 ? 0 : Math.floorMod(next.getAndIncrement(), n);
+        for (int i = 0; i < n; i++) {
+            Replica replica = replicas.get((start + i) % n);
+            if (!replica.healthy) {
+                continue;
+            }
+            if (!leastLoaded) {
+                return replica.pool;
+            }
+            if (best == null || replica.pool.getActive() < best.pool.getActive()) {
+                best = replica;
+            }
+        }
+        return best == null ? null : best.pool;
+    }
+
+    /**
+     * Measures the lag of every replica and marks the ones behind by more than the threshold
+     */
+    private void checkLag() {
+        for (Replica replica : replicas) {
+            double lag;
+            try (Connection connection = replica.pool.borrow()) {
+                lag = lagOf(connection);
+            } catch (SQLException | RuntimeException e) {
+                lag = Double.NaN;
+                if (replica.healthy) {
+                    System.out.println("Replica " + replica.name + " is unreachable: " + e);
+                }
+            }
+            boolean healthy = !Double.isNaN(lag) && lag <= maxLagSeconds;
+            if (healthy != replica.healthy) {
+                System.out.println((healthy ? "Routing reads to " : "Stopped routing reads to ") + replica.name
+                        + (Double.isNaN(lag) ? "" : ", lag " + lag + " s"));
+            }
+            replica.lagSeconds = lag;
+            replica.healthy = healthy;
+        }
+    }
+
+    /**
+     * Reads the replication lag of a replica
+     * @param connection a connection to the replica
+     * @return the lag in seconds, NaN if replication is not running
+     * @throws SQLException if the lag can not be read
+     */
+    private double lagOf(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (lagQuery != null) {
+                try (ResultSet results = statement.executeQuery(lagQuery)) {
+                    return results.next() ? results.getDouble(1) : Double.NaN;
+                }
+            }
+            ResultSet results;
+            try {
+                results = statement.executeQuery("SHOW REPLICA STATUS");
+            } catch (SQLException e) {
+                results = statement.executeQuery("SHOW SLAVE STATUS"); // before MySQL 8.0.22
+            }
+            try (ResultSet status = results) {
+                if (!status.next()) {
+                    return Double.NaN; // not a replica
+                }
+                ResultSetMetaData meta = status.getMetaData();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    String column = meta.getColumnLabel(i);
+                    if (column.equals("Seconds_Behind_Source") || column.equals("Seconds_Behind_Master")) {
+                        long seconds = status.getLong(i);
+                        return status.wasNull() ? Double.NaN : seconds; // null while replication is stopped
+                    }
+                }
+                return Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Checks if any replica is configured
+     * @return true if reads may be routed to replicas
+     */
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Stops the lag check and closes the replica pools
+     */
+    public void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+}
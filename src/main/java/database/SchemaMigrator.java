@@ -0,0 +1,371 @@
+package database;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Brings the MySQL schema up to date. Schema changes are numbered migrations applied in order, each one
+ * recorded in the schema_version table when it succeeds, so a database is migrated once whichever version
+ * it starts from. Every step is also guarded by a look at information_schema, so databases created by the
+ * old createTables, which already have some of the tables and columns, are migrated without errors.
+ * The verify mode runs EXPLAIN on every query in PreparedStatements and reports the ones that scan a
+ * whole table.
+ */
+public class SchemaMigrator {
+    /** The queries that read a whole table on purpose, so their full scans are not reported */
+    private static final Set<String> FULL_SCANS_EXPECTED = Set.of("GET_ALLHOTEL", "GET_ALLREVIEW",
+            "GET_ALLREVIEWSUMMARY", "GET_ALLEXPEDIAHISTORY", "GET_ALLFAVORITE");
+
+    private static final String CREATE_TABLE_SCHEMA_VERSION =
+            "CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY, " +
+                    "description VARCHAR(128) NOT NULL, " +
+                    "applied DATETIME NOT NULL);";
+
+    /**
+     * One statement of a migration, skipped when its guard says the change is already there
+     */
+    private static class Step {
+        private final String guard; // counts the objects the step creates, null to always run
+        private final String sql;
+
+        public Step(String guard, String sql) {
+            this.guard = guard;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * A numbered schema change
+     */
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final List<Step> steps = new ArrayList<>();
+
+        public Migration(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        /**
+         * Adds a step creating a table
+         * @param table the name of the table
+         * @param sql the CREATE TABLE statement
+         * @return this migration
+         */
+        private Migration table(String table, String sql) {
+            steps.add(new Step("SELECT COUNT(*) FROM information_schema.tables " +
+                    "WHERE table_schema = DATABASE() AND table_name = '" + table + "'", sql));
+            return this;
+        }
+
+        /**
+         * Adds a step creating a column
+         * @param table the name of the table
+         * @param column the name of the column
+         * @param sql the ALTER TABLE statement
+         * @return this migration
+         */
+        private Migration column(String table, String column, String sql) {
+            steps.add(new Step("SELECT COUNT(*) FROM information_schema.columns " +
+                    "WHERE table_schema = DATABASE() AND table_name = '" + table + "' AND column_name = '" + column + "'",
+                    sql));
+            return this;
+        }
+
+        /**
+         * Adds a step creating an index
+         * @param table the name of the table
+         * @param index the name of the index
+         * @param sql the ALTER TABLE or CREATE INDEX statement
+         * @return this migration
+         */
+        private Migration index(String table, String index, String sql) {
+            steps.add(new Step("SELECT COUNT(*) FROM information_schema.statistics " +
+                    "WHERE table_schema = DATABASE() AND table_name = '" + table + "' AND index_name = '" + index + "'",
+                    sql));
+            return this;
+        }
+
+        /**
+         * Adds a step that always runs, it must be harmless to repeat
+         * @param sql the statement
+         * @return this migration
+         */
+        private Migration always(String sql) {
+            steps.add(new Step(null, sql));
+            return this;
+        }
+    }
+
+    /*
+     * The tables as the first migrations created them. They are copies rather than the statements in
+     * PreparedStatements, which follow the current schema, so that a fresh database goes through the same
+     * steps as an old one.
+     */
+    private static final String V1_CREATE_TABLE_USERS =
+            "CREATE TABLE users (" +
+                    "userid INTEGER AUTO_INCREMENT PRIMARY KEY, " +
+                    "username VARCHAR(32) NOT NULL UNIQUE, " +
+                    "password CHAR(64) NOT NULL, " +
+                    "usersalt CHAR(32) NOT NULL, " +
+                    "lastlogin DATETIME NOT NULL);";
+
+    private static final String V1_CREATE_TABLE_HOTELS =
+            "CREATE TABLE hotels (" +
+                    "hotelid INTEGER PRIMARY KEY, " +
+                    "name VARCHAR(64) NOT NULL, " +
+                    "lat VARCHAR(32) NOT NULL, " +
+                    "lng VARCHAR(32) NOT NULL, " +
+                    "address VARCHAR(32) NOT NULL);";
+
+    private static final String V1_CREATE_TABLE_REVIEWS =
+            "CREATE TABLE reviews (" +
+                    "reviewid INTEGER PRIMARY KEY AUTO_INCREMENT, " +
+                    "hotelid INTEGER NOT NULL, " +
+                    "FOREIGN KEY (hotelid) REFERENCES hotels(hotelid), " +
+                    "username VARCHAR(32) NOT NULL, " +
+                    "title VARCHAR(64) NOT NULL, " +
+                    "text LONGTEXT, " +
+                    "time TIMESTAMP, " +
+                    "rating INT NOT NULL);";
+
+    private static final String V1_CREATE_TABLE_USERFAVORITES =
+            "CREATE TABLE userfavorites (" +
+                    "username VARCHAR(32) NOT NULL, " +
+                    "hotelid INT NOT NULL, " +
+                    "FOREIGN KEY (username) REFERENCES users(username), " +
+                    "CONSTRAINT k PRIMARY KEY (username,hotelid), " +
+                    "FOREIGN KEY (hotelid) REFERENCES hotels(hotelid));";
+
+    private static final String V1_CREATE_TABLE_EXPEDIAHISTORY =
+            "CREATE TABLE expediahistory (" +
+                    "username VARCHAR(32) NOT NULL, " +
+                    "hotelid INT NOT NULL, " +
+                    "CONSTRAINT con PRIMARY KEY (username, hotelid));";
+
+    private static final String V3_CREATE_TABLE_REVIEWSUMMARIES =
+            "CREATE TABLE reviewsummaries (" +
+                    "hotelid INTEGER PRIMARY KEY, " +
+                    "totalreviews INT NOT NULL, " +
+                    "overall FLOAT NOT NULL, " +
+                    "cleanliness FLOAT NOT NULL, " +
+                    "serviceandstaff FLOAT NOT NULL, " +
+                    "roomcomfort FLOAT NOT NULL, " +
+                    "hotelcondition FLOAT NOT NULL, " +
+                    "location FLOAT NOT NULL, " +
+                    "neighborhood FLOAT NOT NULL, " +
+                    "valueformoney FLOAT NOT NULL, " +
+                    "roomquality FLOAT NOT NULL, " +
+                    "recommended FLOAT NOT NULL);";
+
+    private static final String V7_CREATE_TABLE_DATAVERSION =
+            "CREATE TABLE dataversion (" +
+                    "id INT PRIMARY KEY, " +
+                    "version BIGINT NOT NULL);";
+
+    /** Every migration, in order; never edit one that has shipped, add a new one instead */
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create the users, hotels, reviews, favorites and history tables")
+                    .table("users", V1_CREATE_TABLE_USERS)
+                    .table("hotels", V1_CREATE_TABLE_HOTELS)
+                    .table("reviews", V1_CREATE_TABLE_REVIEWS)
+                    .table("userfavorites", V1_CREATE_TABLE_USERFAVORITES)
+                    .table("expediahistory", V1_CREATE_TABLE_EXPEDIAHISTORY),
+            new Migration(2, "Add the city of the hotels")
+                    .column("hotels", "city", "ALTER TABLE hotels ADD COLUMN city VARCHAR(64)"),
+            new Migration(3, "Create the review summaries table")
+                    .table("reviewsummaries", V3_CREATE_TABLE_REVIEWSUMMARIES),
+            new Migration(4, "Identify reviews by a source id unique per hotel")
+                    .column("reviews", "sourceid", "ALTER TABLE reviews ADD COLUMN sourceid VARCHAR(64) AFTER hotelid")
+                    // the feed ids of older reviews are lost: a user's only review of a hotel becomes
+                    // theirs again, anything else keeps a legacy id so that the unique key holds
+                    .always("UPDATE reviews r JOIN (SELECT hotelid, username FROM reviews WHERE sourceid IS NULL " +
+                            "GROUP BY hotelid, username HAVING COUNT(*) = 1) u " +
+                            "ON r.hotelid = u.hotelid AND r.username = u.username " +
+                            "SET r.sourceid = CONCAT('user:', r.username) WHERE r.sourceid IS NULL")
+                    .always("UPDATE reviews SET sourceid = CONCAT('legacy:', reviewid) WHERE sourceid IS NULL")
+                    .always("ALTER TABLE reviews MODIFY sourceid VARCHAR(64) NOT NULL")
+                    .index("reviews", "hotel_source",
+                            "ALTER TABLE reviews ADD UNIQUE KEY hotel_source (hotelid, sourceid)"),
+            new Migration(5, "Index the review queries")
+                    .index("reviews", "hotel_time", "CREATE INDEX hotel_time ON reviews (hotelid, time)")
+                    .index("reviews", "hotel_user", "CREATE INDEX hotel_user ON reviews (hotelid, username)")
+                    .index("reviews", "review_time", "CREATE INDEX review_time ON reviews (time)"),
+            new Migration(6, "Index the history by hotel, for hotels removed from the catalog")
+                    .index("expediahistory", "history_hotel", "CREATE INDEX history_hotel ON expediahistory (hotelid)"),
+            new Migration(7, "Count the changes to the catalog, so that checking for one scans no table")
+                    .table("dataversion", V7_CREATE_TABLE_DATAVERSION)
+                    .always("INSERT IGNORE INTO dataversion (id, version) VALUES (1, 1)")
+    );
+
+    private final DatabaseHandler handler;
+
+    /**
+     * Constructor of SchemaMigrator
+     * @param handler the database handler whose schema is migrated
+     */
+    public SchemaMigrator(DatabaseHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Applies the migrations the database has not had yet, stopping at the first one that fails
+     * @return the schema version of the database afterwards, -1 if it can not be read
+     */
+    public int migrate() {
+        Integer current = handler.inTransaction(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(CREATE_TABLE_SCHEMA_VERSION);
+            }
+            return currentVersion(connection);
+        });
+        if (current == null) {
+            return -1;
+        }
+        int version = current;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= version) {
+                continue;
+            }
+            // MySQL commits every DDL statement on its own, which is why each step is guarded
+            Boolean applied = handler.inTransaction(connection -> {
+                for (Step step : migration.steps) {
+                    if (step.guard == null || count(connection, step.guard) == 0) {
+                        try (Statement statement = connection.createStatement()) {
+                            statement.executeUpdate(step.sql);
+                        }
+                    }
+                }
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO schema_version (version, description, applied) VALUES (?, ?, NOW())")) {
+                    statement.setInt(1, migration.version);
+                    statement.setString(2, migration.description);
+                    statement.executeUpdate();
+                }
+                return true;
+            });
+            if (applied == null) {
+                System.out.println("Schema migration " + migration.version + " failed, the schema stays at version " + version);
+                return version;
+            }
+            version = migration.version;
+            System.out.println("Applied schema migration " + version + ": " + migration.description);
+        }
+        return version;
+    }
+
+    /**
+     * Runs EXPLAIN on every query in PreparedStatements and reports the full table scans
+     * @return one line per unexpected full scan, empty if every query uses an index
+     */
+    public List<String> verify() {
+        List<String> findings = new ArrayList<>();
+        for (Field field : PreparedStatements.class.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != String.class) {
+                continue;
+            }
+            String name = field.getName();
+            String sql;
+            try {
+                sql = (String) field.get(null);
+            } catch (IllegalAccessException e) {
+                System.out.println(e);
+                continue;
+            }
+            String verb = sql.trim().split("\\s+")[0].toUpperCase();
+            if (!verb.equals("SELECT") && !verb.equals("UPDATE") && !verb.equals("DELETE")) {
+                continue; // inserts and table definitions have no plan
+            }
+            List<String> scans = handler.inTransaction(connection -> explain(connection, sql));
+            if (scans == null) {
+                findings.add(name + ": EXPLAIN failed");
+                continue;
+            }
+            for (String table : scans) {
+                String line = name + ": full scan of " + table;
+                if (FULL_SCANS_EXPECTED.contains(name)) {
+                    System.out.println(line + " (expected)");
+                } else {
+                    findings.add(line);
+                }
+            }
+        }
+        return findings;
+    }
+
+    /**
+     * Runs EXPLAIN on a statement, binding a placeholder value to every parameter
+     * @param connection the connection
+     * @param sql the statement
+     * @return the tables the plan reads in full
+     * @throws SQLException if the statement can not be explained
+     */
+    private static List<String> explain(Connection connection, String sql) throws SQLException {
+        List<String> scans = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            int parameters = (int) sql.chars().filter(c -> c == '?').count();
+            for (int i = 1; i <= parameters; i++) {
+                statement.setString(i, "0");
+            }
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    if ("ALL".equals(results.getString("type"))) {
+                        scans.add(results.getString("table"));
+                    }
+                }
+            }
+        }
+        return scans;
+    }
+
+    /**
+     * Reads the schema version of the database
+     * @param connection the connection
+     * @return the highest applied migration, 0 for a new database
+     * @throws SQLException if the version can not be read
+     */
+    private static int currentVersion(Connection connection) throws SQLException {
+        return count(connection, "SELECT COALESCE(MAX(version), 0) FROM schema_version");
+    }
+
+    /**
+     * Runs a query returning a single number
+     * @param connection the connection
+     * @param sql the query
+     * @return the number
+     * @throws SQLException if the query fails
+     */
+    private static int count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet results = statement.executeQuery(sql)) {
+            return results.next() ? results.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Migrates the database configured in database.properties, or with --verify also reports
+     * the queries that scan whole tables
+     * @param args --verify to check the query plans after migrating
+     */
+    public static void main(String[] args) {
+        SchemaMigrator migrator = new SchemaMigrator(DatabaseHandler.getInstance());
+        System.out.println("Schema version: " + migrator.migrate());
+        if (args.length > 0 && args[0].equals("--verify")) {
+            List<String> findings = migrator.verify();
+            findings.forEach(System.out::println);
+            System.out.println(findings.isEmpty() ? "Every query uses an index" : findings.size() + " queries scan whole tables");
+            if (!findings.isEmpty()) {
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package database;
+
+import hotelapp.Hotel;
+import hotelapp.RatingSummary;
+import hotelapp.Review;
+import metrics.MetricsRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * A storage engine spreading the hotels over several stores, the shards, each with its own connection pool.
+ * A hotel lives on one shard together with its reviews, rating summary and the favorites and history
+ * entries pointing at it, so every per-hotel query goes to a single shard. Queries over all hotels or
+ * over one user (all reviews, favorites, history) run on every shard in parallel and merge the results.
+ *
+ * A new hotel is placed by its city when the city is listed in shard.cities, otherwise by a consistent
+ * hash of its id, so adding a shard only moves the hotels of the hash ring segments it takes over.
+ * A hotel stays on its shard afterwards, even if its city changes. Users are registered on every shard,
+ * which keeps the foreign keys of each shard valid, and are authenticated on the first one; a user
+ * that some shard missed because of an error is copied to it at the next sign-in.
+ * Writes spanning several shards, like a catalog refresh, are all-or-none per shard only.
+ *
+ * Configured in database.properties: shards (the number of shards), shard.engine (mysql or memory),
+ * shard.by (hash or city), shard.cities (for example "San Francisco:0,Emeryville:1") and, for every shard N,
+ * shard.N.uri, shard.N.username, shard.N.password and shard.N.replicas overriding the settings without the
+ * prefix, or shard.N.journal (default data/shard-N.log) for the embedded engine.
+ */
+public class ShardedDataStore implements DataStore {
+    private static final int VIRTUAL_NODES = 64;
+    private static final Comparator<Hotel> HOTEL_ID_ORDER =
+            Comparator.comparingInt((Hotel h) -> h.getId().length()).thenComparing(Hotel::getId);
+
+    private final List<DataStore> shards;
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>(); // hash -> shard
+    private final Map<String, Integer> shardOfCity = new HashMap<>();
+    private final ConcurrentMap<String, Integer> shardOfHotel = new ConcurrentHashMap<>();
+    private final ExecutorService scatter = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "shard-scatter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor of ShardedDataStore
+     * @param shards the stores of the shards
+     * @param byCity true to place hotels by city where shardOfCity lists it
+     * @param shardOfCity the shard of every listed city
+     */
+    public ShardedDataStore(List<DataStore> shards, boolean byCity, Map<String, Integer> shardOfCity) {
+        this.shards = shards;
+        if (byCity) {
+            this.shardOfCity.putAll(shardOfCity);
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring.put(hash("shard-" + shard + "#" + v), shard);
+            }
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<Hotel> hotels = shards.get(shard).getAllHotel();
+            if (hotels != null) {
+                for (Hotel hotel : hotels) {
+                    shardOfHotel.put(hotel.getId(), shard);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the shards described in the configuration
+     * @param config the database configuration
+     * @return the sharded store
+     */
+    public static ShardedDataStore fromConfig(Properties config) {
+        int count = Integer.parseInt(config.getProperty("shards", "1"));
+        boolean memory = "memory".equals(config.getProperty("shard.engine", "mysql"));
+        List<DataStore> shards = new ArrayList<>();
+        for (int shard = 0; shard < count; shard++) {
+            Properties shardConfig = new Properties();
+            shardConfig.putAll(config);
+            shardConfig.remove("replicas"); // replicas and journals belong to one store, a shard names its own
+            shardConfig.remove("journal");
+            String prefix = "shard." + shard + ".";
+            for (String key : config.stringPropertyNames()) {
+                if (key.startsWith(prefix)) {
+                    shardConfig.setProperty(key.substring(prefix.length()), config.getProperty(key));
+                }
+            }
+            if (memory) {
+                shards.add(new MemoryDataStore(shardConfig.getProperty("journal", "data/shard-" + shard + ".log"),
+                        Boolean.parseBoolean(shardConfig.getProperty("journal.sync", "false"))));
+            } else {
+                DatabaseHandler handler = DatabaseHandler.forShard("shard-" + shard, shardConfig);
+                handler.createTables();
+                shards.add(handler);
+            }
+        }
+        Map<String, Integer> cities = new HashMap<>();
+        for (String entry : config.getProperty("shard.cities", "").split(",")) {
+            int colon = entry.lastIndexOf(':');
+            if (colon > 0) {
+                int shard = Integer.parseInt(entry.substring(colon + 1).trim());
+                if (shard >= 0 && shard < count) {
+                    cities.put(entry.substring(0, colon).trim(), shard);
+                }
+            }
+        }
+        System.out.println("Using " + count + " " + (memory ? "embedded" : "MySQL") + " shards");
+        return new ShardedDataStore(shards, "city".equals(config.getProperty("shard.by", "hash")), cities);
+    }
+
+    /**
+     * Gets the shard a new hotel is placed on
+     * @param hotel the hotel
+     * @return the index of the shard
+     */
+    private int place(Hotel hotel) {
+        Integer shard = hotel.getCity() == null ? null : shardOfCity.get(hotel.getCity());
+        return shard != null ? shard : onRing(hotel.getId());
+    }
+
+    /**
+     * Gets the shard holding a hotel
+     * @param hotelId the id of the hotel
+     * @return the store of the shard
+     */
+    private DataStore shardOf(String hotelId) {
+        Integer shard = shardOfHotel.get(hotelId);
+        return shards.get(shard != null ? shard : onRing(hotelId));
+    }
+
+    /**
+     * Finds the shard of a hotel id on the hash ring
+     * @param hotelId the id of the hotel
+     * @return the index of the shard
+     */
+    private int onRing(String hotelId) {
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(hotelId));
+        return (entry != null ? entry : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * Hashes a key onto the ring
+     * @param key the key
+     * @return the first four bytes of its MD5 digest
+     */
+    private static int hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | (digest[3] & 0xff);
+        } catch (NoSuchAlgorithmException e) {
+            return key.hashCode(); // every JVM has MD5
+        }
+    }
+
+    /**
+     * Runs a query on every shard in parallel and collects the results
+     * @param query the query on one shard
+     * @param <T> the type of the result of a shard
+     * @return the results in shard order, or null if a shard failed
+     */
+    private <T> List<T> gather(Function<DataStore, T> query) {
+        // the worker threads share the state of the request: they read from the primary when it must,
+        // and a write they make (clearing favorites or history) keeps the request's next reads there
+        ReadConsistency request = ReadConsistency.get();
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (DataStore shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                ReadConsistency.bind(request);
+                try {
+                    return query.apply(shard);
+                } finally {
+                    ReadConsistency.end();
+                }
+            }, scatter));
+        }
+        List<T> results = new ArrayList<>();
+        for (CompletableFuture<T> future : futures) {
+            T result = future.join();
+            if (result == null) {
+                return null;
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Runs a query returning lists on every shard in parallel and concatenates the lists
+     * @param query the query on one shard
+     * @param <T> the type of the elements
+     * @return the elements of every shard, or null if a shard failed
+     */
+    private <T> List<T> gatherAll(Function<DataStore, List<T>> query) {
+        List<List<T>> results = gather(query);
+        if (results == null) {
+            return null;
+        }
+        List<T> all = new ArrayList<>();
+        for (List<T> result : results) {
+            all.addAll(result);
+        }
+        return all;
+    }
+
+    @Override
+    public void createTables() {
+        gather(shard -> {
+            shard.createTables();
+            return true;
+        });
+    }
+
+    @Override
+    public void warmUp() {
+        gather(shard -> {
+            shard.warmUp();
+            return true;
+        });
+    }
+
+    @Override
+    public boolean registerUser(String newuser, String newpass) {
+        if (!shards.get(0).registerUser(newuser, newpass)) {
+            return false; // taken or failed, and nothing was written to the other shards
+        }
+        copyUser(newuser, newpass);
+        return true;
+    }
+
+    @Override
+    public Timestamp authenticateUser(String username, String password) {
+        Timestamp lastlogin = shards.get(0).authenticateUser(username, password);
+        if (lastlogin != null) {
+            copyUser(username, password); // finishes a registration that reached only some shards
+        }
+        return lastlogin;
+    }
+
+    /**
+     * Registers a user of the first shard on the other shards that do not have it yet, so that
+     * their favorites and history can refer to it
+     * @param username the username
+     * @param password the password
+     * @return true if every shard has the user
+     */
+    private boolean copyUser(String username, String password) {
+        List<Boolean> copied = gather(shard -> shard == shards.get(0)
+                || shard.checkUsername(username) || shard.registerUser(username, password));
+        if (copied != null && !copied.contains(false)) {
+            return true;
+        }
+        MetricsRegistry.getInstance().counter("shard_user_copy_failures_total",
+                "Users missing on some shard after registration or sign-in, copied again on the next sign-in").increment();
+        System.out.println("Could not register " + username + " on every shard, retrying at the next sign-in");
+        return false;
+    }
+
+    @Override
+    public boolean checkUsername(String username) {
+        return shards.get(0).checkUsername(username);
+    }
+
+    @Override
+    public void addHotel(Hotel hotel) {
+        int shard = shardOfHotel.computeIfAbsent(hotel.getId(), id -> place(hotel));
+        shards.get(shard).addHotel(hotel);
+    }
+
+    @Override
+    public boolean applyHotelChanges(List<Hotel> added, List<Hotel> changed, List<String> removed) {
+        Map<Integer, List<Hotel>> addedByShard = new HashMap<>();
+        Map<Integer, List<Hotel>> changedByShard = new HashMap<>();
+        Map<Integer, List<String>> removedByShard = new HashMap<>();
+        for (Hotel hotel : added) {
+            int shard = shardOfHotel.getOrDefault(hotel.getId(), place(hotel));
+            addedByShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(hotel);
+        }
+        for (Hotel hotel : changed) {
+            int shard = shardOfHotel.getOrDefault(hotel.getId(), onRing(hotel.getId()));
+            changedByShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(hotel);
+        }
+        for (String hotelId : removed) {
+            int shard = shardOfHotel.getOrDefault(hotelId, onRing(hotelId));
+            removedByShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(hotelId);
+        }
+        boolean applied = true;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<Hotel> shardAdded = addedByShard.getOrDefault(shard, List.of());
+            List<Hotel> shardChanged = changedByShard.getOrDefault(shard, List.of());
+            List<String> shardRemoved = removedByShard.getOrDefault(shard, List.of());
+            if (shardAdded.isEmpty() && shardChanged.isEmpty() && shardRemoved.isEmpty()) {
+                continue;
+            }
+            if (shards.get(shard).applyHotelChanges(shardAdded, shardChanged, shardRemoved)) {
+                for (Hotel hotel : shardAdded) {
+                    shardOfHotel.put(hotel.getId(), shard);
+                }
+                for (String hotelId : shardRemoved) {
+                    shardOfHotel.remove(hotelId);
+                }
+            } else {
+                applied = false;
+            }
+        }
+        return applied;
+    }
+
+    @Override
+    public Hotel getHotelWithId(String hotelId) {
+        return shardOf(hotelId).getHotelWithId(hotelId);
+    }
+
+    @Override
+    public List<Hotel> getAllHotel() {
+        List<Hotel> hotels = gatherAll(DataStore::getAllHotel);
+        if (hotels != null) {
+            hotels.sort(HOTEL_ID_ORDER);
+        }
+        return hotels;
+    }
+
+    @Override
+    public String getDataVersion() {
+        List<String> versions = gather(DataStore::getDataVersion);
+        return versions == null ? null : "sharded:" + String.join("|", versions);
+    }
+
+    @Override
+    public void addReview(Review review) {
+        shardOf(review.getHotelId()).addReview(review);
+    }
+
+    @Override
+    public boolean addReviews(List<Review> reviews) {
+        Map<DataStore, List<Review>> byShard = new HashMap<>();
+        for (Review review : reviews) {
+            byShard.computeIfAbsent(shardOf(review.getHotelId()), k -> new ArrayList<>()).add(review);
+        }
+        boolean added = true;
+        for (Map.Entry<DataStore, List<Review>> entry : byShard.entrySet()) {
+            added &= entry.getKey().addReviews(entry.getValue());
+        }
+        return added;
+    }
+
+    @Override
+    public boolean addReviewIfAbsent(Review review) {
+        return shardOf(review.getHotelId()).addReviewIfAbsent(review);
+    }
+
+    @Override
+    public boolean updateReview(Review review) {
+        return shardOf(review.getHotelId()).updateReview(review);
+    }
+
+    @Override
+    public List<Review> getReviewWithId(String hotelId) {
+        return shardOf(hotelId).getReviewWithId(hotelId);
+    }
+
+    @Override
+    public List<Review> getAllReviews() {
+        return gatherAll(DataStore::getAllReviews);
+    }
+
+    @Override
+    public void addRatingSummary(RatingSummary summary) {
+        shardOf(summary.getHotelId()).addRatingSummary(summary);
+    }
+
+    @Override
+    public List<RatingSummary> getAllRatingSummaries() {
+        return gatherAll(DataStore::getAllRatingSummaries);
+    }
+
+    @Override
+    public boolean getReviewWithName(String hotelId, String username) {
+        return shardOf(hotelId).getReviewWithName(hotelId, username);
+    }
+
+    @Override
+    public boolean deleteReview(String hotelid, String username) {
+        return shardOf(hotelid).deleteReview(hotelid, username);
+    }
+
+    @Override
+    public boolean deleteReviews(String hotelId, List<String> sourceIds) {
+        return shardOf(hotelId).deleteReviews(hotelId, sourceIds);
+    }
+
+    @Override
+    public boolean addExpediaHistory(String hotelId, String username) {
+        return shardOf(hotelId).addExpediaHistory(hotelId, username);
+    }
+
+    @Override
+    public List<String> getExpediaHistory(String username) {
+        return gatherAll(shard -> shard.getExpediaHistory(username));
+    }
+
+    @Override
+    public void clearHistory(String username) {
+        gather(shard -> {
+            shard.clearHistory(username);
+            return true;
+        });
+    }
+
+    @Override
+    public Map<String, List<String>> getAllExpediaHistories() {
+        return merge(gather(DataStore::getAllExpediaHistories));
+    }
+
+    @Override
+    public boolean addFavorite(String hotelId, String username) {
+        return shardOf(hotelId).addFavorite(hotelId, username);
+    }
+
+    @Override
+    public List<String> getFavorite(String username) {
+        return gatherAll(shard -> shard.getFavorite(username));
+    }
+
+    @Override
+    public void clearFavorite(String username) {
+        gather(shard -> {
+            shard.clearFavorite(username);
+            return true;
+        });
+    }
+
+    @Override
+    public Map<String, List<String>> getAllFavorites() {
+        return merge(gather(DataStore::getAllFavorites));
+    }
+
+    /**
+     * Merges the hotel ids of every user found on the shards
+     * @param results the hotel ids by username of every shard, may be null
+     * @return the hotel ids by username of all shards, or null if a shard failed
+     */
+    private static Map<String, List<String>> merge(List<Map<String, List<String>>> results) {
+        if (results == null) {
+            return null;
+        }
+        Map<String, List<String>> merged = new HashMap<>();
+        for (Map<String, List<String>> result : results) {
+            result.forEach((username, hotelIds) ->
+                    merged.computeIfAbsent(username, k -> new ArrayList<>()).addAll(hotelIds));
+        }
+        return merged;
+    }
+}
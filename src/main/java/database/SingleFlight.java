@@ -0,0 +1,150 @@
+package database;
+
+import metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent calls: while a call for a key is running, every other call for the
+ * same key waits for it and gets its result instead of running the same work again.
+ * Nothing is cached, a call arriving after the running one has finished starts a new one.
+ * A caller that is interrupted or cancels its future only stops waiting; the shared call keeps running
+ * for the others. The result is shared by all the callers, so they must not modify it.
+ * @param <K> the type of the keys identifying identical calls
+ * @param <V> the type of the results
+ */
+public class SingleFlight<K, V> {
+    private final String name;
+    private final String shard;
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor of SingleFlight
+     * @param name the name of the calls in the metrics
+     */
+    public SingleFlight(String name) {
+        this(name, null);
+    }
+
+    /**
+     * Constructor of SingleFlight for the calls to one of several databases
+     * @param name the name of the calls in the metrics
+     * @param shard the database the calls go to, the shard label of the metrics, or null for none
+     */
+    public SingleFlight(String name, String shard) {
+        this.name = name;
+        this.shard = shard;
+        MetricsRegistry.getInstance().gauge("singleflight_inflight", "Distinct calls running", calls::size,
+                labels());
+    }
+
+    /**
+     * Gets the labels of the metrics
+     * @param more more alternating label names and values
+     * @return the call and shard labels followed by the given ones
+     */
+    private String[] labels(String... more) {
+        String[] own = shard == null ? new String[] {"call", name} : new String[] {"call", name, "shard", shard};
+        String[] labels = Arrays.copyOf(own, own.length + more.length);
+        System.arraycopy(more, 0, labels, own.length, more.length);
+        return labels;
+    }
+
+    /**
+     * Runs a call in the current thread, or waits for the identical call already running
+     * @param key the key of the call, null to always run it
+     * @param loader the call
+     * @return the result of the call, or null if the thread was interrupted while waiting
+     */
+    public V execute(K key, Supplier<V> loader) {
+        if (key == null) {
+            return loader.get();
+        }
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, created);
+        if (running != null) {
+            count("shared");
+            return await(running);
+        }
+        count("leader");
+        try {
+            V value = loader.get();
+            created.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, created);
+        }
+    }
+
+    /**
+     * Starts an asynchronous call, or joins the identical call already running
+     * @param key the key of the call
+     * @param starter starts the call
+     * @return a future of the result; cancelling it does not cancel the shared call
+     */
+    public CompletableFuture<V> submit(K key, Supplier<CompletableFuture<V>> starter) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, created);
+        if (running != null) {
+            count("shared");
+            return running.copy();
+        }
+        count("leader");
+        CompletableFuture<V> started;
+        try {
+            started = starter.get();
+        } catch (RuntimeException | Error e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((value, error) -> {
+            calls.remove(key, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(value);
+            }
+        });
+        return created.copy();
+    }
+
+    /**
+     * Waits for a running call
+     * @param running the running call
+     * @return its result, or null if the thread was interrupted while waiting
+     */
+    private V await(CompletableFuture<V> running) {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println(e);
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Counts a call
+     * @param role leader if the call ran, shared if it waited for another one
+     */
+    private void count(String role) {
+        MetricsRegistry.getInstance().counter("singleflight_calls_total", "Calls by whether they ran or were coalesced",
+                labels("role", role)).increment();
+    }
+}
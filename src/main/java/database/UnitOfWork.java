@@ -0,0 +1,21 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Several statements run on one connection, committed together or rolled back together.
+ * See {@link DatabaseHandler#inTransaction(UnitOfWork)}.
+ * @param <T> the type of the result
+ */
+@FunctionalInterface
+public interface UnitOfWork<T> {
+
+    /**
+     * Runs the statements
+     * @param connection the connection, inside a transaction
+     * @return the result
+     * @throws SQLException if a statement fails, which rolls the whole unit back
+     */
+    T run(Connection connection) throws SQLException;
+}
@@ -0,0 +1,257 @@
+package hotelapp;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A compressed prefix trie over the normalized words of the hotel names, for suggestions while typing.
+ *
+ * Hotels are numbered by popularity, most popular first, so every list of hotels in the trie is simply
+ * kept in ascending order. Every node stores the best few hotels of its whole subtree, which makes a
+ * one-word prefix lookup a walk down the trie with no ranking work at all. For more words, the hotels
+ * of the first complete word are checked in popularity order until enough of them match the rest.
+ * Immutable, so a new index is built and swapped in whenever the catalog changes.
+ */
+public class AutocompleteIndex {
+    /** The most suggestions a lookup can return */
+    public static final int MAX_SUGGESTIONS = 10;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int[] NONE = new int[0];
+
+    /**
+     * A node of the trie, the edge label leads from the parent to this node
+     */
+    private static class Node {
+        private final String label;
+        private final Node[] children; // sorted by the first character of their label
+        private final int[] exact; // hotels having exactly the word ending here
+        private final int[] top; // the best hotels of the whole subtree
+
+        public Node(String label, Node[] children, int[] exact, int[] top) {
+            this.label = label;
+            this.children = children;
+            this.exact = exact;
+            this.top = top;
+        }
+
+        /**
+         * Finds the child whose label starts with the given character
+         * @param c the character
+         * @return the child, or null if there is none
+         */
+        private Node child(char c) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char first = children[mid].label.charAt(0);
+                if (first < c) {
+                    low = mid + 1;
+                } else if (first > c) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A node while the trie is being built
+     */
+    private static class Builder {
+        private final TreeMap<Character, Builder> children = new TreeMap<>();
+        private final TreeSet<Integer> exact = new TreeSet<>();
+    }
+
+    private final Hotel[] hotels; // by popularity
+    private final String[][] words; // the normalized words of every hotel
+    private final Node root;
+
+    /**
+     * Constructor of AutocompleteIndex
+     * @param catalog all the hotels
+     * @param summaries the rating summaries, whose review counts are used as the popularity of a hotel
+     */
+    public AutocompleteIndex(List<Hotel> catalog, RatingSummaries summaries) {
+        Hotel[] byPopularity = catalog.toArray(new Hotel[0]);
+        Arrays.sort(byPopularity, Comparator.comparingInt((Hotel h) -> -popularity(h, summaries))
+                .thenComparing(h -> h.getName() == null ? "" : h.getName()));
+        hotels = byPopularity;
+        words = new String[hotels.length][];
+        Builder top = new Builder();
+        for (int i = 0; i < hotels.length; i++) {
+            words[i] = normalize(hotels[i].getName());
+            for (String word : words[i]) {
+                Builder node = top;
+                for (int c = 0; c < word.length(); c++) {
+                    node = node.children.computeIfAbsent(word.charAt(c), k -> new Builder());
+                }
+                node.exact.add(i);
+            }
+        }
+        root = compress("", top);
+    }
+
+    /**
+     * Suggests hotels for what the user has typed so far
+     * @param query the text typed so far; the last word may be incomplete
+     * @param limit the maximum number of suggestions
+     * @return the most popular matching hotels, at most limit and at most MAX_SUGGESTIONS
+     */
+    public List<Hotel> suggest(String query, int limit) {
+        limit = Math.min(limit, MAX_SUGGESTIONS);
+        List<Hotel> suggestions = new ArrayList<>(Math.max(limit, 0));
+        String[] typed = normalize(query);
+        if (typed.length == 0 || limit <= 0) {
+            return suggestions;
+        }
+        String prefix = typed[typed.length - 1];
+        if (typed.length == 1) {
+            Node node = find(prefix, false);
+            if (node != null) {
+                for (int i = 0; i < node.top.length && suggestions.size() < limit; i++) {
+                    suggestions.add(hotels[node.top[i]]);
+                }
+            }
+            return suggestions;
+        }
+
+        Node first = find(typed[0], true);
+        if (first == null) {
+            return suggestions;
+        }
+        for (int hotel : first.exact) {
+            if (matchesAll(words[hotel], typed)) {
+                suggestions.add(hotels[hotel]);
+                if (suggestions.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Gets the node where a prefix ends, or inside whose edge it ends
+     * @param prefix the prefix
+     * @param exact true to only accept a prefix that ends exactly at a node
+     * @return the node, or null if no word starts with the prefix
+     */
+    private Node find(String prefix, boolean exact) {
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node next = node.child(prefix.charAt(i));
+            if (next == null) {
+                return null;
+            }
+            int matched = 0;
+            while (matched < next.label.length() && i < prefix.length()) {
+                if (next.label.charAt(matched) != prefix.charAt(i)) {
+                    return null;
+                }
+                matched++;
+                i++;
+            }
+            if (exact && matched < next.label.length()) {
+                return null;
+            }
+            node = next;
+        }
+        return node;
+    }
+
+    /**
+     * Checks if a hotel has every complete word typed and a word starting with the last one
+     * @param hotelWords the words of the hotel name
+     * @param typed the words typed, the last one possibly incomplete
+     * @return true if the hotel matches
+     */
+    private static boolean matchesAll(String[] hotelWords, String[] typed) {
+        for (int t = 0; t < typed.length; t++) {
+            boolean last = t == typed.length - 1;
+            boolean found = false;
+            for (String word : hotelWords) {
+                if (last ? word.startsWith(typed[t]) : word.equals(typed[t])) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turns a built subtree into immutable nodes, merging chains of single children into one edge
+     * and computing the best hotels of every subtree
+     * @param label the label of the edge into the node
+     * @param builder the node being built
+     * @return the compressed node
+     */
+    private static Node compress(String label, Builder builder) {
+        StringBuilder edge = new StringBuilder(label);
+        while (!label.isEmpty() && builder.exact.isEmpty() && builder.children.size() == 1) {
+            Map.Entry<Character, Builder> only = builder.children.firstEntry();
+            edge.append(only.getKey());
+            builder = only.getValue();
+        }
+        Node[] children = new Node[builder.children.size()];
+        int c = 0;
+        TreeSet<Integer> best = new TreeSet<>(builder.exact);
+        for (Map.Entry<Character, Builder> entry : builder.children.entrySet()) {
+            children[c] = compress(String.valueOf(entry.getKey()), entry.getValue());
+            for (int hotel : children[c].top) {
+                best.add(hotel);
+            }
+            c++;
+        }
+        int[] top = new int[Math.min(best.size(), MAX_SUGGESTIONS)];
+        int i = 0;
+        for (int hotel : best) {
+            if (i == top.length) {
+                break;
+            }
+            top[i++] = hotel;
+        }
+        int[] exact = builder.exact.isEmpty() ? NONE : builder.exact.stream().mapToInt(Integer::intValue).toArray();
+        return new Node(edge.toString(), children, exact, top);
+    }
+
+    /**
+     * Splits a text into lowercase words without accents
+     * @param text the text
+     * @return the words
+     */
+    public static String[] normalize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String plain = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase();
+        return Arrays.stream(SEPARATORS.split(plain)).filter(w -> !w.isEmpty()).toArray(String[]::new);
+    }
+
+    /**
+     * Gets the popularity of a hotel
+     * @param hotel the hotel
+     * @param summaries the rating summaries
+     * @return the number of reviews of the hotel in the feed
+     */
+    private static int popularity(Hotel hotel, RatingSummaries summaries) {
+        RatingSummary summary = summaries.get(hotel.getId());
+        return summary == null ? 0 : summary.getTotalReviewCnt();
+    }
+}
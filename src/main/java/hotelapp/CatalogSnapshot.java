@@ -0,0 +1,401 @@
+package hotelapp;
+
+import database.DataStore;
+import database.DataStoreFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A versioned, checksummed binary snapshot of the hotel catalog, the reviews and the rating summaries,
+ * so that a node can boot without re-parsing the input files or re-querying the whole database.
+ *
+ * Layout: magic, format version, data version of the store, creation time, then a list of
+ * tagged sections (tag, length, bytes) and finally a CRC32 over the sections.
+ * Unknown sections are skipped, so new derived indexes can be added without breaking old readers.
+ */
+public class CatalogSnapshot {
+    public static final String DEFAULT_PATH = "data/catalog.snapshot";
+
+    private static final int MAGIC = 0x48435331; // "HCS1"
+    private static final int FORMAT_VERSION = 4;
+    private static final int SECTION_HOTELS = 1;
+    private static final int SECTION_REVIEWS_BY_HOTEL = 2;
+    private static final int SECTION_RATING_SUMMARIES = 3;
+
+    private final String dataVersion;
+    private final List<Hotel> hotels;
+    private final List<Review> reviews;
+    private final List<RatingSummary> ratingSummaries;
+
+    /**
+     * Constructor of CatalogSnapshot
+     * @param dataVersion the data version of the store the snapshot was taken from
+     * @param hotels all the hotels
+     * @param reviews all the reviews
+     * @param ratingSummaries the rating summaries of all hotels
+     */
+    public CatalogSnapshot(String dataVersion, List<Hotel> hotels, List<Review> reviews,
+                           List<RatingSummary> ratingSummaries) {
+        this.dataVersion = dataVersion;
+        this.hotels = hotels;
+        this.reviews = reviews;
+        this.ratingSummaries = ratingSummaries;
+    }
+
+    /**
+     * Getter for the data version
+     * @return the data version of the store the snapshot was taken from
+     */
+    public String getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Getter for the hotels
+     * @return all the hotels
+     */
+    public List<Hotel> getHotels() {
+        return hotels;
+    }
+
+    /**
+     * Getter for the reviews
+     * @return all the reviews, grouped by hotel
+     */
+    public List<Review> getReviews() {
+        return reviews;
+    }
+
+    /**
+     * Getter for the rating summaries
+     * @return the rating summaries of all hotels
+     */
+    public List<RatingSummary> getRatingSummaries() {
+        return ratingSummaries;
+    }
+
+    /**
+     * Takes a snapshot of the hotels and reviews currently in the store
+     * @return the snapshot, or null if the store could not be read
+     */
+    public static CatalogSnapshot fromStore() {
+        DataStore store = DataStoreFactory.getInstance();
+        String version = store.getDataVersion(); // read first, so a concurrent change makes the snapshot stale
+        List<Hotel> hotels = store.getAllHotel();
+        List<Review> reviews = store.getAllReviews();
+        List<RatingSummary> summaries = store.getAllRatingSummaries();
+        if (version == null || hotels == null || reviews == null || summaries == null) {
+            return null;
+        }
+        return new CatalogSnapshot(version, hotels, reviews, summaries);
+    }
+
+    /**
+     * Takes a snapshot of the store and writes it, used at the end of an ingest
+     * @param path the path of the snapshot file
+     */
+    public static void writeFromStore(String path) {
+        CatalogSnapshot snapshot = fromStore();
+        if (snapshot == null) {
+            System.out.println("Could not read the store, snapshot not written");
+            return;
+        }
+        try {
+            snapshot.write(path);
+        } catch (IOException e) {
+            System.out.println("Could not write the snapshot: " + e);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and atomically moves it into place
+     * @param path the path of the snapshot file
+     * @throws IOException if the file can not be written
+     */
+    public void write(String path) throws IOException {
+        long start = System.currentTimeMillis();
+        Path target = Paths.get(path);
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        ByteArrayOutputStream sections = new ByteArrayOutputStream();
+        writeSection(sections, SECTION_HOTELS, hotelsSection());
+        writeSection(sections, SECTION_REVIEWS_BY_HOTEL, reviewsSection());
+        writeSection(sections, SECTION_RATING_SUMMARIES, ratingSummariesSection());
+        byte[] body = sections.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        Path temp = Paths.get(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, dataVersion);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeLong(crc.getValue());
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Wrote snapshot of " + hotels.size() + " hotels and " + reviews.size() + " reviews to "
+                + path + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Loads a snapshot through a memory mapping of the file
+     * @param path the path of the snapshot file
+     * @param expectedVersion the current data version of the store, or null to accept any version
+     * @return the snapshot, or null if it is missing, corrupt or stale
+     */
+    public static CatalogSnapshot load(String path, String expectedVersion) {
+        Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                System.out.println("Snapshot " + path + " has an unknown format, rebuilding");
+                return null;
+            }
+            String version = readString(buffer);
+            buffer.getLong(); // creation time
+            if (expectedVersion != null && !expectedVersion.equals(version)) {
+                System.out.println("Snapshot " + path + " is stale (" + version + " vs " + expectedVersion + "), rebuilding");
+                return null;
+            }
+            int length = buffer.getInt();
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            buffer.position(buffer.position() + length);
+            if (crc.getValue() != buffer.getLong()) {
+                System.out.println("Snapshot " + path + " is corrupt, rebuilding");
+                return null;
+            }
+
+            List<Hotel> hotels = new ArrayList<>();
+            List<Review> reviews = new ArrayList<>();
+            List<RatingSummary> summaries = new ArrayList<>();
+            while (body.hasRemaining()) {
+                int tag = body.getInt();
+                int sectionLength = body.getInt();
+                ByteBuffer section = body.slice();
+                section.limit(sectionLength);
+                body.position(body.position() + sectionLength);
+                switch (tag) {
+                    case SECTION_HOTELS -> readHotels(section, hotels);
+                    case SECTION_REVIEWS_BY_HOTEL -> readReviews(section, reviews);
+                    case SECTION_RATING_SUMMARIES -> readRatingSummaries(section, summaries);
+                    default -> { } // a section added by a newer writer
+                }
+            }
+            System.out.println("Loaded snapshot of " + hotels.size() + " hotels and " + reviews.size() + " reviews in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return new CatalogSnapshot(version, hotels, reviews, summaries);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.out.println("Could not read snapshot " + path + ", rebuilding: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the hotels section
+     * @return the section bytes
+     * @throws IOException if encoding fails
+     */
+    private byte[] hotelsSection() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(hotels.size());
+        for (Hotel hotel : hotels) {
+            writeString(out, hotel.getId());
+            writeString(out, hotel.getName());
+            writeString(out, hotel.getLat());
+            writeString(out, hotel.getLng());
+            writeString(out, hotel.getAddress());
+            writeString(out, hotel.getCity());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes the reviews grouped by hotel, so loading can build the per-hotel index directly
+     * @return the section bytes
+     * @throws IOException if encoding fails
+     */
+    private byte[] reviewsSection() throws IOException {
+        Map<String, List<Review>> byHotel = new LinkedHashMap<>();
+        for (Review review : reviews) {
+            byHotel.computeIfAbsent(review.getHotelId(), k -> new ArrayList<>()).add(review);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(byHotel.size());
+        for (Map.Entry<String, List<Review>> entry : byHotel.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Review review : entry.getValue()) {
+                writeString(out, review.getReviewId());
+                writeString(out, review.getTitle());
+                writeString(out, review.getReviewText());
+                writeString(out, review.getUserNickname());
+                out.writeLong(review.getDatePosted().getTime());
+                out.writeInt(review.getRatingOverall());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes the rating summaries as the review count followed by the ratings of every hotel
+     * @return the section bytes
+     * @throws IOException if encoding fails
+     */
+    private byte[] ratingSummariesSection() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ratingSummaries.size());
+        out.writeInt(RatingSummary.DIMENSIONS.length);
+        for (RatingSummary summary : ratingSummaries) {
+            writeString(out, summary.getHotelId());
+            out.writeInt(summary.getTotalReviewCnt());
+            for (float value : summary.toArray()) {
+                out.writeFloat(value);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the hotels section
+     * @param section the section bytes
+     * @param hotels the list the hotels are added to
+     */
+    private static void readHotels(ByteBuffer section, List<Hotel> hotels) {
+        int count = section.getInt();
+        for (int i = 0; i < count; i++) {
+            String id = readString(section);
+            String name = readString(section);
+            String lat = readString(section);
+            String lng = readString(section);
+            String address = readString(section);
+            String city = readString(section);
+            hotels.add(new Hotel(name, id, lat, lng, address, city));
+        }
+    }
+
+    /**
+     * Decodes the reviews section
+     * @param section the section bytes
+     * @param reviews the list the reviews are added to
+     */
+    private static void readReviews(ByteBuffer section, List<Review> reviews) {
+        int hotelCount = section.getInt();
+        for (int i = 0; i < hotelCount; i++) {
+            String hotelId = readString(section);
+            int count = section.getInt();
+            for (int j = 0; j < count; j++) {
+                String reviewId = readString(section);
+                String title = readString(section);
+                String text = readString(section);
+                String username = readString(section);
+                Timestamp time = new Timestamp(section.getLong());
+                int rating = section.getInt();
+                reviews.add(new Review(reviewId, hotelId, title, text, username, time, rating));
+            }
+        }
+    }
+
+    /**
+     * Decodes the rating summaries section
+     * @param section the section bytes
+     * @param summaries the list the summaries are added to
+     */
+    private static void readRatingSummaries(ByteBuffer section, List<RatingSummary> summaries) {
+        int count = section.getInt();
+        int width = section.getInt();
+        for (int i = 0; i < count; i++) {
+            String hotelId = readString(section);
+            int totalReviews = section.getInt();
+            float[] values = new float[RatingSummary.DIMENSIONS.length];
+            for (int j = 0; j < width; j++) {
+                float value = section.getFloat();
+                if (j < values.length) {
+                    values[j] = value;
+                }
+            }
+            summaries.add(new RatingSummary(hotelId, totalReviews, values));
+        }
+    }
+
+    /**
+     * Writes a tagged section
+     * @param out the output stream
+     * @param tag the section tag
+     * @param section the section bytes
+     * @throws IOException if writing fails
+     */
+    private static void writeSection(OutputStream out, int tag, byte[] section) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(tag);
+        data.writeInt(section.length);
+        data.write(section);
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string, -1 for null
+     * @param out the output stream
+     * @param value the string
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string
+     * @param buffer the buffer
+     * @return the string, or null
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("string length " + length + " past the end of the section");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
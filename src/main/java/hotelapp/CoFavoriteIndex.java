@@ -0,0 +1,591 @@
+package hotelapp;
+
+import database.DataStore;
+import database.ReadConsistency;
+import metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * "Users who liked this also liked": a sparse hotel-by-hotel matrix counting the users interested in
+ * both hotels, interest meaning a favorite or a click in the expedia history. Every hotel gets a dense
+ * number and its row is an open-addressing map of ints, so the matrix holds no boxed values and the
+ * similar hotels of a page are found by scanning one short row.
+ *
+ * The matrix is built from the store in parallel, a chunk of users per task, and then kept up to date
+ * one favorite or history entry at a time: a new interest of a user adds one to its pairs with the other
+ * hotels of that user, a cleared list takes its hotels' pairs away again. Hotels are ranked by the cosine
+ * of their interest vectors, count / sqrt(interested in a * interested in b), so the most popular hotels
+ * do not show up on every page.
+ */
+public class CoFavoriteIndex {
+    private static final int FAVORITE = 1;
+    private static final int HISTORY = 2;
+
+    /**
+     * A map from int keys to non-zero int values using linear probing, without boxing
+     */
+    static final class IntIntMap {
+        private static final int FREE = -1;
+
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        /**
+         * Constructor of IntIntMap
+         * @param expected the number of keys to make room for
+         */
+        IntIntMap(int expected) {
+            int capacity = 4;
+            while (capacity < expected * 2) {
+                capacity <<= 1;
+            }
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, FREE);
+        }
+
+        /**
+         * Gets the value of a key
+         * @param key the key, not negative
+         * @return the value, 0 if the key is absent
+         */
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; keys[slot] != FREE; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Adds to the value of a key
+         * @param key the key, not negative
+         * @param delta the amount to add
+         */
+        void add(int key, int delta) {
+            put(key, get(key) + delta);
+        }
+
+        /**
+         * Sets the value of a key
+         * @param key the key, not negative
+         * @param value the value, 0 removes the key
+         */
+        void put(int key, int value) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != FREE && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == key) {
+                if (value != 0) {
+                    values[slot] = value;
+                } else {
+                    remove(slot);
+                }
+            } else if (value != 0) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+            }
+        }
+
+        /**
+         * Removes the key in a slot, shifting back the keys probed past it
+         * @param slot the slot
+         */
+        private void remove(int slot) {
+            int mask = keys.length - 1;
+            int gap = slot;
+            for (int next = (gap + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+                int home = mix(keys[next]) & mask;
+                // the key can fill the gap if its home is not between the gap and where it sits
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            keys[gap] = FREE;
+            values[gap] = 0;
+            size--;
+        }
+
+        /**
+         * Doubles the table
+         */
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            Arrays.fill(keys, FREE);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        /**
+         * Adds every value of another map to this one
+         * @param other the other map
+         */
+        void addAll(IntIntMap other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != FREE) {
+                    add(other.keys[i], other.values[i]);
+                }
+            }
+        }
+
+        /**
+         * Copies the keys
+         * @return the keys in table order
+         */
+        int[] keys() {
+            int[] copy = new int[size];
+            int n = 0;
+            for (int key : keys) {
+                if (key != FREE) {
+                    copy[n++] = key;
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Getter for the size
+         * @return the number of keys
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Scrambles a key so that consecutive keys do not probe the same run
+         * @param key the key
+         * @return the scrambled key
+         */
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * The matrix and the interests it was counted from, replaced as a whole by a rebuild
+     */
+    private static class State {
+        private final Map<String, Integer> numberOfHotel = new HashMap<>();
+        private final List<String> hotelOfNumber = new ArrayList<>();
+        private final List<IntIntMap> rows = new ArrayList<>(); // hotel -> other hotel -> users interested in both
+        private int[] interested = new int[16]; // hotel -> users interested in it
+        private final Map<String, IntIntMap> interestsOfUser = new HashMap<>(); // user -> hotel -> FAVORITE | HISTORY
+        private long pairs;
+
+        /**
+         * Gets the number of a hotel, numbering it if it is new
+         * @param hotelId the id of the hotel
+         * @return the number of the hotel
+         */
+        private int number(String hotelId) {
+            Integer number = numberOfHotel.get(hotelId);
+            if (number == null) {
+                number = hotelOfNumber.size();
+                numberOfHotel.put(hotelId, number);
+                hotelOfNumber.add(hotelId);
+                rows.add(new IntIntMap(8));
+                if (number == interested.length) {
+                    interested = Arrays.copyOf(interested, number * 2);
+                }
+            }
+            return number;
+        }
+
+        /**
+         * Records that a user is interested in a hotel
+         * @param username the user
+         * @param hotel the number of the hotel
+         * @param source FAVORITE or HISTORY
+         */
+        private void add(String username, int hotel, int source) {
+            IntIntMap interests = interestsOfUser.computeIfAbsent(username, k -> new IntIntMap(8));
+            int sources = interests.get(hotel);
+            if (sources == 0) {
+                for (int other : interests.keys()) {
+                    count(hotel, other, 1);
+                }
+                interested[hotel]++;
+            }
+            interests.put(hotel, sources | source);
+        }
+
+        /**
+         * Takes back the interests of a user coming from one source
+         * @param username the user
+         * @param source FAVORITE or HISTORY
+         */
+        private void clear(String username, int source) {
+            IntIntMap interests = interestsOfUser.get(username);
+            if (interests == null) {
+                return;
+            }
+            for (int hotel : interests.keys()) {
+                int sources = interests.get(hotel);
+                if ((sources & source) == 0) {
+                    continue;
+                }
+                interests.put(hotel, sources & ~source);
+                if (sources == source) { // no other source keeps the user interested
+                    for (int other : interests.keys()) {
+                        count(hotel, other, -1);
+                    }
+                    interested[hotel]--;
+                }
+            }
+            if (interests.size() == 0) {
+                interestsOfUser.remove(username);
+            }
+        }
+
+        /**
+         * Changes the count of a pair of hotels in both of their rows
+         * @param a the number of one hotel
+         * @param b the number of the other hotel
+         * @param delta the change
+         */
+        private void count(int a, int b, int delta) {
+            int before = rows.get(a).get(b);
+            rows.get(a).add(b, delta);
+            rows.get(b).add(a, delta);
+            if (before == 0) {
+                pairs++;
+            } else if (before + delta == 0) {
+                pairs--;
+            }
+        }
+    }
+
+    /**
+     * A change made while a rebuild was reading the store, applied again to the rebuilt state
+     */
+    private static class Event {
+        private final String username;
+        private final String hotelId; // null to clear the source
+        private final int source;
+
+        public Event(String username, String hotelId, int source) {
+            this.username = username;
+            this.hotelId = hotelId;
+            this.source = source;
+        }
+
+        /**
+         * Applies the change; applying it twice has the same effect as once
+         * @param state the state to change
+         */
+        private void apply(State state) {
+            if (hotelId == null) {
+                state.clear(username, source);
+            } else {
+                state.add(username, state.number(hotelId), source);
+            }
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private State state = new State();
+    private List<Event> pending; // not null while a rebuild runs
+
+    /**
+     * Constructor of CoFavoriteIndex, empty until {@link #rebuild(DataStore)} is called
+     */
+    public CoFavoriteIndex() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("cofavorite_pairs", "Hotel pairs with users interested in both", this::getPairs);
+        metrics.gauge("cofavorite_users", "Users with favorites or history", this::getUsers);
+    }
+
+    /**
+     * Recounts the matrix from every favorite and history entry in the store, in parallel, and swaps it in.
+     * Changes recorded while the store is read are applied again afterwards, so none are lost. The store is
+     * read from the primary database, as a replica lagging behind would miss entries already counted.
+     * @param store the store
+     * @return false if the store could not be read, the matrix is then left as it is
+     */
+    public boolean rebuild(DataStore store) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Map<String, List<String>> favorites;
+        Map<String, List<String>> histories;
+        ReadConsistency caller = ReadConsistency.get();
+        ReadConsistency.start(Long.MAX_VALUE, 0);
+        try {
+            favorites = store.getAllFavorites();
+            histories = store.getAllExpediaHistories();
+        } finally {
+            ReadConsistency.bind(caller);
+        }
+        State rebuilt = favorites == null || histories == null ? null : build(favorites, histories);
+        lock.writeLock().lock();
+        try {
+            if (rebuilt != null) {
+                for (Event event : pending) {
+                    event.apply(rebuilt);
+                }
+                state = rebuilt;
+            }
+            pending = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (rebuilt == null) {
+            System.out.println("Could not read the favorites and histories, co-favorites not rebuilt");
+            return false;
+        }
+        MetricsRegistry.getInstance().histogram("cofavorite_rebuild_seconds", "Time to rebuild the co-favorite matrix")
+                .record(System.nanoTime() - start);
+        System.out.println("Counted " + getPairs() + " co-favorite pairs of " + getUsers() + " users in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return true;
+    }
+
+    /**
+     * Rebuilds the matrix from the store periodically in a background thread, in case it drifted from the store
+     * @param store the store
+     * @param periodMinutes the time between rebuilds, 0 or less to never rebuild
+     */
+    public void scheduleRebuild(DataStore store, long periodMinutes) {
+        if (periodMinutes <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cofavorite-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> rebuild(store), periodMinutes, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Counts the matrix from scratch, each chunk of users into rows of its own that are then summed hotel by hotel
+     * @param favorites the favorite hotel ids by username
+     * @param histories the hotel ids in the history by username
+     * @return the counted state
+     */
+    private static State build(Map<String, List<String>> favorites, Map<String, List<String>> histories) {
+        State built = new State();
+        Map<String, IntIntMap> interestsOfUser = new ConcurrentHashMap<>();
+        for (int source : new int[] {FAVORITE, HISTORY}) {
+            for (Map.Entry<String, List<String>> entry : (source == FAVORITE ? favorites : histories).entrySet()) {
+                IntIntMap interests = interestsOfUser.computeIfAbsent(entry.getKey(), k -> new IntIntMap(8));
+                for (String hotelId : entry.getValue()) {
+                    int hotel = built.number(hotelId);
+                    interests.put(hotel, interests.get(hotel) | source);
+                }
+            }
+        }
+        built.interestsOfUser.putAll(interestsOfUser);
+
+        int hotels = built.hotelOfNumber.size();
+        List<IntIntMap> users = new ArrayList<>(interestsOfUser.values());
+        int chunks = Math.max(1, Math.min(users.size() / 64, Runtime.getRuntime().availableProcessors() * 4));
+        IntIntMap[][] partial = new IntIntMap[chunks][hotels];
+        int[][] partialInterested = new int[chunks][hotels];
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            IntIntMap[] rows = partial[chunk];
+            for (int u = chunk; u < users.size(); u += chunks) {
+                int[] interests = users.get(u).keys();
+                for (int i = 0; i < interests.length; i++) {
+                    partialInterested[chunk][interests[i]]++;
+                    for (int j = 0; j < interests.length; j++) {
+                        if (i != j) {
+                            if (rows[interests[i]] == null) {
+                                rows[interests[i]] = new IntIntMap(8);
+                            }
+                            rows[interests[i]].add(interests[j], 1);
+                        }
+                    }
+                }
+            }
+        });
+        IntStream.range(0, hotels).parallel().forEach(hotel -> {
+            IntIntMap row = built.rows.get(hotel);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                if (partial[chunk][hotel] != null) {
+                    row.addAll(partial[chunk][hotel]);
+                }
+                built.interested[hotel] += partialInterested[chunk][hotel];
+            }
+        });
+        long entries = 0;
+        for (IntIntMap row : built.rows) {
+            entries += row.size();
+        }
+        built.pairs = entries / 2;
+        return built;
+    }
+
+    /**
+     * Records a new favorite
+     * @param username the user
+     * @param hotelId the id of the hotel
+     */
+    public void addFavorite(String username, String hotelId) {
+        record(new Event(username, hotelId, FAVORITE));
+    }
+
+    /**
+     * Records a new history entry
+     * @param username the user
+     * @param hotelId the id of the hotel
+     */
+    public void addHistory(String username, String hotelId) {
+        record(new Event(username, hotelId, HISTORY));
+    }
+
+    /**
+     * Takes back the favorites of a user after they were cleared
+     * @param username the user
+     */
+    public void clearFavorites(String username) {
+        record(new Event(username, null, FAVORITE));
+    }
+
+    /**
+     * Takes back the history of a user after it was cleared
+     * @param username the user
+     */
+    public void clearHistory(String username) {
+        record(new Event(username, null, HISTORY));
+    }
+
+    /**
+     * Applies a change, and keeps it for the rebuild running if there is one
+     * @param event the change
+     */
+    private void record(Event event) {
+        lock.writeLock().lock();
+        try {
+            event.apply(state);
+            if (pending != null) {
+                pending.add(event);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the hotels most often liked by the users who liked a hotel
+     * @param hotelId the id of the hotel
+     * @param limit the most hotels to return
+     * @return the ids of the hotels, the most similar first, empty if nobody else liked its users' hotels
+     */
+    public List<String> similar(String hotelId, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer hotel = state.numberOfHotel.get(hotelId);
+            if (hotel == null || limit <= 0) {
+                return new ArrayList<>();
+            }
+            IntIntMap row = state.rows.get(hotel);
+            int[] best = new int[limit];
+            double[] bestScore = new double[limit];
+            int found = 0;
+            for (int i = 0; i < row.keys.length; i++) {
+                int other = row.keys[i];
+                if (other == IntIntMap.FREE) {
+                    continue;
+                }
+                double score = row.values[i] / Math.sqrt((double) state.interested[hotel] * state.interested[other]);
+                if (found == limit && !better(other, score, best[limit - 1], bestScore[limit - 1])) {
+                    continue;
+                }
+                int at = found < limit ? found++ : limit - 1;
+                while (at > 0 && better(other, score, best[at - 1], bestScore[at - 1])) { // insertion into the few best
+                    best[at] = best[at - 1];
+                    bestScore[at] = bestScore[at - 1];
+                    at--;
+                }
+                best[at] = other;
+                bestScore[at] = score;
+            }
+            List<String> similar = new ArrayList<>(found);
+            for (int i = 0; i < found; i++) {
+                similar.add(state.hotelOfNumber.get(best[i]));
+            }
+            return similar;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compares two candidates of similar, ties going to the smaller hotel id so that the order does not
+     * depend on where the hotels sit in the row
+     * @param hotel the number of one hotel
+     * @param score its score
+     * @param other the number of the other hotel
+     * @param otherScore its score
+     * @return true if the first hotel ranks before the other
+     */
+    private boolean better(int hotel, double score, int other, double otherScore) {
+        if (score != otherScore) {
+            return score > otherScore;
+        }
+        String id = state.hotelOfNumber.get(hotel);
+        String otherId = state.hotelOfNumber.get(other);
+        return id.length() != otherId.length() ? id.length() < otherId.length() : id.compareTo(otherId) < 0;
+    }
+
+    /**
+     * Gets the number of hotel pairs counted
+     * @return the pairs with at least one user interested in both
+     */
+    public long getPairs() {
+        lock.readLock().lock();
+        try {
+            return state.pairs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of users counted
+     * @return the users with favorites or history
+     */
+    public int getUsers() {
+        lock.readLock().lock();
+        try {
+            return state.interestsOfUser.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
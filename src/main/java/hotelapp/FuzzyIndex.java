@@ -0,0 +1,232 @@
+package hotelapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A typo-tolerant index over the words of the hotel names. Every distinct word is split into trigrams,
+ * so the words sharing enough trigrams with a misspelled word are found without comparing it to the
+ * whole vocabulary, and only those candidates are verified with a Levenshtein distance that gives up
+ * as soon as it exceeds the allowed number of typos. A query stops when its time budget runs out and
+ * returns what it has ranked so far.
+ * Immutable, so a new index is built and swapped in whenever the catalog changes.
+ */
+public class FuzzyIndex {
+
+    /**
+     * The hotels that matched a fuzzy query
+     */
+    public static class Result {
+        private final List<String> hotelIds;
+        private final boolean complete;
+
+        /**
+         * Constructor of Result
+         * @param hotelIds the ids of the matching hotels, best match first
+         * @param complete false if the time budget ran out before every candidate was checked
+         */
+        public Result(List<String> hotelIds, boolean complete) {
+            this.hotelIds = hotelIds;
+            this.complete = complete;
+        }
+
+        /**
+         * Getter for the hotel ids
+         * @return the ids of the matching hotels, best match first
+         */
+        public List<String> getHotelIds() {
+            return hotelIds;
+        }
+
+        /**
+         * Checks if every candidate was checked
+         * @return false if the time budget ran out
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    private final Hotel[] hotels;
+    private final String[] vocabulary;
+    private final int[][] hotelsOfWord; // for every word, the hotels whose name has it
+    private final Map<String, int[]> wordsOfTrigram = new HashMap<>();
+
+    /**
+     * Constructor of FuzzyIndex
+     * @param catalog all the hotels
+     */
+    public FuzzyIndex(List<Hotel> catalog) {
+        hotels = catalog.toArray(new Hotel[0]);
+        Map<String, List<Integer>> hotelsByWord = new LinkedHashMap<>();
+        for (int i = 0; i < hotels.length; i++) {
+            for (String word : AutocompleteIndex.normalize(hotels[i].getName())) {
+                List<Integer> list = hotelsByWord.computeIfAbsent(word, w -> new ArrayList<>());
+                if (list.isEmpty() || list.get(list.size() - 1) != i) {
+                    list.add(i);
+                }
+            }
+        }
+        vocabulary = hotelsByWord.keySet().toArray(new String[0]);
+        hotelsOfWord = new int[vocabulary.length][];
+        Map<String, List<Integer>> trigrams = new HashMap<>();
+        for (int w = 0; w < vocabulary.length; w++) {
+            hotelsOfWord[w] = hotelsByWord.get(vocabulary[w]).stream().mapToInt(Integer::intValue).toArray();
+            for (String trigram : trigrams(vocabulary[w])) {
+                List<Integer> words = trigrams.computeIfAbsent(trigram, t -> new ArrayList<>());
+                if (words.isEmpty() || words.get(words.size() - 1) != w) {
+                    words.add(w);
+                }
+            }
+        }
+        for (Map.Entry<String, List<Integer>> entry : trigrams.entrySet()) {
+            wordsOfTrigram.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Finds the hotels whose name has a close match for every word of the query
+     * @param query the hotel name as typed
+     * @param budgetNanos the time the query may take
+     * @return the matching hotels, fewest typos first
+     */
+    public Result search(String query, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        String[] words = AutocompleteIndex.normalize(query);
+        if (words.length == 0) {
+            return new Result(new ArrayList<>(), true);
+        }
+        // for every hotel, the sum over the query words of the fewest typos of a matching word
+        int[] cost = new int[hotels.length];
+        int[] matchedWords = new int[hotels.length];
+        int[] shared = new int[vocabulary.length];
+        boolean complete = true;
+        int processed = 0;
+        for (String word : words) {
+            int maxTypos = maxTypos(word);
+            int[] best = new int[hotels.length];
+            Arrays.fill(best, Integer.MAX_VALUE);
+            String[] grams = trigrams(word);
+            int[] touched = new int[vocabulary.length];
+            int touchedCount = 0;
+            for (String trigram : grams) {
+                int[] candidates = wordsOfTrigram.get(trigram);
+                if (candidates != null) {
+                    for (int w : candidates) {
+                        if (shared[w]++ == 0) {
+                            touched[touchedCount++] = w;
+                        }
+                    }
+                }
+            }
+            // a word within maxTypos edits still shares this many trigrams, each edit breaks at most three
+            int minShared = Math.max(1, grams.length - 3 * maxTypos);
+            for (int t = 0; t < touchedCount; t++) {
+                int w = touched[t];
+                int count = shared[w];
+                shared[w] = 0;
+                if (count < minShared || !complete) {
+                    continue;
+                }
+                if (System.nanoTime() > deadline) {
+                    complete = false; // keep looping only to reset the counters
+                    continue;
+                }
+                int distance = distance(word, vocabulary[w], maxTypos);
+                if (distance <= maxTypos) {
+                    for (int hotel : hotelsOfWord[w]) {
+                        best[hotel] = Math.min(best[hotel], distance);
+                    }
+                }
+            }
+            for (int hotel = 0; hotel < hotels.length; hotel++) {
+                if (best[hotel] != Integer.MAX_VALUE) {
+                    cost[hotel] += best[hotel];
+                    matchedWords[hotel]++;
+                }
+            }
+            processed++;
+            if (!complete) {
+                break;
+            }
+        }
+
+        List<Integer> matches = new ArrayList<>();
+        for (int hotel = 0; hotel < hotels.length; hotel++) {
+            if (matchedWords[hotel] == processed) {
+                matches.add(hotel);
+            }
+        }
+        matches.sort((a, b) -> cost[a] != cost[b] ? Integer.compare(cost[a], cost[b])
+                : String.CASE_INSENSITIVE_ORDER.compare(hotels[a].getName(), hotels[b].getName()));
+        List<String> ids = new ArrayList<>(matches.size());
+        for (int hotel : matches) {
+            ids.add(hotels[hotel].getId());
+        }
+        return new Result(ids, complete);
+    }
+
+    /**
+     * Gets the number of typos allowed in a word
+     * @param word the word
+     * @return no typo in very short words, one in short words and two otherwise
+     */
+    private static int maxTypos(String word) {
+        if (word.length() <= 2) {
+            return 0;
+        }
+        return word.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Splits a word into its trigrams, padded so that short words and word edges have trigrams too
+     * @param word the word
+     * @return the distinct trigrams
+     */
+    private static String[] trigrams(String word) {
+        String padded = "  " + word + " ";
+        String[] grams = new String[padded.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = padded.substring(i, i + 3);
+        }
+        return Arrays.stream(grams).distinct().toArray(String[]::new);
+    }
+
+    /**
+     * Computes the Levenshtein distance of two words, giving up once it exceeds a bound
+     * @param a the first word
+     * @param b the second word
+     * @param bound the largest distance of interest
+     * @return the distance, or bound + 1 if it is larger than bound
+     */
+    private static int distance(String a, String b, int bound) {
+        if (Math.abs(a.length() - b.length()) > bound) {
+            return bound + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > bound) {
+                return bound + 1; // every later row is at least as large
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], bound + 1);
+    }
+}
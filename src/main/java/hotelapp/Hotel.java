@@ -29,6 +29,8 @@ public class Hotel {
     Ll ll;
     @SerializedName("ad")
     private String address;
+    @SerializedName("ci")
+    private String city;
 
     private String link;
 
@@ -41,6 +43,20 @@ public class Hotel {
      * @param address the address of the hotel
      */
     public Hotel(String name, String id, String lat, String lng, String address) {
+        this(name, id, lat, lng, address, null);
+    }
+
+    /**
+     * The constructor of a Hotel object
+     * @param name the hotel name
+     * @param id the hotel id
+     * @param lat the latitude of the hotel
+     * @param lng the longitude of the hotel
+     * @param address the address of the hotel
+     * @param city the city of the hotel, may be null
+     */
+    public Hotel(String name, String id, String lat, String lng, String address, String city) {
+        this.city = city;
         this.name = name;
         this.id = id;
         this.ll = new Ll(lat, lng);
@@ -105,6 +121,14 @@ public class Hotel {
         return address;
     }
 
+    /**
+     * Getter for the hotel city
+     * @return the hotel city, or null if it is unknown
+     */
+    public String getCity() {
+        return city;
+    }
+
 
     /**
      * toString method for the hotel information
@@ -0,0 +1,231 @@
+package hotelapp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import database.DataStore;
+import database.ReadConsistency;
+import metrics.MetricsRegistry;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Loads a hotel file into the store by comparing it with the hotels already there, so that refreshing
+ * the catalog writes only the hotels that were added, changed or removed, in one batch each and all in
+ * one transaction. Loading the same file twice changes nothing. Once the store has the new catalog, the
+ * catalog held in memory is replaced as a whole, so requests see either the old or the new one.
+ *
+ * A removed hotel takes its reviews, favorites and history with it, so a refresh that would remove more
+ * than -Dcatalog.maxRemovedShare of the catalog (default 0.1) is refused as a likely truncated file;
+ * set it to 1 to let a refresh remove any number of hotels.
+ */
+public class HotelCatalogLoader {
+    /** Orders hotel ids numerically, like the store lists them */
+    private static final Comparator<Hotel> HOTEL_ID_ORDER =
+            Comparator.comparingInt((Hotel h) -> h.getId().length()).thenComparing(Hotel::getId);
+    /** The largest share of the catalog one refresh may remove */
+    private static final double MAX_REMOVED_SHARE =
+            Double.parseDouble(System.getProperty("catalog.maxRemovedShare", "0.1"));
+
+    /**
+     * The difference between the hotels in the store and those in a file
+     */
+    public static class Diff {
+        private final List<Hotel> added = new ArrayList<>();
+        private final List<Hotel> changed = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+
+        /**
+         * Getter for the hotels added
+         * @return the new hotels
+         */
+        public List<Hotel> getAdded() {
+            return added;
+        }
+
+        /**
+         * Getter for the hotels changed
+         * @return the hotels whose details changed
+         */
+        public List<Hotel> getChanged() {
+            return changed;
+        }
+
+        /**
+         * Getter for the hotels removed
+         * @return the ids of the hotels no longer in the catalog
+         */
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Checks if the file has the same hotels as the store
+         * @return true if there is nothing to apply
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+
+        /**
+         * toString method for the diff
+         * @return the number of hotels added, changed and removed
+         */
+        public String toString() {
+            return added.size() + " added, " + changed.size() + " changed, " + removed.size() + " removed";
+        }
+    }
+
+    private final DataStore store;
+
+    /**
+     * Constructor of HotelCatalogLoader
+     * @param store the store to load the hotels into
+     */
+    public HotelCatalogLoader(DataStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Loads a hotel file into the store, and then into the hotels held in memory
+     * @param filePath the path of the hotel file
+     * @param searcher the hotel searcher whose catalog is replaced, null to only update the store
+     * @return the changes applied, or null if the file could not be read or the store failed
+     */
+    public Diff reload(String filePath, HotelSearcher searcher) {
+        List<Hotel> incoming;
+        try (Reader reader = new FileReader(filePath)) {
+            incoming = read(reader);
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            System.out.println("Could not read the hotel file " + filePath + ": " + e);
+            return null;
+        }
+        if (incoming.isEmpty()) {
+            // more likely a truncated file than a catalog without hotels, keep the one we have
+            System.out.println("No hotels in " + filePath + ", keeping the current catalog");
+            return null;
+        }
+        List<Hotel> current = readFromPrimary();
+        if (current == null) {
+            return null;
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counter("ingest_hotels_total", "Hotels loaded from the hotel file").add(incoming.size());
+        Diff diff = diff(current, incoming);
+        if (diff.removed.size() > MAX_REMOVED_SHARE * current.size()) {
+            metrics.counter("ingest_hotel_refreshes_refused_total",
+                    "Catalog refreshes refused for removing too many hotels").increment();
+            System.out.println("Refusing " + filePath + ": it would remove " + diff.removed.size() + " of "
+                    + current.size() + " hotels, more than catalog.maxRemovedShare " + MAX_REMOVED_SHARE
+                    + ", with their reviews: " + diff.removed);
+            return null;
+        }
+        if (!diff.removed.isEmpty()) {
+            System.out.println("Removing the hotels no longer in " + filePath + ": " + diff.removed);
+        }
+        if (!diff.isEmpty() && !store.applyHotelChanges(diff.added, diff.changed, diff.removed)) {
+            System.out.println("Could not apply the hotel changes from " + filePath);
+            return null;
+        }
+        count(metrics, "added", diff.added.size());
+        count(metrics, "changed", diff.changed.size());
+        count(metrics, "removed", diff.removed.size());
+        System.out.println("Loaded " + filePath + ": " + diff);
+
+        if (searcher != null && !diff.isEmpty()) {
+            incoming.sort(HOTEL_ID_ORDER);
+            searcher.setHotels(incoming);
+        }
+        return diff;
+    }
+
+    /**
+     * Reads the hotels in the store from the primary database: a replica lagging behind would miss hotels
+     * already written, which the diff would then add again and fail on as duplicates
+     * @return the hotels in the store, or null if an error happens
+     */
+    private List<Hotel> readFromPrimary() {
+        ReadConsistency caller = ReadConsistency.get();
+        ReadConsistency.start(Long.MAX_VALUE, 0);
+        try {
+            return store.getAllHotel();
+        } finally {
+            ReadConsistency.bind(caller);
+        }
+    }
+
+    /**
+     * Reads the hotels of a hotel file, the last one winning if an id appears twice
+     * @param reader the content of the file
+     * @return the hotels
+     */
+    static List<Hotel> read(Reader reader) {
+        JsonObject jo = new JsonParser().parse(reader).getAsJsonObject();
+        JsonArray jsonArr = jo.getAsJsonArray("sr");
+        Map<String, Hotel> byId = new HashMap<>();
+        for (Hotel hotel : new Gson().fromJson(jsonArr, Hotel[].class)) {
+            if (hotel != null && hotel.getId() != null) {
+                byId.put(hotel.getId(), hotel);
+            }
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Compares the hotels in the store with those in a file
+     * @param current the hotels in the store
+     * @param incoming the hotels in the file
+     * @return the hotels to add, change and remove
+     */
+    static Diff diff(List<Hotel> current, List<Hotel> incoming) {
+        Map<String, Hotel> before = new HashMap<>();
+        for (Hotel hotel : current) {
+            before.put(hotel.getId(), hotel);
+        }
+        Diff diff = new Diff();
+        for (Hotel hotel : incoming) {
+            Hotel old = before.remove(hotel.getId());
+            if (old == null) {
+                diff.added.add(hotel);
+            } else if (!sameDetails(old, hotel)) {
+                diff.changed.add(hotel);
+            }
+        }
+        diff.removed.addAll(before.keySet());
+        return diff;
+    }
+
+    /**
+     * Checks if two versions of a hotel have the same details
+     * @param a a hotel
+     * @param b the same hotel
+     * @return true if the name, location, address and city are the same
+     */
+    private static boolean sameDetails(Hotel a, Hotel b) {
+        return Objects.equals(a.getName(), b.getName()) && Objects.equals(a.getLat(), b.getLat())
+                && Objects.equals(a.getLng(), b.getLng()) && Objects.equals(a.getAddress(), b.getAddress())
+                && Objects.equals(a.getCity(), b.getCity());
+    }
+
+    /**
+     * Counts the hotels applied by kind of change
+     * @param metrics the metrics registry
+     * @param change added, changed or removed
+     * @param n the number of hotels
+     */
+    private static void count(MetricsRegistry metrics, String change, int n) {
+        metrics.counter("ingest_hotel_changes_total", "Hotels written by catalog refreshes by kind of change",
+                "change", change).add(n);
+    }
+}
@@ -0,0 +1,219 @@
+package hotelapp;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * Precomputed hotel rankings, kept as sorted sets that are updated one hotel at a time whenever
+ * the reviews of a hotel change. Reading the top k of a ranking walks the first k entries of
+ * a set instead of scanning and sorting every hotel.
+ *
+ * The rating ranking uses a Bayesian average, (prior * weight + sum of ratings) / (weight + count),
+ * so a hotel with one five-star review does not outrank one with hundreds of good reviews.
+ * The prior is the mean rating of all reviews and the weight the mean review count per hotel,
+ * both fixed when the rankings are rebuilt, so that a review only ever moves its own hotel.
+ */
+public class HotelRankings {
+
+    /**
+     * The kinds of ranking
+     */
+    public enum Kind {
+        RATING, REVIEWS, RECENT
+    }
+
+    /**
+     * The position of a hotel in one ranking
+     */
+    private static class Entry {
+        private final String hotelId;
+        private final double score;
+
+        public Entry(String hotelId, double score) {
+            this.hotelId = hotelId;
+            this.score = score;
+        }
+    }
+
+    /**
+     * The review statistics of a hotel, replaced as a whole on every change
+     */
+    private static class Stats {
+        private final String city;
+        private final int count;
+        private final long ratingSum;
+        private final long latest;
+
+        public Stats(String city, List<Review> reviews) {
+            this.city = city;
+            long sum = 0;
+            long max = 0;
+            for (Review review : reviews) {
+                sum += review.getRatingOverall();
+                max = Math.max(max, review.getDatePosted().getTime());
+            }
+            this.count = reviews.size();
+            this.ratingSum = sum;
+            this.latest = max;
+        }
+    }
+
+    private static final Comparator<Entry> BEST_FIRST =
+            Comparator.comparingDouble((Entry e) -> e.score).reversed().thenComparing(e -> e.hotelId);
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Map<Kind, NavigableSet<Entry>> overall = new ConcurrentHashMap<>();
+    private final Map<String, Map<Kind, NavigableSet<Entry>>> byCity = new ConcurrentHashMap<>();
+    private final double prior;
+    private final double weight;
+
+    /**
+     * Constructor of HotelRankings, ranks all hotels
+     * @param hotels all the hotels
+     * @param reviewsOf gives the reviews of a hotel id
+     */
+    public HotelRankings(List<Hotel> hotels, Function<String, List<Review>> reviewsOf) {
+        long sum = 0;
+        long count = 0;
+        for (Hotel hotel : hotels) {
+            for (Review review : reviewsOf.apply(hotel.getId())) {
+                sum += review.getRatingOverall();
+                count++;
+            }
+        }
+        this.prior = count == 0 ? 0 : (double) sum / count;
+        this.weight = hotels.isEmpty() ? 0 : (double) count / hotels.size();
+        for (Kind kind : Kind.values()) {
+            overall.put(kind, new ConcurrentSkipListSet<>(BEST_FIRST));
+        }
+        for (Hotel hotel : hotels) {
+            insert(hotel.getId(), new Stats(hotel.getCity(), reviewsOf.apply(hotel.getId())));
+        }
+    }
+
+    /**
+     * Re-ranks a hotel after its reviews changed
+     * @param hotelId the hotel id
+     * @param reviews the current reviews of the hotel
+     */
+    public synchronized void update(String hotelId, List<Review> reviews) {
+        Stats old = stats.get(hotelId);
+        if (old == null) {
+            return; // not a hotel of the catalog
+        }
+        remove(hotelId, old);
+        insert(hotelId, new Stats(old.city, reviews));
+    }
+
+    /**
+     * Gets the best hotels of a ranking
+     * @param kind the ranking
+     * @param city only rank hotels in this city, or null for all hotels
+     * @param k the number of hotels
+     * @return the ids of at most k hotels, best first
+     */
+    public List<String> top(Kind kind, String city, int k) {
+        NavigableSet<Entry> ranking;
+        if (city == null) {
+            ranking = overall.get(kind);
+        } else {
+            Map<Kind, NavigableSet<Entry>> cityRankings = byCity.get(city);
+            ranking = cityRankings == null ? null : cityRankings.get(kind);
+        }
+        List<String> ids = new ArrayList<>();
+        if (ranking == null) {
+            return ids;
+        }
+        for (Entry entry : ranking) {
+            if (ids.size() >= k) {
+                break;
+            }
+            ids.add(entry.hotelId);
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the Bayesian average rating of a hotel
+     * @param hotelId the hotel id
+     * @return the smoothed rating, or NaN if the hotel is unknown
+     */
+    public double getRating(String hotelId) {
+        Stats s = stats.get(hotelId);
+        return s == null ? Double.NaN : score(Kind.RATING, s);
+    }
+
+    /**
+     * Gets the number of reviews of a hotel
+     * @param hotelId the hotel id
+     * @return the number of reviews, 0 if the hotel is unknown
+     */
+    public int getReviewCount(String hotelId) {
+        Stats s = stats.get(hotelId);
+        return s == null ? 0 : s.count;
+    }
+
+    /**
+     * Gets the cities that have at least one hotel
+     * @return the cities
+     */
+    public List<String> getCities() {
+        List<String> cities = new ArrayList<>(byCity.keySet());
+        cities.sort(Comparator.naturalOrder());
+        return cities;
+    }
+
+    /**
+     * Computes the score of a hotel in a ranking
+     * @param kind the ranking
+     * @param s the statistics of the hotel
+     * @return the score, higher is better
+     */
+    private double score(Kind kind, Stats s) {
+        return switch (kind) {
+            case RATING -> s.count == 0 && weight == 0 ? 0 : (prior * weight + s.ratingSum) / (weight + s.count);
+            case REVIEWS -> s.count;
+            case RECENT -> s.latest;
+        };
+    }
+
+    /**
+     * Adds a hotel to every ranking it belongs to
+     * @param hotelId the hotel id
+     * @param s the statistics of the hotel
+     */
+    private void insert(String hotelId, Stats s) {
+        stats.put(hotelId, s);
+        Map<Kind, NavigableSet<Entry>> cityRankings = s.city == null ? null
+                : byCity.computeIfAbsent(s.city, c -> new ConcurrentHashMap<>());
+        for (Kind kind : Kind.values()) {
+            Entry entry = new Entry(hotelId, score(kind, s));
+            overall.get(kind).add(entry);
+            if (cityRankings != null) {
+                cityRankings.computeIfAbsent(kind, k -> new ConcurrentSkipListSet<>(BEST_FIRST)).add(entry);
+            }
+        }
+    }
+
+    /**
+     * Removes a hotel from every ranking it belongs to
+     * @param hotelId the hotel id
+     * @param s the statistics the hotel was ranked with
+     */
+    private void remove(String hotelId, Stats s) {
+        Map<Kind, NavigableSet<Entry>> cityRankings = s.city == null ? null : byCity.get(s.city);
+        for (Kind kind : Kind.values()) {
+            Entry entry = new Entry(hotelId, score(kind, s));
+            overall.get(kind).remove(entry);
+            if (cityRankings != null && cityRankings.get(kind) != null) {
+                cityRankings.get(kind).remove(entry);
+            }
+        }
+    }
+}
@@ -1,21 +1,40 @@
 package hotelapp;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import database.DatabaseHandler;
-
-import java.io.FileReader;
-import java.io.IOException;
+import database.DataStoreFactory;
+import metrics.MetricsRegistry;
+
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The main searching class containing hotel search methods and several data structure for storing data
  */
 public class HotelSearcher {
+    /** How long a fuzzy search may take before it returns what it has found */
+    private static final long FUZZY_BUDGET_NANOS = Long.getLong("search.fuzzyBudgetMicros", 5000) * 1000;
+
+    private volatile Catalog catalog; // null until the hotels are loaded into memory
+    private volatile RatingSummaries ratingSummaries = RatingSummaries.EMPTY;
+    private volatile SearchIndex searchIndex; // null until the hotels are loaded into memory
+    private volatile AutocompleteIndex autocompleteIndex; // null until the hotels are loaded into memory
+    private volatile FuzzyIndex fuzzyIndex; // null until the hotels are loaded into memory
+
+    /**
+     * The hotels held in memory, swapped as a whole so readers never see a half-built catalog
+     */
+    private static class Catalog {
+        private final Map<String, Hotel> byId;
+        private final List<Hotel> hotels;
+
+        public Catalog(List<Hotel> hotels) {
+            Map<String, Hotel> byId = new HashMap<>();
+            for (Hotel hotel : hotels) {
+                byId.put(hotel.getId(), hotel);
+            }
+            this.byId = byId;
+            this.hotels = Collections.unmodifiableList(new ArrayList<>(hotels));
+        }
+    }
+
     /**
      * Constructor without calling parseHotel
      */
@@ -27,26 +46,99 @@ public class HotelSearcher {
 
     /**
      * Parse the hotels with a given file path
-     * Read the json file with the given file path, load the hotel information into hotel class
+     * Read the json file with the given file path, and apply the hotels added, changed or removed since
+     * the last time to the store and to the hotels held in memory
      * @param filePath the file path of the hotel file
      */
     private void parseHotel(String filePath) {
-        Gson gson = new Gson();
+        new HotelCatalogLoader(DataStoreFactory.getInstance()).reload(filePath, this);
+    }
 
-        try (FileReader fr = new FileReader(filePath)) {
-            JsonParser parser = new JsonParser();
-            JsonObject jo = (JsonObject) parser.parse(fr);
-            JsonArray jsonArr = jo.getAsJsonArray("sr");
+    /**
+     * Loads all the hotels from the database into memory, so that find and search no longer query it
+     * @return true if the hotels were loaded
+     */
+    public boolean load() {
+        List<Hotel> hotels = DataStoreFactory.getInstance().getAllHotel();
+        if (hotels == null) {
+            return false;
+        }
+        setHotels(hotels);
+        List<RatingSummary> summaries = DataStoreFactory.getInstance().getAllRatingSummaries();
+        if (summaries != null) {
+            setRatingSummaries(summaries);
+        }
+        return true;
+    }
 
-            DatabaseHandler db = DatabaseHandler.getInstance();
+    /**
+     * Replaces the rating summaries held in memory
+     * @param summaries the rating summaries of all hotels
+     */
+    public void setRatingSummaries(List<RatingSummary> summaries) {
+        ratingSummaries = new RatingSummaries(summaries);
+        rebuildIndexes();
+    }
 
-            Hotel[] hotels = gson.fromJson(jsonArr, Hotel[].class);
-            for (Hotel hotel : hotels) {
-                db.addHotel(hotel);
-            }
-        } catch (IOException e) {
-            System.out.println("Could not read the file: " + e);
+    /**
+     * Rebuilds the search and autocomplete indexes from the hotels and rating summaries held in memory
+     */
+    private synchronized void rebuildIndexes() {
+        Catalog current = catalog;
+        if (current != null) {
+            searchIndex = new SearchIndex(current.hotels, ratingSummaries);
+            autocompleteIndex = new AutocompleteIndex(current.hotels, ratingSummaries);
+            fuzzyIndex = new FuzzyIndex(current.hotels);
+        }
+    }
+
+    /**
+     * Suggests hotels whose name has words starting with what the user has typed
+     * @param prefix the text typed so far
+     * @param limit the maximum number of suggestions
+     * @return the most popular matching hotels, empty until the hotels are loaded into memory
+     */
+    public List<Hotel> suggest(String prefix, int limit) {
+        AutocompleteIndex index = autocompleteIndex;
+        return index == null ? Collections.emptyList() : index.suggest(prefix, limit);
+    }
+
+    /**
+     * Gets the rating summary of a hotel from memory
+     * @param hotelId the hotel id
+     * @return the rating summary, or null if the review feed has none for the hotel
+     */
+    public RatingSummary getRatingSummary(String hotelId) {
+        return ratingSummaries.get(hotelId);
+    }
+
+    /**
+     * Gets the rating summaries of all hotels held in memory
+     * @return the rating summaries
+     */
+    public RatingSummaries getRatingSummaries() {
+        return ratingSummaries;
+    }
+
+    /**
+     * Replaces the hotels held in memory
+     * @param hotels the hotels
+     */
+    public void setHotels(List<Hotel> hotels) {
+        catalog = new Catalog(hotels);
+        rebuildIndexes();
+    }
+
+    /**
+     * Gets all the hotels
+     * @return an unmodifiable list of all the hotels, or null if an error happens
+     */
+    public List<Hotel> getAllHotels() {
+        Catalog current = catalog;
+        if (current != null) {
+            return current.hotels;
         }
+        return DataStoreFactory.getInstance().getAllHotel();
     }
 
     /**
@@ -58,32 +150,50 @@ public class HotelSearcher {
         if (hotelId == null) {
             return null;
         }
-        return DatabaseHandler.getInstance().getHotelWithId(hotelId);
+        Catalog current = catalog;
+        if (current != null) {
+            return current.byId.get(hotelId);
+        }
+        return DataStoreFactory.getInstance().getHotelWithId(hotelId);
     }
 
     /**
-     * Returns a list of hotel whose names contain the given name
-     * @param hotelName the name of the hotels
-     * @return a list of hotel whose names contain the given name
+     * Searches the hotels with the search index, retrying with the hotels whose name is close to the
+     * query's name when nothing matches it exactly
+     * @param query the filters, sort and page of the search; its name is cleared for the fuzzy retry
+     * @return the page of matching hotels, marked as fuzzy when it comes from the retry
      */
-    public List<Hotel> search(String hotelName) {
-        List<Hotel> hotels = DatabaseHandler.getInstance().getAllHotel();
-        if (hotelName == null) {
-            return hotels;
+    public SearchIndex.Page search(SearchIndex.Query query) {
+        SearchIndex index = searchIndex;
+        if (index == null) {
+            List<Hotel> all = getAllHotels();
+            index = new SearchIndex(all == null ? new ArrayList<>() : all, ratingSummaries);
         }
-        List<Hotel> res = new ArrayList<>();
-        Pattern pattern = Pattern.compile(hotelName, Pattern.CASE_INSENSITIVE);
-        Matcher matcher;
-        for (Hotel hotel: hotels) {
-            matcher = pattern.matcher(hotel.getName());
-            if (matcher.find()) {
-                res.add(hotel);
-            }
+        SearchIndex.Page page = index.search(query);
+        FuzzyIndex fuzzy = fuzzyIndex;
+        if (page.getTotal() > 0 || query.getName() == null || fuzzy == null) {
+            return page;
+        }
+
+        // nothing matches the name exactly, retry with the hotels whose name is close to it
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        FuzzyIndex.Result near = fuzzy.search(query.getName(), FUZZY_BUDGET_NANOS);
+        metrics.counter("search_fuzzy_total", "Searches retried as fuzzy searches by outcome", "result",
+                !near.isComplete() ? "budget" : near.getHotelIds().isEmpty() ? "miss" : "hit").increment();
+        if (near.getHotelIds().isEmpty()) {
+            return page;
+        }
+        query.name(null).hotelIds(near.getHotelIds());
+        if (query.getSort() == SearchIndex.Sort.NAME) {
+            query.sort(SearchIndex.Sort.RELEVANCE);
         }
-        return res;
+        SearchIndex.Page nearPage = index.search(query);
+        return new SearchIndex.Page(nearPage.getHotels(), nearPage.getTotal(), nearPage.getOffset(),
+                nearPage.getNextCursor(), true);
     }
 
     public static void main(String[] args) {
         HotelSearcher hotelSearcher = new HotelSearcher("input/hotels/hotels.json");
+        CatalogSnapshot.writeFromStore(System.getProperty("snapshot", CatalogSnapshot.DEFAULT_PATH));
     }
 }
@@ -0,0 +1,326 @@
+package hotelapp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import database.DataStore;
+import database.DataStoreFactory;
+import database.IngestThrottle;
+import database.ReadConsistency;
+import metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the input directory while the server runs and ingests the json files that are created, changed
+ * or deleted, so a data drop no longer needs HotelSearcher or ReviewSearcher to be re-run by hand.
+ *
+ * Events are collected until the directory has been quiet for the debounce time (or for at most the
+ * maximum delay during a long burst), then only the files involved are ingested: hotel files go through
+ * the HotelCatalogLoader, review files replace the reviews they held before, and only the hotels they
+ * touch are reloaded into the caches and rankings. The watcher remembers which reviews each review file
+ * held, reading every review file once when it starts, so that a file that shrinks or disappears takes
+ * its reviews with it. A deleted hotel file leaves the catalog as it is. A review file the store fails
+ * to take is left as it was and tried again after the maximum delay.
+ */
+public class InputWatcher implements Runnable {
+    private final Path root;
+    private final Path hotelsDir;
+    private final HotelSearcher hotelSearcher;
+    private final ReviewSearcher reviewSearcher;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+    private final Gson gson = new Gson();
+    private final Map<Path, Map<String, List<String>>> sourcesOfFile = new HashMap<>(); // file -> hotel -> source ids
+    private final Set<Path> retries = new HashSet<>(); // review files the store failed to take
+    private WatchService service;
+
+    /**
+     * Constructor of InputWatcher
+     * @param root the input directory, with the hotel files under hotels and the review files anywhere else
+     * @param hotelSearcher the hotel searcher whose catalog is updated
+     * @param reviewSearcher the review searcher whose reviews are updated
+     * @param debounceMillis how long the directory must be quiet before the changes are ingested
+     * @param maxDelayMillis the longest a change waits during a burst
+     */
+    public InputWatcher(Path root, HotelSearcher hotelSearcher, ReviewSearcher reviewSearcher,
+                        long debounceMillis, long maxDelayMillis) {
+        this.root = root;
+        this.hotelsDir = root.resolve("hotels");
+        this.hotelSearcher = hotelSearcher;
+        this.reviewSearcher = reviewSearcher;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Starts watching in a daemon thread
+     * @return the thread
+     */
+    public Thread start() {
+        Thread thread = new Thread(this, "input-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Watches the input directory until the thread is interrupted
+     */
+    @Override
+    public void run() {
+        // reads that follow our own writes must not hit a replica that has not seen them yet
+        ReadConsistency.start(Long.MAX_VALUE, 0);
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            service = watchService;
+            register(root); // before reading the files, so that no change in between is missed
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(this::isReviewFile).forEach(file -> sourcesOfFile.put(file, sourcesOf(readReviews(file))));
+            }
+            System.out.println("Watching " + root + ", " + sourcesOfFile.size() + " review files");
+            while (!Thread.currentThread().isInterrupted()) {
+                Map<Path, Boolean> changed = new LinkedHashMap<>(); // file -> still exists
+                WatchKey key = retries.isEmpty() ? service.take() : service.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+                long first = System.nanoTime();
+                for (Path file : retries) {
+                    changed.put(file, true); // ingest sees whether it is still there
+                }
+                retries.clear();
+                long deadline = first + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (key != null) {
+                    collect(key, changed);
+                    long left = Math.min(TimeUnit.MILLISECONDS.toNanos(debounceMillis), deadline - System.nanoTime());
+                    key = left <= 0 ? null : service.poll(left, TimeUnit.NANOSECONDS);
+                }
+                if (!changed.isEmpty()) {
+                    ingest(changed, first);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Could not watch " + root + ": " + e);
+        } finally {
+            ReadConsistency.end();
+        }
+    }
+
+    /**
+     * Registers a directory and its subdirectories with the watch service
+     * @param directory the directory
+     * @throws IOException if a directory can not be registered
+     */
+    private void register(Path directory) throws IOException {
+        try (Stream<Path> dirs = Files.walk(directory)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    /**
+     * Records the files a watch key reports, registering new directories
+     * @param key the key of a watched directory
+     * @param changed the files changed so far, with whether they still exist
+     */
+    private void collect(WatchKey key, Map<Path, Boolean> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, look at every file
+                try (Stream<Path> files = Files.walk(root)) {
+                    files.filter(f -> f.toString().endsWith(".json")).forEach(f -> changed.put(f, true));
+                } catch (IOException e) {
+                    System.out.println(e);
+                }
+                for (Path known : sourcesOfFile.keySet()) {
+                    changed.putIfAbsent(known, Files.exists(known));
+                }
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    register(path);
+                    // files may have landed in it before it was registered
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(f -> f.toString().endsWith(".json")).forEach(f -> changed.put(f, true));
+                    }
+                } catch (IOException e) {
+                    System.out.println(e);
+                }
+            } else if (path.toString().endsWith(".json")) {
+                changed.put(path, event.kind() != StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+        if (!key.reset()) {
+            // the directory is gone, and so are the review files under it
+            for (Path known : sourcesOfFile.keySet()) {
+                if (known.startsWith(dir)) {
+                    changed.put(known, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ingests the files changed in a burst and updates the caches of the hotels they touch
+     * @param changed the changed files, with whether they still exist
+     * @param first when the first change of the burst was seen, from System.nanoTime
+     */
+    private void ingest(Map<Path, Boolean> changed, long first) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        DataStore store = DataStoreFactory.getInstance();
+        Set<String> touched = new HashSet<>();
+        boolean summariesChanged = false;
+        for (Map.Entry<Path, Boolean> entry : changed.entrySet()) {
+            Path file = entry.getKey();
+            boolean exists = entry.getValue() && Files.isRegularFile(file);
+            String result;
+            if (file.startsWith(hotelsDir)) {
+                result = exists ? ingestHotels(file, touched) : "ignored";
+            } else if (!exists) {
+                Map<String, List<String>> old = sourcesOfFile.remove(file);
+                result = old == null || deleteReviews(store, old, Map.of(), touched) ? "deleted" : "failed";
+            } else {
+                IngestThrottle.getInstance().acquire();
+                Wrapper wrapper = readReviews(file);
+                List<Review> reviews = wrapper == null ? null : wrapper.reviewDetails.reviewCollection.review;
+                if (wrapper == null) {
+                    result = "failed"; // maybe still being written, the next event retries it
+                } else if (!store.addReviews(reviews)) {
+                    result = "failed"; // its old reviews stay until the retry succeeds
+                    retries.add(file);
+                } else {
+                    Map<String, List<String>> now = sourcesOf(wrapper);
+                    deleteReviews(store, sourcesOfFile.getOrDefault(file, Map.of()), now, touched);
+                    sourcesOfFile.put(file, now);
+                    touched.addAll(now.keySet());
+                    if (wrapper.reviewDetails.reviewSummaryCollection != null
+                            && wrapper.reviewDetails.reviewSummaryCollection.reviewSummary != null) {
+                        for (RatingSummary summary : wrapper.reviewDetails.reviewSummaryCollection.reviewSummary) {
+                            if (summary.getHotelId() != null) {
+                                store.addRatingSummary(summary);
+                                summariesChanged = true;
+                            }
+                        }
+                    }
+                    metrics.counter("ingest_reviews_total", "Reviews loaded from review files").add(reviews.size());
+                    result = "parsed";
+                }
+            }
+            metrics.counter("ingest_watch_files_total", "Changed input files by outcome", "result", result).increment();
+        }
+
+        reviewSearcher.reloadHotels(touched);
+        if (summariesChanged) {
+            List<RatingSummary> summaries = store.getAllRatingSummaries();
+            if (summaries != null) {
+                hotelSearcher.setRatingSummaries(summaries);
+            }
+        }
+        long elapsed = System.nanoTime() - first;
+        metrics.histogram("ingest_watch_latency_seconds", "Time from a change in the input directory to the caches")
+                .record(elapsed);
+        System.out.println("Ingested " + changed.size() + " changed input files in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+    }
+
+    /**
+     * Loads a changed hotel file, rebuilding the rankings if the catalog changed
+     * @param file the hotel file
+     * @param touched the hotels whose reviews must be reloaded
+     * @return the outcome for the metrics
+     */
+    private String ingestHotels(Path file, Set<String> touched) {
+        HotelCatalogLoader.Diff diff = new HotelCatalogLoader(DataStoreFactory.getInstance())
+                .reload(file.toString(), hotelSearcher);
+        if (diff == null) {
+            return "failed";
+        }
+        if (!diff.isEmpty() && reviewSearcher.getRankings() != null) {
+            reviewSearcher.setRankings(new HotelRankings(hotelSearcher.getAllHotels(), reviewSearcher::findReview));
+        }
+        touched.addAll(diff.getRemoved()); // their reviews went with them
+        return "parsed";
+    }
+
+    /**
+     * Deletes the reviews a file held before and no longer holds
+     * @param store the store
+     * @param before the source ids of the file before, by hotel
+     * @param after the source ids of the file now, by hotel
+     * @param touched the hotels whose reviews must be reloaded
+     * @return true if the reviews are gone
+     */
+    private static boolean deleteReviews(DataStore store, Map<String, List<String>> before,
+                                         Map<String, List<String>> after, Set<String> touched) {
+        boolean deleted = true;
+        for (Map.Entry<String, List<String>> hotel : before.entrySet()) {
+            List<String> gone = new ArrayList<>(hotel.getValue());
+            gone.removeAll(after.getOrDefault(hotel.getKey(), List.of()));
+            if (!gone.isEmpty()) {
+                deleted &= store.deleteReviews(hotel.getKey(), gone);
+                touched.add(hotel.getKey());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Reads a review file
+     * @param file the file
+     * @return the parsed file, or null if it can not be read
+     */
+    private Wrapper readReviews(Path file) {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return ReviewSearcher.read(gson, reader);
+        } catch (IOException | JsonParseException e) {
+            System.out.println("Could not read the file " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the source ids of the reviews of a review file, by hotel
+     * @param wrapper the parsed file, may be null
+     * @return the source ids
+     */
+    private static Map<String, List<String>> sourcesOf(Wrapper wrapper) {
+        Map<String, List<String>> sources = new HashMap<>();
+        if (wrapper != null) {
+            for (Review review : wrapper.reviewDetails.reviewCollection.review) {
+                sources.computeIfAbsent(review.getHotelId(), k -> new ArrayList<>()).add(review.getSourceId());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Checks if a path is a review file
+     * @param path the path
+     * @return true if it is a json file outside the hotels directory
+     */
+    private boolean isReviewFile(Path path) {
+        return path.toString().endsWith(".json") && !path.startsWith(hotelsDir) && Files.isRegularFile(path);
+    }
+}
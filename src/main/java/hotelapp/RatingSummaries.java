@@ -0,0 +1,91 @@
+package hotelapp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rating summaries of all hotels packed into primitive arrays: one int per hotel for the review
+ * count and a fixed run of floats per hotel for the ratings, instead of one object per hotel.
+ * Immutable, so it can be swapped in as a whole and read without locking.
+ */
+public class RatingSummaries {
+    /** An instance without any summary */
+    public static final RatingSummaries EMPTY = new RatingSummaries(new ArrayList<>());
+
+    private static final int WIDTH = RatingSummary.DIMENSIONS.length;
+
+    private final Map<String, Integer> index = new HashMap<>();
+    private final String[] hotelIds;
+    private final int[] counts;
+    private final float[] values;
+
+    /**
+     * Constructor of RatingSummaries
+     * @param summaries the summaries, a later summary of the same hotel replaces an earlier one
+     */
+    public RatingSummaries(Collection<RatingSummary> summaries) {
+        Map<String, RatingSummary> latest = new HashMap<>();
+        for (RatingSummary summary : summaries) {
+            latest.put(summary.getHotelId(), summary);
+        }
+        hotelIds = new String[latest.size()];
+        counts = new int[latest.size()];
+        values = new float[latest.size() * WIDTH];
+        int i = 0;
+        for (RatingSummary summary : latest.values()) {
+            index.put(summary.getHotelId(), i);
+            hotelIds[i] = summary.getHotelId();
+            counts[i] = summary.getTotalReviewCnt();
+            System.arraycopy(summary.toArray(), 0, values, i * WIDTH, WIDTH);
+            i++;
+        }
+    }
+
+    /**
+     * Gets the summary of a hotel
+     * @param hotelId the hotel id
+     * @return the summary, or null if the feed has none for the hotel
+     */
+    public RatingSummary get(String hotelId) {
+        Integer i = hotelId == null ? null : index.get(hotelId);
+        if (i == null) {
+            return null;
+        }
+        float[] row = new float[WIDTH];
+        System.arraycopy(values, i * WIDTH, row, 0, WIDTH);
+        return new RatingSummary(hotelIds[i], counts[i], row);
+    }
+
+    /**
+     * Gets the average overall rating of a hotel without creating a summary object
+     * @param hotelId the hotel id
+     * @return the average overall rating, or NaN if the feed has none for the hotel
+     */
+    public float getOverall(String hotelId) {
+        Integer i = hotelId == null ? null : index.get(hotelId);
+        return i == null ? Float.NaN : values[i * WIDTH];
+    }
+
+    /**
+     * Gets all the summaries
+     * @return a list with one summary per hotel
+     */
+    public List<RatingSummary> toList() {
+        List<RatingSummary> list = new ArrayList<>(hotelIds.length);
+        for (String hotelId : hotelIds) {
+            list.add(get(hotelId));
+        }
+        return list;
+    }
+
+    /**
+     * Gets the number of hotels with a summary
+     * @return the number of hotels
+     */
+    public int size() {
+        return hotelIds.length;
+    }
+}
@@ -0,0 +1,113 @@
+package hotelapp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The review summary of a hotel as published in the review feed: the number of reviews,
+ * the average overall rating and the average of every sub-rating
+ */
+public class RatingSummary {
+    /** The labels of the values returned by toArray, in order */
+    public static final String[] DIMENSIONS = {"Overall", "Cleanliness", "Service and staff", "Room comfort",
+            "Hotel condition", "Location", "Neighborhood", "Value for money", "Room quality", "Recommended %"};
+
+    private String hotelId;
+    private int totalReviewCnt;
+    private float avgOverallRating;
+    private float cleanliness;
+    private float serviceAndStaff;
+    private float roomComfort;
+    private float hotelCondition;
+    private float convenienceOfLocation;
+    private float neighborhoodSatisfaction;
+    private float valueForMoney;
+    private float roomQuality;
+    private float recommendedPercent;
+
+    /**
+     * Constructor of RatingSummary
+     * @param hotelId the hotel id
+     * @param totalReviewCnt the number of reviews the summary is computed from
+     * @param values the values in the order of DIMENSIONS
+     */
+    public RatingSummary(String hotelId, int totalReviewCnt, float[] values) {
+        this.hotelId = hotelId;
+        this.totalReviewCnt = totalReviewCnt;
+        this.avgOverallRating = values[0];
+        this.cleanliness = values[1];
+        this.serviceAndStaff = values[2];
+        this.roomComfort = values[3];
+        this.hotelCondition = values[4];
+        this.convenienceOfLocation = values[5];
+        this.neighborhoodSatisfaction = values[6];
+        this.valueForMoney = values[7];
+        this.roomQuality = values[8];
+        this.recommendedPercent = values[9];
+    }
+
+    /**
+     * Getter for hotel id
+     * @return the hotel id
+     */
+    public String getHotelId() {
+        return hotelId;
+    }
+
+    /**
+     * Getter for the number of reviews
+     * @return the number of reviews the summary is computed from
+     */
+    public int getTotalReviewCnt() {
+        return totalReviewCnt;
+    }
+
+    /**
+     * Getter for the average overall rating
+     * @return the average overall rating
+     */
+    public float getAvgOverallRating() {
+        return avgOverallRating;
+    }
+
+    /**
+     * Gets the average overall rating for display
+     * @return the average overall rating with one decimal
+     */
+    public String getRating() {
+        return format(avgOverallRating);
+    }
+
+    /**
+     * Gets the sub-ratings that have a value, for display
+     * @return the formatted sub-ratings by label, in the order of DIMENSIONS
+     */
+    public Map<String, String> getSubRatings() {
+        float[] values = toArray();
+        Map<String, String> subRatings = new LinkedHashMap<>();
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > 0) { // the feed uses 0 for a dimension nobody rated
+                subRatings.put(DIMENSIONS[i], format(values[i]));
+            }
+        }
+        return subRatings;
+    }
+
+    /**
+     * Gets all the values of the summary
+     * @return the values in the order of DIMENSIONS
+     */
+    public float[] toArray() {
+        return new float[] {avgOverallRating, cleanliness, serviceAndStaff, roomComfort, hotelCondition,
+                convenienceOfLocation, neighborhoodSatisfaction, valueForMoney, roomQuality, recommendedPercent};
+    }
+
+    /**
+     * Formats a rating with one decimal
+     * @param value the rating
+     * @return the formatted rating
+     */
+    private static String format(float value) {
+        return String.format("%.1f", value);
+    }
+}
@@ -12,6 +12,9 @@ import java.time.format.DateTimeFormatter;
  * The review class used to store the information in a review
  */
 public class Review{
+    private static final String USER_SOURCE = "user:";
+
+    private String reviewId; // the id in the review feed, null for the reviews written on the site
     private String hotelId;
     private String title;
     private String reviewText;
@@ -40,6 +43,57 @@ public class Review{
         this.ratingOverall = rating;
     }
 
+    /**
+     * The constructor of a Review from the review feed
+     * @param reviewId the id of the review in the feed, null for a review written on the site
+     * @param hotelId the hotel id
+     * @param title the title of the review
+     * @param reviewText the text of the review
+     * @param userNickname the username of the review
+     * @param datePosted the posted date of the review
+     * @param rating the rating of the review
+     */
+    public Review(String reviewId, String hotelId, String title, String reviewText, String userNickname,
+                  Timestamp datePosted, int rating) {
+        this(hotelId, title, reviewText, userNickname, datePosted, rating);
+        this.reviewId = reviewId;
+    }
+
+    /**
+     * Getter for the id of the review in the review feed
+     * @return the id, null for a review written on the site
+     */
+    public String getReviewId() {
+        return reviewId;
+    }
+
+    /**
+     * Gets the key identifying the review among the reviews of its hotel: the feed id of a review from
+     * the review feed, or the username for a review written on the site, where a user has one review per hotel
+     * @return the source id
+     */
+    public String getSourceId() {
+        return reviewId != null ? reviewId : userSourceId(userNickname);
+    }
+
+    /**
+     * Gets the source id of a review written on the site
+     * @param username the username of the author
+     * @return the source id
+     */
+    public static String userSourceId(String username) {
+        return USER_SOURCE + username;
+    }
+
+    /**
+     * Gets the feed id of a review from its source id
+     * @param sourceId the source id
+     * @return the id in the review feed, null for a review written on the site
+     */
+    public static String reviewIdOf(String sourceId) {
+        return sourceId == null || sourceId.startsWith(USER_SOURCE) ? null : sourceId;
+    }
+
     /**
      * Gets the overall rating of the review
      * @return the rating
@@ -1,10 +1,19 @@
 package hotelapp;
 
 import com.google.gson.Gson;
-import database.DatabaseHandler;
+import com.google.gson.JsonParseException;
+import database.DataStore;
+import database.DataStoreFactory;
+import database.IngestThrottle;
+import metrics.MetricsRegistry;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -14,10 +23,14 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 
 /**
@@ -25,8 +38,17 @@ import java.util.concurrent.TimeUnit;
  */
 public class ReviewSearcher {
 
-    private ExecutorService poolManager = Executors.newFixedThreadPool(4);
-    private Phaser phaser = new Phaser();
+    /** How many review files are parsed by one task, so that small files do not pay the per-task overhead */
+    private static final int BATCH_SIZE = Integer.getInteger("ingest.batchSize", 16);
+
+    private final AtomicLong pendingFiles = new AtomicLong();
+    // the summary last stored for each hotel, every page of a hotel repeats it
+    private final ConcurrentMap<String, RatingSummary> storedSummaries = new ConcurrentHashMap<>();
+    private volatile Map<String, List<Review>> reviewsByHotel; // null until the reviews are loaded into memory
+    private volatile HotelRankings rankings; // null until the rankings are built
+    private final AtomicLong versionClock = new AtomicLong();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>(); // hotels whose reviews changed since loading
+    private volatile long loadedVersion;
 
 
     /**
@@ -34,87 +56,498 @@ public class ReviewSearcher {
      */
     public ReviewSearcher() {}
 
+    /**
+     * Constructor of ReviewSearcher, parses every review file under the given directory into the database,
+     * including those inside .zip, .tar.gz and .tgz archives, or every review file of the given archive
+     * @param path the directory of the review files, or an archive of them
+     */
     public ReviewSearcher (String path) {
-        this.parseDirectoryMultiThread(path);
-        phaser.awaitAdvance(0);
-        poolManager.shutdown();
+        MetricsRegistry.getInstance().gauge("ingest_files_pending", "Review files waiting to be parsed",
+                pendingFiles::get);
+        int parallelism = Integer.getInteger("ingest.parallelism", Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
         try {
-            poolManager.awaitTermination(1, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            this.parseDirectoryMultiThread(pool, path);
+        } finally {
+            pool.shutdown();
         }
     }
 
+    /**
+     * Opens the content of a review file, wherever it is stored
+     */
+    private interface Source {
+        /**
+         * Opens the content
+         * @return a reader over the json
+         * @throws IOException if the content can not be read
+         */
+        Reader open() throws IOException;
+    }
+
     /**
      * Parse the reviews with a given file path
      * Read the json file with the given file path, load the review information into review class
      * @param filePath the file path of the review file
      */
     protected void parseReview(String filePath) {
+        parseReview(filePath, () -> new FileReader(filePath));
+    }
+
+    /**
+     * Parse the reviews of one review file and load them into the store
+     * @param name the name of the file, for the error messages
+     * @param source the content of the file
+     */
+    private void parseReview(String name, Source source) {
+        IngestThrottle.getInstance().acquire(); // no-op unless the server is running
         Gson gson = new Gson();
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
 
-        try (FileReader fr = new FileReader(filePath)) {
-            Wrapper wrapper = gson.fromJson(fr, Wrapper.class);
-            DatabaseHandler dbHandler = DatabaseHandler.getInstance();
-            for (Review r: wrapper.reviewDetails.reviewCollection.review) {
-                if (r.getUserNickname().equals("")) {
-                    r.setUserNickname("Anonymous");
+        try (Reader fr = source.open()) {
+            Wrapper wrapper = read(gson, fr);
+            DataStore dbHandler = DataStoreFactory.getInstance();
+            List<Review> reviews = wrapper.reviewDetails.reviewCollection.review;
+            // one transaction per file, re-ingesting a file replaces its reviews
+            if (!dbHandler.addReviews(reviews)) {
+                metrics.counter("ingest_files_total", "Review files by outcome", "result", "failed").increment();
+                System.out.println("Could not store the reviews of " + name);
+                return;
+            }
+            metrics.counter("ingest_reviews_total", "Reviews loaded from review files").add(reviews.size());
+            if (wrapper.reviewDetails.reviewSummaryCollection != null
+                    && wrapper.reviewDetails.reviewSummaryCollection.reviewSummary != null) {
+                for (RatingSummary summary : wrapper.reviewDetails.reviewSummaryCollection.reviewSummary) {
+                    if (summary.getHotelId() != null) {
+                        storeSummary(dbHandler, summary);
+                    }
                 }
-                dbHandler.addReview(r);
             }
-        } catch (IOException e) {
-            System.out.println("Could not read the file: " + e);
+            metrics.counter("ingest_files_total", "Review files by outcome", "result", "parsed").increment();
+        } catch (IOException | JsonParseException e) {
+            metrics.counter("ingest_files_total", "Review files by outcome", "result", "failed").increment();
+            System.out.println("Could not read the file " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Stores the rating summary of a hotel unless the same one was already stored, so that a re-ingested
+     * file with an updated summary replaces the old one
+     * @param store the store
+     * @param summary the summary
+     */
+    private void storeSummary(DataStore store, RatingSummary summary) {
+        storedSummaries.compute(summary.getHotelId(), (hotelId, stored) -> {
+            if (stored == null || stored.getTotalReviewCnt() != summary.getTotalReviewCnt()
+                    || !Arrays.equals(stored.toArray(), summary.toArray())) {
+                store.addRatingSummary(summary); // an upsert
+                MetricsRegistry.getInstance().counter("ingest_summaries_total",
+                        "Hotel rating summaries loaded from review files").increment();
+            }
+            return summary;
+        });
+    }
+
+    /**
+     * Reads a review file, naming the anonymous reviewers
+     * @param gson the json parser
+     * @param reader the content of the file
+     * @return the parsed file
+     * @throws JsonParseException if the file is not a review file
+     */
+    static Wrapper read(Gson gson, Reader reader) {
+        Wrapper wrapper = gson.fromJson(reader, Wrapper.class);
+        if (wrapper == null || wrapper.reviewDetails == null || wrapper.reviewDetails.reviewCollection == null
+                || wrapper.reviewDetails.reviewCollection.review == null) {
+            throw new JsonParseException("no review collection");
+        }
+        for (Review r: wrapper.reviewDetails.reviewCollection.review) {
+            if (r.getUserNickname().equals("")) {
+                r.setUserNickname("Anonymous");
+            }
         }
+        return wrapper;
     }
 
     /**
-     * Traverse the given directory recursively and parse the review json files
+     * Traverse the given directory recursively and parse the review json files, reading archives in place.
+     * Directories and batches of files become fork/join tasks, so idle workers steal
+     * whole subtrees from busy ones instead of the caller walking every directory itself.
+     * @param pool the pool the tasks run in
      * @param directory The directory to be traversed
      */
-    protected void parseDirectoryMultiThread(String directory) {
-        Path p = Paths.get(directory);
-        try (DirectoryStream<Path> pathsInDir = Files.newDirectoryStream(p)) {
-            for (Path path : pathsInDir) {
-                if (!Files.isDirectory(path) && (path.toString().endsWith(".json"))){
-                    poolManager.execute(new ReviewParser(path.toString()));
-                    phaser.register();
-                }else {
-                    this.parseDirectoryMultiThread(path.toString());
+    protected void parseDirectoryMultiThread(ForkJoinPool pool, String directory) {
+        Path path = Paths.get(directory);
+        pool.invoke(isArchive(path) ? archiveTask(path) : new DirectoryTask(path));
+    }
+
+    /**
+     * Checks if a file is an archive of review files
+     * @param path the file
+     * @return true for .zip, .tar.gz and .tgz files
+     */
+    private static boolean isArchive(Path path) {
+        String name = path.getFileName() == null ? "" : path.getFileName().toString();
+        return name.endsWith(".zip") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * Creates the task reading an archive of review files
+     * @param archive the archive
+     * @return the task
+     */
+    private RecursiveAction archiveTask(Path archive) {
+        return archive.toString().endsWith(".zip") ? new ZipTask(archive) : new TarGzTask(archive);
+    }
+
+    /**
+     * The inner class of ReviewSearcher that lists one directory, forks a task for every
+     * subdirectory and a task for every batch of review files in it
+     */
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends RecursiveAction {
+
+        private final Path directory;
+
+        /**
+         * Constructor of DirectoryTask
+         * @param directory the directory to be traversed
+         */
+        public DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Lists the directory and runs the subtasks
+         */
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(BATCH_SIZE);
+            try (DirectoryStream<Path> pathsInDir = Files.newDirectoryStream(directory)) {
+                for (Path path : pathsInDir) {
+                    if (Files.isDirectory(path)) {
+                        tasks.add(new DirectoryTask(path));
+                    } else if (isArchive(path)) {
+                        tasks.add(archiveTask(path));
+                    } else if (path.toString().endsWith(".json")) {
+                        batch.add(path);
+                        if (batch.size() == BATCH_SIZE) {
+                            tasks.add(new FileBatchTask(batch));
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
                 }
+            } catch (IOException e) {
+                System.out.println("Can not open directory: " + directory);
+            }
+            if (!batch.isEmpty()) {
+                tasks.add(new FileBatchTask(batch));
             }
-        } catch (IOException e) {
-            System.out.println("Can not open directory: " + directory);
+            invokeAll(tasks);
         }
     }
 
     /**
-     * The inner class of ThreadSafeReviewSearcher that implements Runnable
+     * The inner class of ReviewSearcher that parses a batch of review files
      */
-    public class ReviewParser implements Runnable {
+    @SuppressWarnings("serial")
+    private class FileBatchTask extends RecursiveAction {
+
+        private final List<Path> files;
 
-        private String file;
         /**
-         * Constructor of ReviewParser
-         * @param file the json file to be parsed
+         * Constructor of FileBatchTask
+         * @param files the json files to be parsed
          */
-        public ReviewParser(String file) {
-            this.file = file;
+        public FileBatchTask(List<Path> files) {
+            this.files = files;
+            pendingFiles.addAndGet(files.size());
         }
 
         /**
-         * The overridden run method that parse reviews
+         * Parses the files one after another
          */
         @Override
-        public void run() {
-            try {
-                parseReview(file);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                phaser.arriveAndDeregister();
+        protected void compute() {
+            for (Path file : files) {
+                try {
+                    parseReview(file.toString());
+                } catch (Exception e) {
+                    System.out.println("Could not parse " + file + ": " + e);
+                } finally {
+                    pendingFiles.decrementAndGet();
+                }
             }
         }
+    }
+
+    /**
+     * The inner class of ReviewSearcher that reads a zip archive of review files in place. The entries are
+     * split into batches, and each batch inflates and parses its entries in its own worker
+     */
+    @SuppressWarnings("serial")
+    private class ZipTask extends RecursiveAction {
+
+        private final Path archive;
 
+        /**
+         * Constructor of ZipTask
+         * @param archive the zip file
+         */
+        public ZipTask(Path archive) {
+            this.archive = archive;
+        }
+
+        /**
+         * Lists the entries and runs a task for every batch of them
+         */
+        @Override
+        protected void compute() {
+            try (ZipFile zip = new ZipFile(archive.toFile())) {
+                List<RecursiveAction> tasks = new ArrayList<>();
+                List<ZipEntry> batch = new ArrayList<>(BATCH_SIZE);
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory() && entry.getName().endsWith(".json")) {
+                        batch.add(entry);
+                        if (batch.size() == BATCH_SIZE) {
+                            tasks.add(new ZipBatchTask(zip, batch));
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    tasks.add(new ZipBatchTask(zip, batch));
+                }
+                invokeAll(tasks); // the zip file is shared by the batches, so it stays open until they are done
+            } catch (IOException e) {
+                System.out.println("Can not open archive: " + archive + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * The inner class of ReviewSearcher that parses a batch of entries of a zip archive
+     */
+    @SuppressWarnings("serial")
+    private class ZipBatchTask extends RecursiveAction {
+
+        private final ZipFile zip;
+        private final List<ZipEntry> entries;
+
+        /**
+         * Constructor of ZipBatchTask
+         * @param zip the open zip file
+         * @param entries the json entries to be parsed
+         */
+        public ZipBatchTask(ZipFile zip, List<ZipEntry> entries) {
+            this.zip = zip;
+            this.entries = entries;
+            pendingFiles.addAndGet(entries.size());
+        }
+
+        /**
+         * Parses the entries one after another
+         */
+        @Override
+        protected void compute() {
+            for (ZipEntry entry : entries) {
+                try {
+                    parseReview(zip.getName() + "!" + entry.getName(),
+                            () -> new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    System.out.println("Could not parse " + entry.getName() + ": " + e);
+                } finally {
+                    pendingFiles.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * The inner class of ReviewSearcher that reads a gzipped tar archive of review files in place.
+     * A gzip stream can only be decompressed from start to end, so this task reads the entries while the
+     * batches it forks parse them in the other workers; at most a few batches per worker are held in memory.
+     */
+    @SuppressWarnings("serial")
+    private class TarGzTask extends RecursiveAction {
+
+        private final Path archive;
+
+        /**
+         * Constructor of TarGzTask
+         * @param archive the tar.gz file
+         */
+        public TarGzTask(Path archive) {
+            this.archive = archive;
+        }
+
+        /**
+         * Reads the entries and forks a task for every batch of them
+         */
+        @Override
+        protected void compute() {
+            int maxForked = 4 * Math.max(1, getPool().getParallelism());
+            Deque<RecursiveAction> forked = new ArrayDeque<>();
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(archive), 1 << 16)) {
+                TarReader tar = new TarReader(in);
+                List<Map.Entry<String, byte[]>> batch = new ArrayList<>(BATCH_SIZE);
+                while (tar.next()) {
+                    if (!tar.getName().endsWith(".json")) {
+                        continue;
+                    }
+                    batch.add(new AbstractMap.SimpleImmutableEntry<>(tar.getName(), tar.read()));
+                    if (batch.size() == BATCH_SIZE) {
+                        forked.add(fork(new ArchiveBatchTask(archive, batch), forked, maxForked));
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    forked.add(fork(new ArchiveBatchTask(archive, batch), forked, maxForked));
+                }
+            } catch (IOException e) {
+                System.out.println("Can not read archive: " + archive + ": " + e);
+            }
+            for (RecursiveAction task : forked) {
+                task.join();
+            }
+        }
+
+        /**
+         * Forks a batch, first waiting for the oldest one if too many are in flight
+         * @param task the batch
+         * @param forked the batches in flight, oldest first
+         * @param maxForked the most batches in flight
+         * @return the forked task
+         */
+        private RecursiveAction fork(RecursiveAction task, Deque<RecursiveAction> forked, int maxForked) {
+            if (forked.size() >= maxForked) {
+                forked.poll().join();
+            }
+            task.fork();
+            return task;
+        }
+    }
+
+    /**
+     * The inner class of ReviewSearcher that parses a batch of review files read from an archive
+     */
+    @SuppressWarnings("serial")
+    private class ArchiveBatchTask extends RecursiveAction {
+
+        private final Path archive;
+        private final List<Map.Entry<String, byte[]>> files;
+
+        /**
+         * Constructor of ArchiveBatchTask
+         * @param archive the archive the files were read from
+         * @param files the names and contents of the json files to be parsed
+         */
+        public ArchiveBatchTask(Path archive, List<Map.Entry<String, byte[]>> files) {
+            this.archive = archive;
+            this.files = files;
+            pendingFiles.addAndGet(files.size());
+        }
+
+        /**
+         * Parses the files one after another
+         */
+        @Override
+        protected void compute() {
+            for (Map.Entry<String, byte[]> file : files) {
+                try {
+                    parseReview(archive + "!" + file.getKey(), () -> new InputStreamReader(
+                            new ByteArrayInputStream(file.getValue()), StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    System.out.println("Could not parse " + file.getKey() + ": " + e);
+                } finally {
+                    pendingFiles.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads all the reviews from the database into memory, grouped by hotel
+     * @return true if the reviews were loaded
+     */
+    public boolean load() {
+        List<Review> reviews = DataStoreFactory.getInstance().getAllReviews();
+        if (reviews == null) {
+            return false;
+        }
+        setReviews(reviews);
+        return true;
+    }
+
+    /**
+     * Replaces the reviews held in memory
+     * @param reviews the reviews of all hotels
+     */
+    public void setReviews(List<Review> reviews) {
+        Map<String, List<Review>> grouped = new HashMap<>();
+        for (Review review : reviews) {
+            grouped.computeIfAbsent(review.getHotelId(), k -> new ArrayList<>()).add(review);
+        }
+        Map<String, List<Review>> byHotel = new ConcurrentHashMap<>();
+        for (Map.Entry<String, List<Review>> entry : grouped.entrySet()) {
+            byHotel.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+        reviewsByHotel = byHotel;
+        loadedVersion = versionClock.incrementAndGet();
+        versions.clear();
+    }
+
+    /**
+     * Reloads the reviews of some hotels from the store after they changed outside of the web application,
+     * then re-ranks the hotels and bumps their versions
+     * @param hotelIds the ids of the hotels
+     */
+    public void reloadHotels(Collection<String> hotelIds) {
+        DataStore store = DataStoreFactory.getInstance();
+        for (String hotelId : hotelIds) {
+            Map<String, List<Review>> cache = reviewsByHotel;
+            if (cache != null) {
+                // read inside compute, so a review posted meanwhile is not overwritten by an older read
+                cache.compute(hotelId, (id, reviews) -> {
+                    List<Review> loaded = store.getReviewWithId(id);
+                    if (loaded == null) {
+                        return reviews;
+                    }
+                    return loaded.isEmpty() ? null : Collections.unmodifiableList(loaded);
+                });
+                updateRankings(hotelId);
+            }
+            versions.put(hotelId, versionClock.incrementAndGet());
+        }
+    }
+
+    /**
+     * Gets the version of the reviews of a hotel, which changes whenever a review of the hotel is added
+     * or deleted, or all the reviews are reloaded
+     * @param hotelId the hotel id
+     * @return the version
+     */
+    public long getVersion(String hotelId) {
+        return hotelId == null ? loadedVersion : versions.getOrDefault(hotelId, loadedVersion);
+    }
+
+    /**
+     * Sets the rankings that are kept up to date as reviews are added and deleted
+     * @param rankings the rankings
+     */
+    public void setRankings(HotelRankings rankings) {
+        this.rankings = rankings;
+    }
+
+    /**
+     * Getter for the rankings
+     * @return the rankings, or null if they have not been built
+     */
+    public HotelRankings getRankings() {
+        return rankings;
     }
 
     /**
@@ -123,42 +556,122 @@ public class ReviewSearcher {
      * @return the set of reviews with the given hotel id
      */
     public List<Review> findReview(String hotelId) {
-        return DatabaseHandler.getInstance().getReviewWithId(hotelId);
+        Map<String, List<Review>> cache = reviewsByHotel;
+        if (cache != null) {
+            return hotelId == null ? Collections.emptyList() : cache.getOrDefault(hotelId, Collections.emptyList());
+        }
+        return DataStoreFactory.getInstance().getReviewWithId(hotelId);
     }
 
     /**
-     * Finds the review of the user of the hotel with given hotel id
-     * @param hotelId the id of the hotel
+     * Adds review, unless the user already has a review of the hotel
      * @param username username
-     * @return true if the user already has a review of the hotel
+     * @param hotelId hotel id
+     * @param title title of the review
+     * @param text review content
+     * @param rating rating of the review
+     * @return true if the review was added, false if the user already has one
      */
-    public boolean findSpecificReview (String hotelId, String username) {
-        return DatabaseHandler.getInstance().getReviewWithName(hotelId, username);
+    public boolean addReview(String username, String hotelId, String title, String text, int rating) {
+        Review review = newReview(username, hotelId, title, text, rating);
+        if (!DataStoreFactory.getInstance().addReviewIfAbsent(review)) {
+            return false;
+        }
+        replaceCached(hotelId, username, review);
+        return true;
     }
 
     /**
-     * Adds review
+     * Replaces the review of the user of the hotel
      * @param username username
      * @param hotelId hotel id
      * @param title title of the review
      * @param text review content
+     * @param rating rating of the review
+     * @return true if the review was replaced, false if the user has no review of the hotel
      */
-    public void addReview(String username, String hotelId, String title, String text, int rating) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss");
-        Review review = new Review(hotelId, title, text, username, Timestamp.valueOf(formatter.format(LocalDateTime.now())), rating);
-        DatabaseHandler.getInstance().addReview(review);
+    public boolean modifyReview(String username, String hotelId, String title, String text, int rating) {
+        Review review = newReview(username, hotelId, title, text, rating);
+        if (!DataStoreFactory.getInstance().updateReview(review)) {
+            return false;
+        }
+        replaceCached(hotelId, username, review);
+        return true;
     }
 
     /**
      * Removes the review of the user of the hotel
      * @param username username
      * @param hotelId hotel id
+     * @return true if the review was removed, false if the user has no review of the hotel
      */
-    public void deleteReview (String username, String hotelId) {
-        DatabaseHandler.getInstance().deleteReview(hotelId, username);
+    public boolean deleteReview (String username, String hotelId) {
+        if (!DataStoreFactory.getInstance().deleteReview(hotelId, username)) {
+            return false;
+        }
+        replaceCached(hotelId, username, null);
+        return true;
+    }
 
+    /**
+     * Creates a review written on the site now
+     * @param username username
+     * @param hotelId hotel id
+     * @param title title of the review
+     * @param text review content
+     * @param rating rating of the review
+     * @return the review
+     */
+    private static Review newReview(String username, String hotelId, String title, String text, int rating) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        return new Review(hotelId, title, text, username, Timestamp.valueOf(formatter.format(LocalDateTime.now())), rating);
+    }
+
+    /**
+     * Replaces the review of the user in the reviews held in memory, then bumps the version of the hotel
+     * @param hotelId hotel id
+     * @param username username
+     * @param review the new review, null to only remove the old one
+     */
+    private void replaceCached(String hotelId, String username, Review review) {
+        Map<String, List<Review>> cache = reviewsByHotel;
+        if (cache != null) {
+            cache.compute(hotelId, (id, reviews) -> {
+                List<Review> updated = reviews == null ? new ArrayList<>() : new ArrayList<>(reviews);
+                String sourceId = Review.userSourceId(username);
+                int index = -1;
+                for (int i = 0; i < updated.size() && index < 0; i++) {
+                    if (updated.get(i).getSourceId().equals(sourceId)) {
+                        index = i;
+                    }
+                }
+                if (review == null && index >= 0) {
+                    updated.remove(index);
+                } else if (review != null && index >= 0) {
+                    updated.set(index, review); // a modified review keeps its place
+                } else if (review != null) {
+                    updated.add(review);
+                }
+                return Collections.unmodifiableList(updated);
+            });
+            updateRankings(hotelId);
+        }
+        versions.put(hotelId, versionClock.incrementAndGet());
     }
+
+    /**
+     * Re-ranks a hotel after its reviews changed
+     * @param hotelId hotel id
+     */
+    private void updateRankings(String hotelId) {
+        HotelRankings current = rankings;
+        if (current != null) {
+            current.update(hotelId, findReview(hotelId));
+        }
+    }
+
     public static void main (String[] args) {
-        ReviewSearcher reviewSearcher = new ReviewSearcher("input/reviews");
+        ReviewSearcher reviewSearcher = new ReviewSearcher(args.length > 0 ? args[0] : "input/reviews");
+        CatalogSnapshot.writeFromStore(System.getProperty("snapshot", CatalogSnapshot.DEFAULT_PATH));
     }
 }
@@ -0,0 +1,511 @@
+package hotelapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An immutable index over the hotel catalog for filtered, sorted and paginated search.
+ * Every static sort order is precomputed once as a permutation of the hotel positions and every
+ * city as a bit set, so a query is a few bit set operations followed by a walk along one
+ * permutation that stops as soon as the requested page is full. Only the hotels of that page
+ * are ever materialized.
+ */
+public class SearchIndex {
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    /**
+     * The orders results can be sorted in, RELEVANCE is the order of the hotels given to the query
+     */
+    public enum Sort {
+        NAME, RATING, REVIEWS, DISTANCE, RELEVANCE
+    }
+
+    /**
+     * The parameters of a search
+     */
+    public static class Query {
+        private String name;
+        private List<String> hotelIds;
+        private String city;
+        private float minRating = Float.NaN;
+        private double lat = Double.NaN;
+        private double lng = Double.NaN;
+        private double radiusKm = Double.NaN;
+        private Sort sort = Sort.NAME;
+        private int offset;
+        private String cursor;
+        private int limit = 20;
+
+        /**
+         * Only hotels whose name matches, case-insensitively
+         * @param name a pattern matched against the hotel name, null for all hotels
+         * @return this query
+         */
+        public Query name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Only the given hotels, ranked in the given order for the RELEVANCE sort
+         * @param hotelIds the ids of the hotels, null for all hotels
+         * @return this query
+         */
+        public Query hotelIds(List<String> hotelIds) {
+            this.hotelIds = hotelIds;
+            return this;
+        }
+
+        /**
+         * Getter for the name
+         * @return the pattern matched against the hotel name, or null
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Getter for the sort
+         * @return the order of the results
+         */
+        Sort getSort() {
+            return sort;
+        }
+
+        /**
+         * Only hotels in a city
+         * @param city the city, null for all cities
+         * @return this query
+         */
+        public Query city(String city) {
+            this.city = city;
+            return this;
+        }
+
+        /**
+         * Only hotels rated at least as high as given
+         * @param minRating the minimum average rating, NaN for no minimum
+         * @return this query
+         */
+        public Query minRating(float minRating) {
+            this.minRating = minRating;
+            return this;
+        }
+
+        /**
+         * The point distances are measured from
+         * @param lat the latitude
+         * @param lng the longitude
+         * @return this query
+         */
+        public Query near(double lat, double lng) {
+            this.lat = lat;
+            this.lng = lng;
+            return this;
+        }
+
+        /**
+         * Only hotels within a distance of the point given to near
+         * @param radiusKm the distance in kilometers, NaN for no limit
+         * @return this query
+         */
+        public Query radiusKm(double radiusKm) {
+            this.radiusKm = radiusKm;
+            return this;
+        }
+
+        /**
+         * The order of the results
+         * @param sort the order
+         * @return this query
+         */
+        public Query sort(Sort sort) {
+            this.sort = sort;
+            return this;
+        }
+
+        /**
+         * The page of results
+         * @param offset the number of results before the page
+         * @param cursor the cursor returned with the previous page, or null to start at the offset
+         * @param limit the maximum number of results on the page
+         * @return this query
+         */
+        public Query page(int offset, String cursor, int limit) {
+            this.offset = Math.max(0, offset);
+            this.cursor = cursor;
+            this.limit = Math.max(1, limit);
+            return this;
+        }
+
+        /**
+         * Checks if the query has a point to measure distances from
+         * @return true if near was given
+         */
+        private boolean hasPoint() {
+            return !Double.isNaN(lat) && !Double.isNaN(lng);
+        }
+    }
+
+    /**
+     * One page of search results
+     */
+    public static class Page {
+        private final List<Hotel> hotels;
+        private final int total;
+        private final int offset;
+        private final String nextCursor;
+        private final boolean fuzzy;
+
+        /**
+         * Constructor of Page
+         * @param hotels the hotels on the page
+         * @param total the number of hotels matching the query
+         * @param offset the number of results before the page
+         * @param nextCursor the cursor of the next page, or null if this is the last page
+         */
+        public Page(List<Hotel> hotels, int total, int offset, String nextCursor) {
+            this(hotels, total, offset, nextCursor, false);
+        }
+
+        /**
+         * Constructor of Page
+         * @param hotels the hotels on the page
+         * @param total the number of hotels matching the query
+         * @param offset the number of results before the page
+         * @param nextCursor the cursor of the next page, or null if this is the last page
+         * @param fuzzy true if the hotels are near matches of a name that matched nothing exactly
+         */
+        public Page(List<Hotel> hotels, int total, int offset, String nextCursor, boolean fuzzy) {
+            this.hotels = hotels;
+            this.total = total;
+            this.offset = offset;
+            this.nextCursor = nextCursor;
+            this.fuzzy = fuzzy;
+        }
+
+        /**
+         * Checks if the results are near matches
+         * @return true if the hotels are near matches of a name that matched nothing exactly
+         */
+        public boolean isFuzzy() {
+            return fuzzy;
+        }
+
+        /**
+         * Getter for the hotels
+         * @return the hotels on the page
+         */
+        public List<Hotel> getHotels() {
+            return hotels;
+        }
+
+        /**
+         * Getter for the total
+         * @return the number of hotels matching the query
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Getter for the offset
+         * @return the number of results before the page
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Getter for the next cursor
+         * @return the cursor of the next page, or null if this is the last page
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private final Hotel[] hotels;
+    private final String[] names;
+    private final float[] ratings;
+    private final int[] reviewCounts;
+    private final double[] lats;
+    private final double[] lngs;
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Map<String, BitSet> cities = new HashMap<>();
+    private final int[] byName;
+    private final int[] byRating;
+    private final int[] byReviews;
+    private final float[] sortedRatings; // ratings in the order of byRating, for binary search
+
+    /**
+     * Constructor of SearchIndex
+     * @param catalog all the hotels
+     * @param summaries the rating summaries used for the rating and review count
+     */
+    public SearchIndex(List<Hotel> catalog, RatingSummaries summaries) {
+        int n = catalog.size();
+        hotels = catalog.toArray(new Hotel[0]);
+        names = new String[n];
+        ratings = new float[n];
+        reviewCounts = new int[n];
+        lats = new double[n];
+        lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            Hotel hotel = hotels[i];
+            names[i] = hotel.getName() == null ? "" : hotel.getName();
+            positions.put(hotel.getId(), i);
+            RatingSummary summary = summaries.get(hotel.getId());
+            ratings[i] = summary == null ? Float.NaN : summary.getAvgOverallRating();
+            reviewCounts[i] = summary == null ? 0 : summary.getTotalReviewCnt();
+            lats[i] = parse(hotel.getLat());
+            lngs[i] = parse(hotel.getLng());
+            if (hotel.getCity() != null) {
+                cities.computeIfAbsent(hotel.getCity().toLowerCase(), c -> new BitSet(n)).set(i);
+            }
+        }
+        byName = permutation(n, Comparator.comparing((Integer i) -> names[i], String.CASE_INSENSITIVE_ORDER));
+        // unrated hotels sort last
+        byRating = permutation(n, Comparator.comparingDouble((Integer i) -> Float.isNaN(ratings[i]) ? 1 : -ratings[i])
+                .thenComparing(i -> names[i], String.CASE_INSENSITIVE_ORDER));
+        byReviews = permutation(n, Comparator.comparingInt((Integer i) -> -reviewCounts[i])
+                .thenComparing(i -> names[i], String.CASE_INSENSITIVE_ORDER));
+        sortedRatings = new float[n];
+        for (int r = 0; r < n; r++) {
+            sortedRatings[r] = ratings[byRating[r]];
+        }
+    }
+
+    /**
+     * Searches the hotels
+     * @param query the query
+     * @return the requested page of results
+     */
+    public Page search(Query query) {
+        BitSet matches = filter(query);
+        int total = matches.cardinality();
+        Sort sort = query.sort == Sort.DISTANCE && !query.hasPoint() ? Sort.NAME : query.sort;
+        if (sort == Sort.DISTANCE) {
+            return byDistance(query, matches, total);
+        }
+        int[] order = switch (sort) {
+            case RATING -> byRating;
+            case REVIEWS -> byReviews;
+            case RELEVANCE -> query.hotelIds == null ? byName : positionsOf(query.hotelIds);
+            default -> byName;
+        };
+
+        // a cursor is the position in the permutation to continue from, so deep pages do not rescan
+        int position = 0;
+        int skip = query.offset;
+        Integer resume = decodeCursor(query.cursor, sort);
+        if (resume != null) {
+            position = resume;
+            skip = 0;
+        }
+        List<Hotel> page = new ArrayList<>(Math.min(query.limit, total));
+        for (; position < order.length && page.size() < query.limit; position++) {
+            if (matches.get(order[position])) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    page.add(hotels[order[position]]);
+                }
+            }
+        }
+        boolean more = query.offset + page.size() < total;
+        return new Page(page, total, query.offset, more ? encodeCursor(sort, position) : null);
+    }
+
+    /**
+     * Builds the set of hotels that pass every filter of the query
+     * @param query the query
+     * @return the positions of the matching hotels
+     */
+    private BitSet filter(Query query) {
+        BitSet matches;
+        if (query.city != null) {
+            BitSet city = cities.get(query.city.toLowerCase());
+            matches = city == null ? new BitSet() : (BitSet) city.clone();
+        } else {
+            matches = new BitSet(hotels.length);
+            matches.set(0, hotels.length);
+        }
+        if (query.hotelIds != null) {
+            BitSet given = new BitSet(hotels.length);
+            for (int position : positionsOf(query.hotelIds)) {
+                given.set(position);
+            }
+            matches.and(given);
+        }
+        if (!Float.isNaN(query.minRating)) {
+            // the rated hotels at or above the minimum are a prefix of the rating order
+            int low = 0;
+            int high = sortedRatings.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sortedRatings[mid] >= query.minRating) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            BitSet rated = new BitSet(hotels.length);
+            for (int r = 0; r < low; r++) {
+                rated.set(byRating[r]);
+            }
+            matches.and(rated);
+        }
+        if (query.name != null && !query.name.isEmpty()) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(query.name, Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                pattern = Pattern.compile(Pattern.quote(query.name), Pattern.CASE_INSENSITIVE);
+            }
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                if (!pattern.matcher(names[i]).find()) {
+                    matches.clear(i);
+                }
+            }
+        }
+        if (!Double.isNaN(query.radiusKm) && query.hasPoint()) {
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                if (!(distanceKm(query.lat, query.lng, lats[i], lngs[i]) <= query.radiusKm)) {
+                    matches.clear(i);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Gets a page of the matches ordered by distance, keeping only offset + limit candidates in a heap
+     * @param query the query
+     * @param matches the matching hotels
+     * @param total the number of matching hotels
+     * @return the page
+     */
+    private Page byDistance(Query query, BitSet matches, int total) {
+        int offset = query.offset;
+        Integer resume = decodeCursor(query.cursor, Sort.DISTANCE);
+        if (resume != null) {
+            offset = resume;
+        }
+        int keep = offset + query.limit;
+        double[] distances = new double[hotels.length];
+        // the farthest kept candidate is at the head, so it is the one evicted
+        PriorityQueue<Integer> nearest = new PriorityQueue<>(Math.max(1, Math.min(keep, total)),
+                Comparator.comparingDouble((Integer i) -> distances[i]).reversed());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            double d = distanceKm(query.lat, query.lng, lats[i], lngs[i]);
+            distances[i] = Double.isNaN(d) ? Double.MAX_VALUE : d;
+            nearest.add(i);
+            if (nearest.size() > keep) {
+                nearest.poll();
+            }
+        }
+        Integer[] sorted = nearest.toArray(new Integer[0]);
+        Arrays.sort(sorted, Comparator.comparingDouble((Integer i) -> distances[i]));
+        List<Hotel> page = new ArrayList<>(query.limit);
+        for (int r = offset; r < sorted.length; r++) {
+            page.add(hotels[sorted[r]]);
+        }
+        boolean more = offset + page.size() < total;
+        return new Page(page, total, offset, more ? encodeCursor(Sort.DISTANCE, offset + page.size()) : null);
+    }
+
+    /**
+     * Gets the positions of hotels in the index
+     * @param hotelIds the hotel ids
+     * @return the positions of the hotels that are in the index, in the same order
+     */
+    private int[] positionsOf(List<String> hotelIds) {
+        return hotelIds.stream().map(positions::get).filter(p -> p != null).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Sorts the hotel positions
+     * @param n the number of hotels
+     * @param order the order
+     * @return the positions in the order
+     */
+    private static int[] permutation(int n, Comparator<Integer> order) {
+        Integer[] positions = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            positions[i] = i;
+        }
+        Arrays.sort(positions, order);
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = positions[i];
+        }
+        return permutation;
+    }
+
+    /**
+     * Encodes a cursor
+     * @param sort the order the cursor belongs to
+     * @param position the position to continue from
+     * @return the cursor
+     */
+    private static String encodeCursor(Sort sort, int position) {
+        return sort.name().toLowerCase() + "." + position;
+    }
+
+    /**
+     * Decodes a cursor
+     * @param cursor the cursor
+     * @param sort the order of the query
+     * @return the position to continue from, or null if the cursor is missing or belongs to another order
+     */
+    private static Integer decodeCursor(String cursor, Sort sort) {
+        String prefix = sort.name().toLowerCase() + ".";
+        if (cursor == null || !cursor.startsWith(prefix)) {
+            return null;
+        }
+        try {
+            int position = Integer.parseInt(cursor.substring(prefix.length()));
+            return position < 0 ? null : position;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a coordinate
+     * @param value the coordinate
+     * @return the coordinate, NaN if it is not a number
+     */
+    private static double parse(String value) {
+        try {
+            return value == null ? Double.NaN : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Computes the great-circle distance between two points
+     * @param lat1 the latitude of the first point
+     * @param lng1 the longitude of the first point
+     * @param lat2 the latitude of the second point
+     * @param lng2 the longitude of the second point
+     * @return the distance in kilometers
+     */
+    public static double distanceKm(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+}
@@ -0,0 +1,275 @@
+package hotelapp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the regular files of a tar stream one after another, without extracting them.
+ * Handles ustar name prefixes, GNU long names and pax path records, which is what the
+ * usual tar tools write for long paths; every other entry type is skipped.
+ */
+public class TarReader {
+    private static final int BLOCK = 512;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private String name;
+    private long size;
+    private long remaining; // bytes of the current entry and its padding not read yet
+
+    /**
+     * Constructor of TarReader
+     * @param in the tar stream, already decompressed
+     */
+    public TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Moves to the next regular file, skipping what was not read of the current one
+     * @return true if there is one, false at the end of the archive
+     * @throws IOException if the stream can not be read or is not a tar stream
+     */
+    public boolean next() throws IOException {
+        skip(remaining);
+        remaining = 0;
+        String longName = null;
+        while (true) {
+            if (!readBlock(header, true)) {
+                return false;
+            }
+            if (isZero(header)) {
+                return false; // the end-of-archive marker
+            }
+            char type = (char) header[156];
+            long entrySize = octal(header, 124, 12);
+            if (type == 'L') {
+                longName = trim(readData(entrySize));
+                continue;
+            }
+            if (type == 'x') {
+                String path = paxPath(readData(entrySize));
+                if (path != null) {
+                    longName = path;
+                }
+                continue;
+            }
+            if (type != '0' && type != '\0') {
+                skip(padded(entrySize)); // directories, links, global pax headers
+                longName = null;
+                continue;
+            }
+            name = longName != null ? longName : headerName();
+            size = entrySize;
+            remaining = padded(entrySize);
+            return true;
+        }
+    }
+
+    /**
+     * Getter for the name of the current file
+     * @return the path of the file in the archive
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Reads the content of the current file; a file that is not read is skipped by next
+     * @return the content
+     * @throws IOException if the stream can not be read
+     * @throws IllegalStateException if the current file was already read
+     */
+    public byte[] read() throws IOException {
+        if (remaining != padded(size)) {
+            throw new IllegalStateException("tar entry already read: " + name);
+        }
+        remaining = 0;
+        return readData(size);
+    }
+
+    /**
+     * Reads the data of an entry and the padding after it
+     * @param length the length of the data
+     * @return the data
+     * @throws IOException if the stream can not be read
+     */
+    private byte[] readData(long length) throws IOException {
+        if (length > Integer.MAX_VALUE - BLOCK) {
+            throw new IOException("tar entry too large: " + length);
+        }
+        byte[] data = new byte[(int) length];
+        readFully(data, data.length);
+        skip(padded(length) - length);
+        return data;
+    }
+
+    /**
+     * Gets the name of the entry from a ustar header
+     * @return the prefix and the name
+     */
+    private String headerName() {
+        String base = trim(header, 0, 100);
+        String magic = new String(header, 257, 5, StandardCharsets.US_ASCII);
+        if (magic.equals("ustar")) {
+            String prefix = trim(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + base;
+            }
+        }
+        return base;
+    }
+
+    /**
+     * Finds the path record of pax extended headers, records being "length key=value\n"
+     * @param data the extended headers
+     * @return the path, or null if there is none
+     */
+    private static String paxPath(byte[] data) {
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (length <= 0 || pos + length > data.length) {
+                return null;
+            }
+            String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                return record.substring(5);
+            }
+            pos += length;
+        }
+        return null;
+    }
+
+    /**
+     * Reads one block
+     * @param block the buffer
+     * @param endAllowed true if the stream may end before the block
+     * @return false if the stream ended
+     * @throws IOException if the stream can not be read or ends inside the block
+     */
+    private boolean readBlock(byte[] block, boolean endAllowed) throws IOException {
+        int n = in.readNBytes(block, 0, BLOCK);
+        if (n == 0 && endAllowed) {
+            return false;
+        }
+        if (n < BLOCK) {
+            throw new EOFException("truncated tar header");
+        }
+        return true;
+    }
+
+    /**
+     * Reads exactly some bytes
+     * @param data the buffer
+     * @param length the number of bytes
+     * @throws IOException if the stream can not be read or ends too early
+     */
+    private void readFully(byte[] data, int length) throws IOException {
+        if (in.readNBytes(data, 0, length) < length) {
+            throw new EOFException("truncated tar entry");
+        }
+    }
+
+    /**
+     * Skips some bytes
+     * @param length the number of bytes
+     * @throws IOException if the stream can not be read or ends too early
+     */
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("truncated tar entry");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Rounds a length up to whole blocks
+     * @param length the length
+     * @return the length with the padding
+     */
+    private static long padded(long length) {
+        return (length + BLOCK - 1) / BLOCK * BLOCK;
+    }
+
+    /**
+     * Parses an octal field of a header
+     * @param block the header
+     * @param offset the start of the field
+     * @param length the length of the field
+     * @return the value
+     * @throws IOException if the field is not a number
+     */
+    private static long octal(byte[] block, int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = block[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("not a tar header");
+            }
+            value = value * 8 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Checks if a block is all zeros
+     * @param block the block
+     * @return true if every byte is zero
+     */
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a null-terminated field of a header
+     * @param block the header
+     * @param offset the start of the field
+     * @param length the length of the field
+     * @return the text before the first null
+     */
+    private static String trim(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a null-terminated name
+     * @param data the name
+     * @return the text before the first null
+     */
+    private static String trim(byte[] data) {
+        return trim(data, 0, data.length).trim();
+    }
+}
@@ -12,6 +12,10 @@ public class Wrapper {
             List<Review> review;
         }
         public ReviewCollection reviewCollection;
+        public class ReviewSummaryCollection {
+            List<RatingSummary> reviewSummary;
+        }
+        public ReviewSummaryCollection reviewSummaryCollection;
     }
     ReviewDetail reviewDetails;
     public void showReview() {
@@ -0,0 +1,170 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Holds the counters, gauges and latency histograms of the application
+ * and writes them in the Prometheus text exposition format.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry registry = new MetricsRegistry(); // singleton pattern
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * A metric name with its help text, type and one series per label set
+     */
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        public Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * MetricsRegistry is a singleton
+     */
+    private MetricsRegistry() {}
+
+    /**
+     * Returns the instance of the metrics registry
+     * @return instance of the metrics registry
+     */
+    public static MetricsRegistry getInstance() {
+        return registry;
+    }
+
+    /**
+     * Gets a counter, creating it on first use
+     * @param name the metric name
+     * @param help the help text
+     * @param labels alternating label names and values
+     * @return the counter
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").series.computeIfAbsent(labelString(labels), k -> new LongAdder());
+    }
+
+    /**
+     * Gets a latency histogram, creating it on first use
+     * @param name the metric name, exposed in seconds
+     * @param help the help text
+     * @param labels alternating label names and values
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "summary").series.computeIfAbsent(labelString(labels), k -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge whose value is read when the metrics are written
+     * @param name the metric name
+     * @param help the help text
+     * @param value supplies the current value
+     * @param labels alternating label names and values
+     */
+    public void gauge(String name, String help, Supplier<Number> value, String... labels) {
+        family(name, help, "gauge").series.put(labelString(labels), value);
+    }
+
+    /**
+     * Gets the family of a metric name, creating it on first use
+     * @param name the metric name
+     * @param help the help text
+     * @param type the prometheus type
+     * @return the family
+     */
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, k -> new Family(help, type));
+        }
+        return family;
+    }
+
+    /**
+     * Formats label names and values as name="value" pairs
+     * @param labels alternating label names and values
+     * @return the label string without braces
+     */
+    private static String labelString(String... labels) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            sb.append(labels[i]).append("=\"")
+                    .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format
+     * @param out the writer
+     * @throws IOException if writing fails
+     */
+    @SuppressWarnings("unchecked")
+    public void writePrometheus(Writer out) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.write("# HELP " + name + " " + family.help + "\n");
+            out.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> series : new ConcurrentSkipListMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof LongAdder) {
+                    out.write(name + braces(labels) + " " + ((LongAdder) metric).sum() + "\n");
+                } else if (metric instanceof LatencyHistogram) {
+                    LatencyHistogram histogram = (LatencyHistogram) metric;
+                    for (double quantile : QUANTILES) {
+                        String quantileLabels = (labels.isEmpty() ? "" : labels + ",") + "quantile=\"" + quantile + "\"";
+                        out.write(name + "{" + quantileLabels + "} " + seconds(histogram.getValueAtQuantile(quantile)) + "\n");
+                    }
+                    out.write(name + "_sum" + braces(labels) + " " + seconds(histogram.getSum()) + "\n");
+                    out.write(name + "_count" + braces(labels) + " " + histogram.getCount() + "\n");
+                } else {
+                    Number value;
+                    try {
+                        value = ((Supplier<Number>) metric).get();
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    out.write(name + braces(labels) + " " + value + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps a non-empty label string in braces
+     * @param labels the label string
+     * @return the label string in braces, or an empty string
+     */
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    /**
+     * Converts nanoseconds to seconds
+     * @param nanos the nanoseconds
+     * @return the seconds
+     */
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+}
@@ -0,0 +1,61 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import hotelapp.AutocompleteIndex;
+import hotelapp.Hotel;
+import hotelapp.HotelSearcher;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+/**
+ * A servlet class used to suggest hotel names while the user is typing
+ */
+@SuppressWarnings("serial")
+public class AutocompleteServlet extends HttpServlet {
+    /**
+     * Called by the server (via the service method) to allow a servlet to handle an autocomplete GET request.
+     * @param request an HttpServletRequest object that contains the request the client has made of the servlet
+     * @param response an HttpServletResponse object that contains the response the servlet sends to the client
+     * @throws ServletException if the request for the GET could not be handled
+     * @throws IOException if an input or output error is detected when the servlet handles the GET request
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("username") == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().print("[]");
+            return;
+        }
+
+        int limit = AutocompleteIndex.MAX_SUGGESTIONS;
+        try {
+            if (request.getParameter("limit") != null) {
+                limit = Integer.parseInt(request.getParameter("limit"));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println(e);
+        }
+
+        HotelSearcher hotelSearcher = (HotelSearcher) getServletContext().getAttribute("hotelSearcher");
+        JsonArray suggestions = new JsonArray();
+        for (Hotel hotel : hotelSearcher.suggest(request.getParameter("q"), limit)) {
+            JsonObject suggestion = new JsonObject();
+            suggestion.addProperty("id", hotel.getId());
+            suggestion.addProperty("name", hotel.getName());
+            suggestions.add(suggestion);
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("Cache-Control", "private, max-age=60");
+        response.getWriter().print(suggestions);
+    }
+}
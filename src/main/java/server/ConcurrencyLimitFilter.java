@@ -0,0 +1,107 @@
+package server;
+
+import metrics.MetricsRegistry;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Puts the requests that query the database behind the adaptive concurrency limiter, and answers
+ * a fast 503 to the ones it sheds. Requests served from memory and static files are not limited,
+ * so they stay responsive when the database is slow.
+ */
+public class ConcurrencyLimitFilter implements Filter {
+    private ConcurrencyLimiter limiter;
+
+    /**
+     * Creates the limiter
+     * @param filterConfig the filter configuration
+     */
+    @Override
+    public void init(FilterConfig filterConfig) {
+        limiter = ConcurrencyLimiter.fromSystemProperties();
+    }
+
+    /**
+     * Runs the request if the limiter admits it, or sheds it
+     * @param request the request
+     * @param response the response
+     * @param chain the rest of the filter chain
+     * @throws IOException if an input or output error occurs
+     * @throws ServletException if the request could not be handled
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (Warmup.isWarmupRequest(request)) { // synthetic traffic would skew the limiter's baseline latency
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        ConcurrencyLimiter.Priority priority = priorityOf(httpRequest);
+        if (priority == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        boolean admitted;
+        try {
+            admitted = limiter.acquire(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        metrics.counter("limiter_requests_total", "Requests admitted or shed by the concurrency limiter",
+                "priority", priority.name().toLowerCase(), "result", admitted ? "admitted" : "shed").increment();
+        if (!admitted) {
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            httpResponse.setHeader("Retry-After", "1");
+            httpResponse.setContentType("text/plain");
+            httpResponse.getWriter().println("The server is busy, please retry in a moment.");
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = ((HttpServletResponse) response).getStatus() >= 500;
+        } finally {
+            limiter.release(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Gets the priority of a request that queries the database
+     * @param request the request
+     * @return the priority, or null if the request does not query the database
+     */
+    private static ConcurrencyLimiter.Priority priorityOf(HttpServletRequest request) {
+        boolean post = "POST".equals(request.getMethod());
+        switch (request.getServletPath()) {
+            case "/portal":
+            case "/review":
+                return post ? ConcurrencyLimiter.Priority.CRITICAL : null; // signing in and posting reviews
+            case "/history":
+                // following a link to Expedia only records it, the user is already on the way out
+                return !post && request.getParameter("hotelId") != null
+                        ? ConcurrencyLimiter.Priority.LOW : ConcurrencyLimiter.Priority.NORMAL;
+            case "/favorite":
+                return ConcurrencyLimiter.Priority.NORMAL;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
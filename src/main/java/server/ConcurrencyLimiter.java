@@ -0,0 +1,183 @@
+package server;
+
+import metrics.MetricsRegistry;
+
+/**
+ * An adaptive limit on the number of requests running against the database at the same time.
+ * The limit grows by about one per round trip while it is fully used and latency stays close to the
+ * no-load baseline, and is cut multiplicatively as soon as latency exceeds the baseline by the tolerance,
+ * so that a slow database gets fewer concurrent queries instead of every server thread blocking on it.
+ * Requests over the limit wait a short while and are then refused; lower priorities may only use part
+ * of the limit, so logins and review posts still get in when the optional traffic is being shed.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * The priority of a request, with the share of the limit it may use and whether it may wait
+     */
+    public enum Priority {
+        CRITICAL(1.0, true),
+        NORMAL(0.9, true),
+        LOW(0.5, false);
+
+        private final double share;
+        private final boolean mayWait;
+
+        Priority(double share, boolean mayWait) {
+            this.share = share;
+            this.mayWait = mayWait;
+        }
+    }
+
+    private static final double BACKOFF = 0.9;
+    private static final double BASELINE_DECAY = 0.01;
+    private static final double RECENT_DECAY = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long queueNanos;
+    private final double tolerance;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double baselineNanos; // latency with no load, slowly follows the fastest samples
+    private double recentNanos; // latency of the recent samples
+    private long lastDecrease;
+
+    /**
+     * Constructor of ConcurrencyLimiter
+     * @param initialLimit the limit to start with
+     * @param minLimit the lowest the limit can go
+     * @param maxLimit the highest the limit can go
+     * @param queueMillis how long a request over the limit may wait for a slot
+     * @param tolerance how many times the baseline latency is still considered healthy
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long queueMillis, double tolerance) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueNanos = queueMillis * 1_000_000;
+        this.tolerance = tolerance;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("limiter_limit", "Current adaptive concurrency limit", this::getLimit);
+        metrics.gauge("limiter_inflight", "Requests holding a concurrency slot", this::getInFlight);
+        metrics.gauge("limiter_queued", "Requests waiting for a concurrency slot", this::getQueued);
+        metrics.gauge("limiter_latency_baseline_seconds", "No-load latency estimate of the limiter",
+                () -> baselineSeconds());
+    }
+
+    /**
+     * Creates a limiter configured by system properties: limiter.initial, limiter.min, limiter.max,
+     * limiter.queueMillis and limiter.tolerance
+     * @return the limiter
+     */
+    public static ConcurrencyLimiter fromSystemProperties() {
+        return new ConcurrencyLimiter(Integer.getInteger("limiter.initial", 20),
+                Integer.getInteger("limiter.min", 2),
+                Integer.getInteger("limiter.max", 200),
+                Long.getLong("limiter.queueMillis", 50),
+                Double.parseDouble(System.getProperty("limiter.tolerance", "2.0")));
+    }
+
+    /**
+     * Takes a slot, waiting for one if the priority allows it
+     * @param priority the priority of the request
+     * @return true if the request got a slot and must call release, false if it is shed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean acquire(Priority priority) throws InterruptedException {
+        if (inFlight < allowed(priority)) {
+            inFlight++;
+            return true;
+        }
+        if (!priority.mayWait || queued >= limit) {
+            return false;
+        }
+        long deadline = System.nanoTime() + queueNanos;
+        queued++;
+        try {
+            while (inFlight >= allowed(priority)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+            inFlight++;
+            return true;
+        } finally {
+            queued--;
+        }
+    }
+
+    /**
+     * Gives back a slot and adjusts the limit to the latency of the request
+     * @param latencyNanos how long the request held the slot
+     * @param failed true if the request failed, which is treated as a sign of overload
+     */
+    public synchronized void release(long latencyNanos, boolean failed) {
+        boolean saturated = inFlight >= limit * 0.8;
+        inFlight--;
+        if (baselineNanos == 0) {
+            baselineNanos = latencyNanos;
+            recentNanos = latencyNanos;
+        }
+        baselineNanos = latencyNanos < baselineNanos ? latencyNanos
+                : baselineNanos + BASELINE_DECAY * (latencyNanos - baselineNanos);
+        recentNanos += RECENT_DECAY * (latencyNanos - recentNanos);
+
+        long now = System.nanoTime();
+        if (failed || recentNanos > tolerance * baselineNanos) {
+            // at most one cut per round trip, the requests already running were admitted under the old limit
+            if (now - lastDecrease > recentNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+                lastDecrease = now;
+            }
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of slots a priority may use
+     * @param priority the priority
+     * @return the share of the limit, at least one
+     */
+    private double allowed(Priority priority) {
+        return Math.max(1, limit * priority.share);
+    }
+
+    /**
+     * Getter for the current limit
+     * @return the limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Getter for the number of requests holding a slot
+     * @return the number of requests
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Getter for the number of waiting requests
+     * @return the number of requests
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Gets the no-load latency estimate
+     * @return the estimate in seconds
+     */
+    private synchronized double baselineSeconds() {
+        return baselineNanos / 1e9;
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import database.QueryProfile;
+import metrics.MetricsRegistry;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A filter profiling the database work of every request.
+ * Requests above the configured thresholds are logged, and a statement executed repeatedly
+ * within one request is reported as an N+1 suspect.
+ *
+ * Thresholds are set with system properties:
+ * -Dprofiler.maxCalls (default 10), -Dprofiler.maxMillis (default 200)
+ * and -Dprofiler.repeatThreshold (default 3).
+ */
+public class DbProfilerFilter implements Filter {
+    private final Set<String> servletPaths = new HashSet<>();
+    private int maxCalls;
+    private long maxNanos;
+    private int repeatThreshold;
+
+    /**
+     * Reads the thresholds and collects the mapped servlet paths, so that unmapped urls do not create a series each
+     * @param filterConfig the filter configuration
+     */
+    @Override
+    public void init(FilterConfig filterConfig) {
+        try {
+            for (ServletRegistration registration : filterConfig.getServletContext().getServletRegistrations().values()) {
+                servletPaths.addAll(registration.getMappings());
+            }
+        } catch (UnsupportedOperationException e) {
+            System.out.println("Could not list the servlet mappings: " + e);
+        }
+        maxCalls = Integer.getInteger("profiler.maxCalls", 10);
+        maxNanos = Long.getLong("profiler.maxMillis", 200L) * 1_000_000;
+        repeatThreshold = Integer.getInteger("profiler.repeatThreshold", 3);
+    }
+
+    /**
+     * Profiles the request and reports it if it is above a threshold
+     * @param request the request
+     * @param response the response
+     * @param chain the rest of the filter chain
+     * @throws IOException if an input or output error occurs
+     * @throws ServletException if the request could not be handled
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (Warmup.isWarmupRequest(request)) { // synthetic traffic would skew the database profile
+            chain.doFilter(request, response);
+            return;
+        }
+        QueryProfile profile = QueryProfile.start();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            QueryProfile.end();
+            report((HttpServletRequest) request, profile);
+        }
+    }
+
+    /**
+     * Records the profile in the metrics and logs offenders
+     * @param request the request
+     * @param profile the database profile of the request
+     */
+    private void report(HttpServletRequest request, QueryProfile profile) {
+        if (profile.getCalls() == 0 && profile.getConnections() == 0) {
+            return;
+        }
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String path = request.getServletPath();
+        String servlet = servletPaths.contains(path) ? path : "other";
+        metrics.counter("db_request_statements_total", "Statements executed, per servlet", "servlet", servlet).add(profile.getCalls());
+        metrics.counter("db_request_connections_total", "Connections opened, per servlet", "servlet", servlet).add(profile.getConnections());
+        metrics.counter("db_request_rows_total", "Rows read, per servlet", "servlet", servlet).add(profile.getRows());
+        metrics.histogram("db_request_time_seconds", "Time spent in the database per request", "servlet", servlet).record(profile.getNanos());
+
+        boolean suspect = false;
+        for (Map.Entry<String, Integer> statement : profile.getStatements().entrySet()) {
+            if (statement.getValue() >= repeatThreshold) {
+                suspect = true;
+                metrics.counter("db_nplusone_suspects_total", "Requests running the same statement repeatedly",
+                        "servlet", servlet, "statement", statement.getKey()).increment();
+            }
+        }
+        boolean slow = profile.getCalls() > maxCalls || profile.getNanos() > maxNanos;
+        if (slow) {
+            metrics.counter("db_request_over_threshold_total", "Requests above the profiler thresholds", "servlet", servlet).increment();
+        }
+        if (suspect || slow) {
+            System.out.println("DB profile" + (suspect ? " [N+1 suspect]" : "") + " " + request.getMethod() + " "
+                    + request.getRequestURI() + ": " + profile);
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
@@ -1,6 +1,8 @@
 package server;
 
-import database.DatabaseHandler;
+import database.DataStore;
+import database.DataStoreFactory;
+import hotelapp.CoFavoriteIndex;
 import hotelapp.Hotel;
 import hotelapp.HotelSearcher;
 import org.apache.velocity.Template;
@@ -43,12 +45,14 @@ public class ExpediaHistoryServlet extends HotelServlet{
             return;
         }
 
-        DatabaseHandler dbHandler = DatabaseHandler.getInstance();
+        DataStore dbHandler = DataStoreFactory.getInstance();
         HotelSearcher hotelSearcher = (HotelSearcher) getServletContext().getAttribute("hotelSearcher");
 
         if (hotelId != null) {
             Hotel hotel = hotelSearcher.find(hotelId);
-            dbHandler.addExpediaHistory(hotelId, username);
+            if (dbHandler.addExpediaHistory(hotelId, username) && hotel != null) {
+                ((CoFavoriteIndex) getServletContext().getAttribute("coFavorites")).addHistory(username, hotelId);
+            }
         }
 
         VelocityEngine ve = (VelocityEngine) getServletContext().getAttribute("templateEngine");
@@ -87,8 +91,9 @@ public class ExpediaHistoryServlet extends HotelServlet{
 
         String username = (String) session.getAttribute("username");
 
-        DatabaseHandler dbHandler = DatabaseHandler.getInstance();
+        DataStore dbHandler = DataStoreFactory.getInstance();
         dbHandler.clearHistory(username);
+        ((CoFavoriteIndex) getServletContext().getAttribute("coFavorites")).clearHistory(username);
 
         session.setAttribute("message", "History cleared!");
         response.sendRedirect("/history");
@@ -1,6 +1,8 @@
 package server;
 
-import database.DatabaseHandler;
+import database.DataStore;
+import database.DataStoreFactory;
+import hotelapp.CoFavoriteIndex;
 import hotelapp.Hotel;
 import hotelapp.HotelSearcher;
 import org.apache.velocity.Template;
@@ -43,11 +45,13 @@ public class FavoriteHotelServlet extends HttpServlet {
             return;
         }
 
-        DatabaseHandler dbHandler = DatabaseHandler.getInstance();
+        DataStore dbHandler = DataStoreFactory.getInstance();
         HotelSearcher hotelSearcher = (HotelSearcher) getServletContext().getAttribute("hotelSearcher");
 
         if (hotelId != null) {
-            dbHandler.addFavorite(hotelId, username);
+            if (dbHandler.addFavorite(hotelId, username) && hotelSearcher.find(hotelId) != null) {
+                ((CoFavoriteIndex) getServletContext().getAttribute("coFavorites")).addFavorite(username, hotelId);
+            }
         }
 
         VelocityEngine ve = (VelocityEngine) getServletContext().getAttribute("templateEngine");
@@ -86,8 +90,9 @@ public class FavoriteHotelServlet extends HttpServlet {
 
         String username = (String) session.getAttribute("username");
 
-        DatabaseHandler dbHandler = DatabaseHandler.getInstance();
+        DataStore dbHandler = DataStoreFactory.getInstance();
         dbHandler.clearFavorite(username);
+        ((CoFavoriteIndex) getServletContext().getAttribute("coFavorites")).clearFavorites(username);
 
         session.setAttribute("message", "Favorite cleared!");
         response.sendRedirect("/favorite");
@@ -0,0 +1,157 @@
+package server;
+
+import metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps rendered HTML fragments, with a gzipped copy, so that a page that has not changed is served as a
+ * byte copy instead of being queried and rendered again. Every entry remembers the version of the data it
+ * was rendered from and is dropped when the caller asks for a newer version. The least recently used
+ * entries are evicted once the fragments take more than the byte budget.
+ */
+public class FragmentCache {
+
+    /**
+     * A rendered fragment
+     */
+    public static class Fragment {
+        private final long version;
+        private final byte[] html;
+        private final byte[] gzipped;
+
+        /**
+         * Constructor of Fragment
+         * @param version the version of the data the fragment was rendered from
+         * @param html the UTF-8 encoded HTML
+         * @param gzipped the gzipped HTML
+         */
+        public Fragment(long version, byte[] html, byte[] gzipped) {
+            this.version = version;
+            this.html = html;
+            this.gzipped = gzipped;
+        }
+
+        /**
+         * Getter for the HTML
+         * @return the UTF-8 encoded HTML
+         */
+        public byte[] getHtml() {
+            return html;
+        }
+
+        /**
+         * Getter for the gzipped HTML
+         * @return the gzipped HTML
+         */
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+
+        /**
+         * Gets the memory taken by the fragment
+         * @return the size of both copies in bytes
+         */
+        private long size() {
+            return html.length + gzipped.length;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Fragment> fragments = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Constructor of FragmentCache
+     * @param maxBytes the most bytes the fragments may take
+     */
+    public FragmentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("fragment_cache_bytes", "Bytes taken by the cached fragments", this::getBytes);
+        metrics.gauge("fragment_cache_entries", "Cached fragments", this::size);
+    }
+
+    /**
+     * Gets a fragment rendered from the given version of the data
+     * @param key the key of the fragment
+     * @param version the current version of the data
+     * @return the fragment, or null if it is missing or was rendered from another version
+     */
+    public synchronized Fragment get(String key, long version) {
+        Fragment fragment = fragments.get(key);
+        if (fragment != null && fragment.version != version) {
+            fragments.remove(key);
+            bytes -= fragment.size();
+            fragment = null;
+        }
+        MetricsRegistry.getInstance().counter("fragment_cache_total", "Fragment lookups by outcome",
+                "result", fragment == null ? "miss" : "hit").increment();
+        return fragment;
+    }
+
+    /**
+     * Stores a rendered fragment, evicting the least recently used ones if needed
+     * @param key the key of the fragment
+     * @param version the version of the data it was rendered from
+     * @param html the UTF-8 encoded HTML
+     * @return the stored fragment
+     */
+    public Fragment put(String key, long version, byte[] html) {
+        Fragment fragment = new Fragment(version, html, gzip(html)); // compress outside the lock
+        if (fragment.size() > maxBytes) {
+            return fragment;
+        }
+        synchronized (this) {
+            Fragment previous = fragments.put(key, fragment);
+            if (previous != null) {
+                bytes -= previous.size();
+            }
+            bytes += fragment.size();
+            Iterator<Map.Entry<String, Fragment>> eldest = fragments.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().size();
+                eldest.remove();
+                MetricsRegistry.getInstance().counter("fragment_cache_evictions_total", "Fragments evicted for space")
+                        .increment();
+            }
+        }
+        return fragment;
+    }
+
+    /**
+     * Getter for the bytes taken by the fragments
+     * @return the number of bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of cached fragments
+     * @return the number of fragments
+     */
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    /**
+     * Compresses a fragment
+     * @param html the HTML
+     * @return the gzipped HTML
+     */
+    private static byte[] gzip(byte[] html) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(html.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(html);
+        } catch (IOException e) {
+            System.out.println(e); // cannot happen in memory
+        }
+        return out.toByteArray();
+    }
+}
@@ -13,6 +13,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -20,6 +21,9 @@ import java.util.List;
  */
 @SuppressWarnings("serial")
 public class HotelServlet extends HttpServlet{
+    /** How many hotels liked by the same users are shown */
+    private static final int ALSO_LIKED = 5;
+
     /**
      * Called by the server (via the service method) to allow a servlet to handle a hotelInfo GET request.
      * @param request an HttpServletRequest object that contains the request the client has made of the servlet
@@ -55,14 +59,30 @@ public class HotelServlet extends HttpServlet{
             response.sendRedirect("/search");
             return;
         }
-        List<Review> reviews = reviewSearcher.findReview(hotelId);
+        RatingSummary summary = hotelSearcher.getRatingSummary(hotelId);
+        String rating;
+        if (summary != null) {
+            rating = summary.getRating() + " (" + summary.getTotalReviewCnt() + " reviews)";
+        } else {
+            // no summary in the feed for this hotel, fall back to the reviews we have
+            List<Review> reviews = reviewSearcher.findReview(hotelId);
+            int sum = 0;
+            if (reviews != null && reviews.size() > 0) {
+                for (Review review : reviews) {
+                    sum += review.getRatingOverall();
+                }
+                sum /= reviews.size();
+            }
+            rating = String.valueOf(sum);
+        }
 
-        int sum = 0;
-        if (reviews != null && reviews.size() > 0) {
-            for (Review review : reviews) {
-                sum += review.getRatingOverall();
+        CoFavoriteIndex coFavorites = (CoFavoriteIndex) getServletContext().getAttribute("coFavorites");
+        List<Hotel> alsoLiked = new ArrayList<>();
+        for (String similarId : coFavorites.similar(hotelId, ALSO_LIKED + 5)) {
+            Hotel similar = hotelSearcher.find(similarId); // skip hotels removed from the catalog since the last rebuild
+            if (similar != null && alsoLiked.size() < ALSO_LIKED) {
+                alsoLiked.add(similar);
             }
-            sum /= reviews.size();
         }
 
         VelocityEngine ve = (VelocityEngine) getServletContext().getAttribute("templateEngine");
@@ -71,9 +91,11 @@ public class HotelServlet extends HttpServlet{
         context.put("lat", hotel.getLat());
         context.put("lng", hotel.getLng());
         context.put("id", hotelId);
-        context.put("rating", sum);
+        context.put("rating", rating);
+        context.put("summary", summary);
         context.put("hotel", hotel);
         context.put("link", hotel.getLink());
+        context.put("alsoLiked", alsoLiked);
 
         String message = (String) session.getAttribute("message");
         if (message == null) {
@@ -0,0 +1,175 @@
+package server;
+
+import com.google.gson.JsonObject;
+import database.DataStoreFactory;
+import database.IngestThrottle;
+import database.ReadConsistency;
+import hotelapp.HotelRankings;
+import hotelapp.HotelSearcher;
+import hotelapp.RatingSummary;
+import hotelapp.ReviewSearcher;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An admin endpoint controlling background ingest, answering only requests from the machine itself.
+ * GET shows the state of the ingest throttle. POST with action=pause, resume, auto (let the rate adapt),
+ * rate with value=files per second (fix the rate), or reload with an optional path (a review directory
+ * or archive, default input/reviews) to ingest reviews in the background under the throttle and then
+ * reload the review cache.
+ */
+@SuppressWarnings("serial")
+public class IngestAdminServlet extends HttpServlet {
+    private final AtomicBoolean reloading = new AtomicBoolean();
+
+    /**
+     * Called by the server (via the service method) to allow a servlet to handle an ingest status GET request.
+     * @param request an HttpServletRequest object that contains the request the client has made of the servlet
+     * @param response an HttpServletResponse object that contains the response the servlet sends to the client
+     * @throws ServletException if the request for the GET could not be handled
+     * @throws IOException if an input or output error is detected when the servlet handles the GET request
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (!isLocal(request, response)) {
+            return;
+        }
+        writeStatus(response);
+    }
+
+    /**
+     * Called by the server (via the service method) to allow a servlet to handle an ingest control POST request.
+     * @param request an HttpServletRequest object that contains the request the client has made of the servlet
+     * @param response an HttpServletResponse object that contains the response the servlet sends to the client
+     * @throws ServletException if the request for the POST could not be handled
+     * @throws IOException if an input or output error is detected when the servlet handles the POST request
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (!isLocal(request, response)) {
+            return;
+        }
+        IngestThrottle throttle = IngestThrottle.getInstance();
+        String action = request.getParameter("action");
+        switch (action == null ? "" : action) {
+            case "pause" -> throttle.pause();
+            case "resume" -> throttle.resume();
+            case "auto" -> throttle.setAdaptive();
+            case "rate" -> {
+                double rate = parseRate(request.getParameter("value"));
+                if (Double.isNaN(rate)) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST, "value must be a number of files per second");
+                    return;
+                }
+                throttle.setRate(rate);
+            }
+            case "reload" -> {
+                String path = request.getParameter("path");
+                if (!reload(path == null || path.isEmpty() ? "input/reviews" : path)) {
+                    response.sendError(HttpServletResponse.SC_CONFLICT, "a reload is already running");
+                    return;
+                }
+            }
+            default -> {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "action must be pause, resume, auto, rate or reload");
+                return;
+            }
+        }
+        writeStatus(response);
+    }
+
+    /**
+     * Parses a rate given by hand
+     * @param value the value of the request, may be null
+     * @return the rate in files per second, or NaN if the value is missing, not a number, negative or infinite
+     */
+    private static double parseRate(String value) {
+        if (value == null || !value.trim().matches("\\d+(\\.\\d+)?|\\.\\d+")) {
+            return Double.NaN;
+        }
+        double rate = Double.parseDouble(value.trim());
+        return Double.isInfinite(rate) ? Double.NaN : rate;
+    }
+
+    /**
+     * Ingests reviews in a background thread, then reloads the review cache, rankings and rating summaries
+     * @param path the review directory or archive
+     * @return false if a reload is already running
+     */
+    private boolean reload(String path) {
+        if (!reloading.compareAndSet(false, true)) {
+            return false;
+        }
+        HotelSearcher hotelSearcher = (HotelSearcher) getServletContext().getAttribute("hotelSearcher");
+        ReviewSearcher reviewSearcher = (ReviewSearcher) getServletContext().getAttribute("reviewSearcher");
+        Thread thread = new Thread(() -> {
+            // the reloads that follow the ingest must not hit a replica that has not seen it yet
+            ReadConsistency.start(Long.MAX_VALUE, 0);
+            try {
+                long start = System.currentTimeMillis();
+                new ReviewSearcher(path);
+                if (reviewSearcher.load()) {
+                    reviewSearcher.setRankings(new HotelRankings(hotelSearcher.getAllHotels(), reviewSearcher::findReview));
+                }
+                List<RatingSummary> summaries = DataStoreFactory.getInstance().getAllRatingSummaries();
+                if (summaries != null) {
+                    hotelSearcher.setRatingSummaries(summaries);
+                }
+                System.out.println("Reloaded reviews from " + path + " in " + (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                System.out.println("Review reload failed: " + e);
+            } finally {
+                ReadConsistency.end();
+                reloading.set(false);
+            }
+        }, "review-reload");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Writes the state of the throttle as json
+     * @param response the response
+     * @throws IOException if an input or output error occurs
+     */
+    private void writeStatus(HttpServletResponse response) throws IOException {
+        IngestThrottle throttle = IngestThrottle.getInstance();
+        JsonObject status = new JsonObject();
+        status.addProperty("enabled", throttle.isEnabled());
+        status.addProperty("paused", throttle.isPaused());
+        status.addProperty("adaptive", !throttle.isManual());
+        status.addProperty("rate", throttle.getRate());
+        status.addProperty("requestP99Millis", throttle.getLastLatencyNanos() / 1e6);
+        status.addProperty("poolWaitP99Millis", throttle.getLastPoolWaitNanos() / 1e6);
+        status.addProperty("reloading", reloading.get());
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json");
+        response.getWriter().println(status);
+    }
+
+    /**
+     * Refuses requests that do not come from the machine itself
+     * @param request the request
+     * @param response the response
+     * @return true if the request is local
+     * @throws IOException if an input or output error occurs
+     */
+    private static boolean isLocal(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+            return true;
+        }
+        response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        return false;
+    }
+}
@@ -1,17 +1,31 @@
 package server;
 
+import database.DataStoreFactory;
+import database.IngestThrottle;
 import hotelapp.*;
+import metrics.MetricsRegistry;
 import org.apache.velocity.app.VelocityEngine;
+import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import javax.servlet.DispatcherType;
+import java.nio.file.Paths;
+import java.util.EnumSet;
 
 public class JettyHotelServer {
 	public static final int PORT = 8080;
 
 	public static void main(String[] args)  {
-		Server server = new Server(PORT);
+		DataStoreFactory.getInstance(); // select the storage engine before serving
+		IngestThrottle.getInstance().enable(); // ingest while serving must leave room for the requests
+		Server server = new Server();
+		LocalConnector localConnector = new LocalConnector(server);
+		server.addConnector(localConnector);
 		ServletContextHandler handler = new ServletContextHandler(ServletContextHandler.SESSIONS);
 
 		handler.addServlet(PortalServlet.class, "/portal");
@@ -22,7 +36,21 @@ public class JettyHotelServer {
 		handler.addServlet(ShowReviewServlet.class, "/showreview");
 		handler.addServlet(ExpediaHistoryServlet.class, "/history");
 		handler.addServlet(FavoriteHotelServlet.class, "/favorite");
+		handler.addServlet(RankingsServlet.class, "/rankings");
+		handler.addServlet(AutocompleteServlet.class, "/autocomplete");
+		handler.addServlet(WeatherServlet.class, "/weather");
+		handler.addServlet(MetricsServlet.class, "/metrics");
+		handler.addServlet(ReadyServlet.class, "/ready");
+		handler.addServlet(IngestAdminServlet.class, "/admin/ingest");
+		handler.addFilter(WarmupFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+		handler.addFilter(MetricsFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+		handler.addFilter(ConcurrencyLimitFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+		handler.addFilter(DbProfilerFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+		handler.addFilter(ReadConsistencyFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+		registerThreadPoolGauges((QueuedThreadPool) server.getThreadPool());
 		VelocityEngine velocity = new VelocityEngine();
+		velocity.setProperty("file.resource.loader.cache", "true");
+		velocity.setProperty("file.resource.loader.modificationCheckInterval", "0");
 		velocity.init();
 
 		ResourceHandler resourceHandler = new ResourceHandler();
@@ -35,12 +63,32 @@ public class JettyHotelServer {
 		ReviewSearcher reviewSearcher = new ReviewSearcher();
 		handler.setAttribute("hotelSearcher", hotelSearcher);
 		handler.setAttribute("reviewSearcher", reviewSearcher);
+		CoFavoriteIndex coFavorites = new CoFavoriteIndex();
+		coFavorites.rebuild(DataStoreFactory.getInstance());
+		coFavorites.scheduleRebuild(DataStoreFactory.getInstance(), Long.getLong("cofavorites.rebuildMinutes", 60));
+		handler.setAttribute("coFavorites", coFavorites);
 		handler.setAttribute("templateEngine", velocity);
+		handler.setAttribute("weatherProxy", WeatherProxy.fromSystemProperties());
+		handler.setAttribute("fragmentCache", new FragmentCache(Long.getLong("fragments.maxBytes", 8L << 20)));
 		handlers.addHandler(handler);
 		server.setHandler(handlers);
 
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(PORT);
+		server.addConnector(connector);
+
 		try {
+			// the network connector is open from the start so that /ready can answer 503,
+			// WarmupFilter turns away the other network requests until the warm-up is done
 			server.start();
+			Warmup.run(velocity, hotelSearcher, reviewSearcher, localConnector, Integer.getInteger("warmup.iterations", 20));
+			server.removeConnector(localConnector);
+			localConnector.stop();
+			if (Boolean.getBoolean("watch")) {
+				new InputWatcher(Paths.get(System.getProperty("watch.dir", "input")), hotelSearcher, reviewSearcher,
+						Long.getLong("watch.debounceMillis", 500), Long.getLong("watch.maxDelayMillis", 5000)).start();
+			}
+			Warmup.setReady(true);
 			server.join();
 		}
 		catch (Exception e) {
@@ -48,4 +96,17 @@ public class JettyHotelServer {
 		}
 
 	}
+
+	/**
+	 * Exposes the state of the Jetty thread pool as gauges
+	 * @param pool the thread pool of the server
+	 */
+	private static void registerThreadPoolGauges(QueuedThreadPool pool) {
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.gauge("jetty_threads", "Threads in the Jetty pool", pool::getThreads);
+		metrics.gauge("jetty_threads_idle", "Idle threads in the Jetty pool", pool::getIdleThreads);
+		metrics.gauge("jetty_threads_busy", "Busy threads in the Jetty pool", pool::getBusyThreads);
+		metrics.gauge("jetty_threads_max", "Maximum threads in the Jetty pool", pool::getMaxThreads);
+		metrics.gauge("jetty_queue_size", "Jobs waiting for a Jetty thread", pool::getQueueSize);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package server;
+
+import database.IngestThrottle;
+import metrics.MetricsRegistry;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A filter recording the latency and the response status of every request, per servlet
+ */
+public class MetricsFilter implements Filter {
+    private final Set<String> servletPaths = new HashSet<>();
+
+    /**
+     * Collects the mapped servlet paths, so that unmapped urls do not create a series each
+     * @param filterConfig the filter configuration
+     */
+    @Override
+    public void init(FilterConfig filterConfig) {
+        try {
+            for (ServletRegistration registration : filterConfig.getServletContext().getServletRegistrations().values()) {
+                servletPaths.addAll(registration.getMappings());
+            }
+        } catch (UnsupportedOperationException e) {
+            System.out.println("Could not list the servlet mappings: " + e);
+        }
+    }
+
+    /**
+     * Times the request and counts its status
+     * @param request the request
+     * @param response the response
+     * @param chain the rest of the filter chain
+     * @throws IOException if an input or output error occurs
+     * @throws ServletException if the request could not be handled
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (Warmup.isWarmupRequest(request)) { // synthetic traffic would skew the latencies
+            chain.doFilter(request, response);
+            return;
+        }
+        String path = ((HttpServletRequest) request).getServletPath();
+        String servlet = servletPaths.contains(path) ? path : "other";
+        long start = System.nanoTime();
+        int status = 500;
+        try {
+            chain.doFilter(request, response);
+            status = ((HttpServletResponse) response).getStatus();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            metrics.histogram("http_request_duration_seconds", "Latency of HTTP requests", "servlet", servlet)
+                    .record(elapsed);
+            IngestThrottle.getInstance().recordRequest(elapsed);
+            metrics.counter("http_requests_total", "HTTP requests by response status",
+                    "servlet", servlet, "status", String.valueOf(status)).increment();
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
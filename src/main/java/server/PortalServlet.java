@@ -1,6 +1,7 @@
 package server;
 
-import database.DatabaseHandler;
+import database.DataStore;
+import database.DataStoreFactory;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
@@ -80,7 +81,7 @@ public class PortalServlet extends HttpServlet {
 			return;
 		}
 
-		DatabaseHandler dbHandler = DatabaseHandler.getInstance();
+		DataStore dbHandler = DataStoreFactory.getInstance();
 		switch (submitValue) {
 			case "Sign up" -> {
 				if (dbHandler.checkUsername(username)) {
@@ -100,8 +101,11 @@ public class PortalServlet extends HttpServlet {
 						session.setAttribute("message", "Username too long");
 						session.setAttribute("username", null);
 						response.sendRedirect("/portal");
+					} else if (!dbHandler.registerUser(username, password)) {
+						session.setAttribute("message", "Could not sign up, please try again");
+						session.setAttribute("username", null);
+						response.sendRedirect("/portal");
 					} else {
-						dbHandler.registerUser(username, password);
 						session.setAttribute("lastlogin", "You haven't logged in before!");
 						session.setAttribute("username", username);
 						response.sendRedirect("/search");
@@ -0,0 +1,105 @@
+package server;
+
+import hotelapp.Hotel;
+import hotelapp.HotelRankings;
+import hotelapp.HotelSearcher;
+import hotelapp.ReviewSearcher;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A servlet class used to show the best rated, most reviewed and most recently reviewed hotels
+ */
+@SuppressWarnings("serial")
+public class RankingsServlet extends HttpServlet {
+    private static final int DEFAULT_K = 10;
+    private static final int MAX_K = 100;
+
+    /**
+     * Called by the server (via the service method) to allow a servlet to handle a rankings GET request.
+     * @param request an HttpServletRequest object that contains the request the client has made of the servlet
+     * @param response an HttpServletResponse object that contains the response the servlet sends to the client
+     * @throws ServletException if the request for the GET could not be handled
+     * @throws IOException if an input or output error is detected when the servlet handles the GET request
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/html");
+        response.setStatus(HttpServletResponse.SC_OK);
+        HttpSession session = request.getSession();
+        PrintWriter out = response.getWriter();
+
+        String username = (String) session.getAttribute("username");
+        if (username == null) {
+            response.sendRedirect("/portal");
+            return;
+        }
+
+        HotelRankings.Kind kind = HotelRankings.Kind.RATING;
+        String by = request.getParameter("by");
+        if (by != null) {
+            switch (by) {
+                case "reviews" -> kind = HotelRankings.Kind.REVIEWS;
+                case "recent" -> kind = HotelRankings.Kind.RECENT;
+                default -> kind = HotelRankings.Kind.RATING;
+            }
+        }
+        String city = request.getParameter("city");
+        if (city != null && city.isEmpty()) {
+            city = null;
+        }
+        int k = DEFAULT_K;
+        try {
+            if (request.getParameter("k") != null) {
+                k = Math.max(1, Math.min(MAX_K, Integer.parseInt(request.getParameter("k"))));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println(e);
+        }
+
+        HotelSearcher hotelSearcher = (HotelSearcher) getServletContext().getAttribute("hotelSearcher");
+        ReviewSearcher reviewSearcher = (ReviewSearcher) getServletContext().getAttribute("reviewSearcher");
+        HotelRankings rankings = reviewSearcher.getRankings();
+
+        List<Map<String, String>> rows = new ArrayList<>();
+        List<String> cities = new ArrayList<>();
+        if (rankings != null) {
+            cities = rankings.getCities();
+            for (String hotelId : rankings.top(kind, city, k)) {
+                Hotel hotel = hotelSearcher.find(hotelId);
+                if (hotel == null) {
+                    continue;
+                }
+                Map<String, String> row = new HashMap<>();
+                row.put("id", hotel.getId());
+                row.put("name", hotel.getName());
+                row.put("rating", String.format("%.2f", rankings.getRating(hotelId)));
+                row.put("reviews", String.valueOf(rankings.getReviewCount(hotelId)));
+                rows.add(row);
+            }
+        }
+
+        VelocityEngine ve = (VelocityEngine) getServletContext().getAttribute("templateEngine");
+        VelocityContext context = new VelocityContext();
+        Template template = ve.getTemplate("static/Rankings.html");
+        context.put("rows", rows);
+        context.put("cities", cities);
+        context.put("by", kind.name().toLowerCase());
+        context.put("city", city == null ? "" : city); // only compared with the cities, never rendered
+        template.merge(context, out);
+    }
+}
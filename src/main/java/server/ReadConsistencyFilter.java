@@ -0,0 +1,73 @@
+package server;
+
+import database.ReadConsistency;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+/**
+ * A filter keeping the reads of a user on the primary database for a while after they wrote, for example
+ * right after adding a review or a favorite, so that the next page shows the change even if the replicas
+ * are a little behind. The deadline is kept in the session, so it holds across requests.
+ *
+ * How long reads stay on the primary is set with -Dreplica.stickyMillis (default 5000).
+ */
+public class ReadConsistencyFilter implements Filter {
+    private static final String PRIMARY_UNTIL = "primaryUntil";
+
+    private long stickyMillis;
+
+    /**
+     * Reads the configuration
+     * @param filterConfig the filter configuration
+     */
+    @Override
+    public void init(FilterConfig filterConfig) {
+        stickyMillis = Long.getLong("replica.stickyMillis", 5000);
+    }
+
+    /**
+     * Binds the read consistency of the session to the request, and saves it back if the request wrote
+     * @param request the request
+     * @param response the response
+     * @param chain the rest of the filter chain
+     * @throws IOException if an input or output error occurs
+     * @throws ServletException if the request could not be handled
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpSession session = ((HttpServletRequest) request).getSession(false);
+        Object saved = session == null ? null : session.getAttribute(PRIMARY_UNTIL);
+        long before = saved instanceof Long ? (Long) saved : 0;
+        ReadConsistency consistency = ReadConsistency.start(before, stickyMillis);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ReadConsistency.end();
+            if (consistency.getPrimaryUntil() != before) {
+                session = ((HttpServletRequest) request).getSession(false); // the request may have logged in
+                if (session != null) {
+                    try {
+                        session.setAttribute(PRIMARY_UNTIL, consistency.getPrimaryUntil());
+                    } catch (IllegalStateException e) {
+                        System.out.println(e); // the request logged out
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Nothing to release
+     */
+    @Override
+    public void destroy() {}
+}
@@ -0,0 +1,33 @@
+package server;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A readiness probe for the load balancer: 200 once the warm-up has completed, 503 before
+ */
+@SuppressWarnings("serial")
+public class ReadyServlet extends HttpServlet {
+    /**
+     * Called by the server (via the service method) to allow a servlet to handle a readiness GET request.
+     * @param request an HttpServletRequest object that contains the request the client has made of the servlet
+     * @param response an HttpServletResponse object that contains the response the servlet sends to the client
+     * @throws ServletException if the request for the GET could not be handled
+     * @throws IOException if an input or output error is detected when the servlet handles the GET request
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        if (Warmup.isReady()) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println("ready");
+        } else {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.getWriter().println("warming up");
+        }
+    }
+}
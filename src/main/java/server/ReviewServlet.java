@@ -80,12 +80,10 @@ public class ReviewServlet extends HttpServlet {
         }
 
         ReviewSearcher reviewSearcher = (ReviewSearcher) getServletContext().getAttribute("reviewSearcher");
-        boolean hasReview = reviewSearcher.findSpecificReview(hotelId, username);
-
+        // each choice is a single statement whose result says whether the user had a review
         switch (submitValue) {
             case "add" -> {
-                if (!hasReview) {
-                    reviewSearcher.addReview(username, hotelId, title, text, 0);
+                if (reviewSearcher.addReview(username, hotelId, title, text, 0)) {
                     response.sendRedirect("/hotel?hotelId=" + hotelId);
                     session.setAttribute("message", "Successfully added a review");
                 } else {
@@ -94,24 +92,21 @@ public class ReviewServlet extends HttpServlet {
                 }
             }
             case "modify" -> {
-                if (!hasReview) {
-                    session.setAttribute("message", "You don't have any reviews");
-                    response.sendRedirect("/review?hotelId=" + hotelId);
-                } else {
-                    reviewSearcher.deleteReview(username, hotelId);
-                    reviewSearcher.addReview(username, hotelId, title, text, 0);
+                if (reviewSearcher.modifyReview(username, hotelId, title, text, 0)) {
                     response.sendRedirect("/hotel?hotelId=" + hotelId);
                     session.setAttribute("message", "Successfully modified the review");
+                } else {
+                    session.setAttribute("message", "You don't have any reviews");
+                    response.sendRedirect("/review?hotelId=" + hotelId);
                 }
             }
             case "delete" -> {
-                if (!hasReview) {
-                    session.setAttribute("message", "You don't have any reviews");
-                    response.sendRedirect("/review?hotelId=" + hotelId);
-                } else {
-                    reviewSearcher.deleteReview(username, hotelId);
+                if (reviewSearcher.deleteReview(username, hotelId)) {
                     response.sendRedirect("/hotel?hotelId=" + hotelId);
                     session.setAttribute("message", "Successfully deleted the review");
+                } else {
+                    session.setAttribute("message", "You don't have any reviews");
+                    response.sendRedirect("/review?hotelId=" + hotelId);
                 }
             }
         }
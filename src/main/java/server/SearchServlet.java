@@ -14,9 +14,14 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SearchServlet extends HttpServlet {
+    private static final int PAGE_SIZE = 20;
 
     /**
      * Called by the server (via the service method) to allow a servlet to handle a search GET request.
@@ -42,6 +47,23 @@ public class SearchServlet extends HttpServlet {
 
         String hotelName = request.getParameter("hotelName");
         hotelName = StringEscapeUtils.escapeHtml4(hotelName);
+        String city = emptyToNull(request.getParameter("city"));
+        double minRating = parseNumber(request.getParameter("minRating"));
+        double lat = parseNumber(request.getParameter("lat"));
+        double lng = parseNumber(request.getParameter("lng"));
+        double radius = parseNumber(request.getParameter("radius"));
+        String sort = request.getParameter("sort");
+        double offsetParameter = parseNumber(request.getParameter("offset"));
+        int offset = Double.isNaN(offsetParameter) ? 0 : (int) Math.max(0, offsetParameter);
+
+        SearchIndex.Query query = new SearchIndex.Query()
+                .name(emptyToNull(hotelName))
+                .city(city)
+                .minRating((float) minRating)
+                .near(lat, lng)
+                .radiusKm(radius)
+                .sort(parseSort(sort))
+                .page(offset, request.getParameter("cursor"), PAGE_SIZE);
 
         HotelSearcher searcher = (HotelSearcher) getServletContext().getAttribute("hotelSearcher");
 
@@ -49,8 +71,35 @@ public class SearchServlet extends HttpServlet {
         VelocityContext context = new VelocityContext();
         Template template = ve.getTemplate("static/Searching.html");
 
-        List<Hotel> hotels = searcher.search(hotelName);
+        SearchIndex.Page page = searcher.search(query);
+        List<Hotel> hotels = page.getHotels();
         context.put("hotels", hotels);
+        context.put("page", page);
+        Map<String, String> ratings = new HashMap<>();
+        RatingSummaries summaries = searcher.getRatingSummaries();
+        for (Hotel hotel : hotels) {
+            float overall = summaries.getOverall(hotel.getId());
+            if (!Float.isNaN(overall)) {
+                ratings.put(hotel.getId(), String.format("%.1f", overall));
+            }
+        }
+        context.put("ratings", ratings);
+
+        // the filters are repeated in the page links, the page position is added by the template
+        StringBuilder filters = new StringBuilder();
+        appendParameter(filters, "hotelName", request.getParameter("hotelName"));
+        appendParameter(filters, "city", city);
+        appendParameter(filters, "minRating", request.getParameter("minRating"));
+        appendParameter(filters, "lat", request.getParameter("lat"));
+        appendParameter(filters, "lng", request.getParameter("lng"));
+        appendParameter(filters, "radius", request.getParameter("radius"));
+        appendParameter(filters, "sort", sort);
+        context.put("filters", filters.toString());
+        context.put("first", hotels.isEmpty() ? 0 : page.getOffset() + 1);
+        context.put("last", page.getOffset() + hotels.size());
+        context.put("previousOffset", page.getOffset() > 0 ? String.valueOf(Math.max(0, page.getOffset() - PAGE_SIZE)) : null);
+        context.put("nextOffset", page.getOffset() + hotels.size());
+        context.put("nextCursor", page.getNextCursor() == null ? null : URLEncoder.encode(page.getNextCursor(), StandardCharsets.UTF_8));
 
         String lastLogin = (String) session.getAttribute("lastlogin");
         if (lastLogin != null) {
@@ -59,4 +108,56 @@ public class SearchServlet extends HttpServlet {
 
         template.merge(context, out);
     }
+
+    /**
+     * Parses a number parameter
+     * @param value the parameter
+     * @return the number, or NaN if it is missing or not a number
+     */
+    private static double parseNumber(String value) {
+        try {
+            return value == null || value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parses the sort parameter
+     * @param value the parameter
+     * @return the order, by name if the parameter is missing or unknown
+     */
+    private static SearchIndex.Sort parseSort(String value) {
+        if (value == null) {
+            return SearchIndex.Sort.NAME;
+        }
+        return switch (value) {
+            case "rating" -> SearchIndex.Sort.RATING;
+            case "reviews" -> SearchIndex.Sort.REVIEWS;
+            case "distance" -> SearchIndex.Sort.DISTANCE;
+            default -> SearchIndex.Sort.NAME;
+        };
+    }
+
+    /**
+     * Turns an empty parameter into null
+     * @param value the parameter
+     * @return the parameter, or null if it is empty
+     */
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Appends a parameter to a query string if it has a value
+     * @param query the query string
+     * @param name the name of the parameter
+     * @param value the value of the parameter
+     */
+    private static void appendParameter(StringBuilder query, String name, String value) {
+        if (value != null && !value.isEmpty()) {
+            query.append(query.length() == 0 ? "" : "&").append(name).append('=')
+                    .append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+        }
+    }
 }
@@ -15,10 +15,19 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
+/**
+ * A servlet class used to show the reviews of a hotel, one page at a time
+ */
+@SuppressWarnings("serial")
 public class ShowReviewServlet extends HttpServlet {
+    private static final int PAGE_SIZE = 5;
+
     /**
      * Called by the server (via the service method) to allow a servlet to handle a show review GET request.
      * @param request an HttpServletRequest object that contains the request the client has made of the servlet
@@ -35,7 +44,6 @@ public class ShowReviewServlet extends HttpServlet {
         String hotelId = request.getParameter("hotelId");
         hotelId = StringEscapeUtils.escapeHtml4(hotelId);
         String page = request.getParameter("page");
-        PrintWriter out = response.getWriter();
 
         HttpSession session = request.getSession();
         String username = (String) session.getAttribute("username");
@@ -61,41 +69,67 @@ public class ShowReviewServlet extends HttpServlet {
             return;
         }
 
+        String sort = request.getParameter("sort");
+        if (sort == null) {
+            sort = (String) session.getAttribute("sort");
+        }
+        if (!"recent".equals(sort) && !"rating".equals(sort)) {
+            sort = "default";
+        }
+        session.setAttribute("sort", sort);
+
+        long version = reviewSearcher.getVersion(hotelId); // read before the reviews, so a change is never missed
         List<Review> reviews = reviewSearcher.findReview(hotelId);
         if (reviews.size() == 0) {
-            out.println("No review");
+            response.getWriter().println("No review");
             return;
-        } else if (page == null || page.equals("0")) {
-            reviews = reviews.subList(0, Math.min(reviews.size(), 5));
-            session.setAttribute("page", "0");
+        }
+        int no;
+        if (page == null || page.equals("0")) {
+            no = 0;
         } else if(page.equals("next")){
             page = (String) session.getAttribute("page");
-            int no = Integer.parseInt(page) + 1;
-            if (no * 5 >= reviews.size()) {
-                reviews = reviews.subList(0, Math.min(reviews.size(), 5));
-                session.setAttribute("page", "0");
-            } else {
-                reviews = reviews.subList(no * 5, Math.min(reviews.size(), (no + 1) * 5));
-                session.setAttribute("page", String.valueOf(no));
-            }
+            no = Integer.parseInt(page) + 1;
         } else {
             page = (String) session.getAttribute("page");
-            int no = Integer.parseInt(page) - 1;
-            if (no < 0) {
-                reviews = reviews.subList(0, Math.min(reviews.size(), 5));
-                session.setAttribute("page", "0");
-            } else {
-                reviews = reviews.subList(no * 5, Math.min(reviews.size(), (no + 1) * 5));
-                session.setAttribute("page", String.valueOf(no));
-            }
+            no = Math.max(Integer.parseInt(page) - 1, 0);
+        }
+        if (no * PAGE_SIZE >= reviews.size()) {
+            no = 0;
         }
+        session.setAttribute("page", String.valueOf(no));
 
-        VelocityEngine ve = (VelocityEngine) getServletContext().getAttribute("templateEngine");
-        VelocityContext context = new VelocityContext();
-        Template template = ve.getTemplate("static/ShowReview.html");
-        context.put("reviews", reviews);
+        FragmentCache fragmentCache = (FragmentCache) getServletContext().getAttribute("fragmentCache");
+        String key = hotelId + "/" + no + "/" + sort;
+        FragmentCache.Fragment fragment = fragmentCache.get(key, version);
+        if (fragment == null) {
+            if (!sort.equals("default")) {
+                reviews = new ArrayList<>(reviews);
+                reviews.sort(sort.equals("recent")
+                        ? Comparator.comparing(Review::getDatePosted, Comparator.nullsLast(Comparator.reverseOrder()))
+                        : Comparator.comparingInt(Review::getRatingOverall).reversed());
+            }
+            reviews = reviews.subList(no * PAGE_SIZE, Math.min(reviews.size(), (no + 1) * PAGE_SIZE));
 
+            VelocityEngine ve = (VelocityEngine) getServletContext().getAttribute("templateEngine");
+            VelocityContext context = new VelocityContext();
+            Template template = ve.getTemplate("static/ShowReview.html");
+            context.put("reviews", reviews);
+            context.put("sort", sort);
+            StringWriter html = new StringWriter();
+            template.merge(context, html);
+            fragment = fragmentCache.put(key, version, html.toString().getBytes(StandardCharsets.UTF_8));
+        }
 
-        template.merge(context, out);
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Vary", "Accept-Encoding");
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        byte[] body = fragment.getHtml();
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = fragment.getGzipped();
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
     }
 }
@@ -0,0 +1,198 @@
+package server;
+
+import database.DataStore;
+import database.DataStoreFactory;
+import hotelapp.CatalogSnapshot;
+import hotelapp.Hotel;
+import hotelapp.HotelRankings;
+import hotelapp.HotelSearcher;
+import hotelapp.RatingSummary;
+import hotelapp.Review;
+import hotelapp.ReviewSearcher;
+import org.apache.velocity.app.VelocityEngine;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+
+import javax.servlet.ServletRequest;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Warms the server up before it accepts traffic: loads the hotel and review caches in parallel,
+ * compiles the templates, opens the database pool and runs synthetic requests through
+ * the hot servlets so that the JIT has compiled them before the first real user arrives.
+ * The synthetic requests arrive through an in-process LocalConnector and are left out of the metrics,
+ * the concurrency limiter and the database profiler, so that they do not skew what real traffic shows.
+ */
+public class Warmup {
+    /** The user that synthetic requests are authenticated as */
+    public static final String WARMUP_USER = "__warmup__";
+
+    private static final AtomicBoolean ready = new AtomicBoolean(false);
+
+    /**
+     * Prevents creating objects of this class
+     */
+    private Warmup() {}
+
+    /**
+     * Checks if the warm-up has completed
+     * @return true if the server is ready for traffic
+     */
+    public static boolean isReady() {
+        return ready.get();
+    }
+
+    /**
+     * Marks the server as ready or not ready for traffic
+     * @param isReady true if the server is ready
+     */
+    public static void setReady(boolean isReady) {
+        ready.set(isReady);
+    }
+
+    /**
+     * Checks if a request is one of the synthetic warm-up requests
+     * @param request the request
+     * @return true if the request arrived through the in-process LocalConnector
+     */
+    public static boolean isWarmupRequest(ServletRequest request) {
+        Request baseRequest = Request.getBaseRequest(request);
+        return baseRequest != null && baseRequest.getHttpChannel().getConnector() instanceof LocalConnector;
+    }
+
+    /**
+     * Runs the warm-up
+     * @param velocity the template engine
+     * @param hotelSearcher the hotel searcher whose cache is loaded
+     * @param reviewSearcher the review searcher whose cache is loaded
+     * @param local an in-process connector used for the synthetic requests
+     * @param iterations how many times the synthetic requests are repeated
+     */
+    public static void run(VelocityEngine velocity, HotelSearcher hotelSearcher, ReviewSearcher reviewSearcher,
+                           LocalConnector local, int iterations) {
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> templates = CompletableFuture.runAsync(() -> compileTemplates(velocity));
+        CompletableFuture<Void> pool = CompletableFuture.runAsync(() -> DataStoreFactory.getInstance().warmUp());
+        loadCaches(hotelSearcher, reviewSearcher);
+        CompletableFuture.allOf(templates, pool).join();
+        System.out.println("Warm-up: caches loaded in " + (System.currentTimeMillis() - start) + " ms");
+
+        List<Hotel> all = hotelSearcher.getAllHotels();
+        if (all != null) {
+            reviewSearcher.setRankings(new HotelRankings(all, reviewSearcher::findReview));
+        }
+        String hotelId = all == null || all.isEmpty() ? "0" : all.get(0).getId();
+        List<String> paths = new ArrayList<>();
+        paths.add("/portal");
+        paths.add("/search");
+        paths.add("/search?hotelName=hotel");
+        paths.add("/hotel?hotelId=" + hotelId);
+        paths.add("/showreview?hotelId=" + hotelId + "&page=0");
+        paths.add("/showreview?page=next");
+        paths.add("/favorite");
+        paths.add("/history");
+        paths.add("/rankings");
+        paths.add("/autocomplete?q=hil");
+        String cookie = null;
+        for (int i = 0; i < iterations; i++) {
+            for (String path : paths) {
+                try {
+                    String request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                            + (cookie == null ? "" : "Cookie: " + cookie + "\r\n")
+                            + "Connection: close\r\n\r\n";
+                    String response = local.getResponse(request);
+                    if (cookie == null) {
+                        cookie = sessionCookie(response);
+                    }
+                } catch (Exception e) {
+                    System.out.println("Warm-up request " + path + " failed: " + e);
+                }
+            }
+        }
+        System.out.println("Warm-up: completed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Loads the hotel and review caches from the snapshot file if it matches the data version of the store,
+     * otherwise loads them from the store in parallel and writes what was loaded as the snapshot for the next start
+     * @param hotelSearcher the hotel searcher whose cache is loaded
+     * @param reviewSearcher the review searcher whose cache is loaded
+     */
+    private static void loadCaches(HotelSearcher hotelSearcher, ReviewSearcher reviewSearcher) {
+        String path = System.getProperty("snapshot", CatalogSnapshot.DEFAULT_PATH);
+        String version = DataStoreFactory.getInstance().getDataVersion();
+        CatalogSnapshot snapshot = version == null ? null : CatalogSnapshot.load(path, version);
+        if (snapshot != null) {
+            hotelSearcher.setHotels(snapshot.getHotels());
+            hotelSearcher.setRatingSummaries(snapshot.getRatingSummaries());
+            reviewSearcher.setReviews(snapshot.getReviews());
+            return;
+        }
+
+        DataStore store = DataStoreFactory.getInstance();
+        CompletableFuture<List<Hotel>> hotels = CompletableFuture.supplyAsync(store::getAllHotel);
+        CompletableFuture<List<RatingSummary>> summaries = CompletableFuture.supplyAsync(store::getAllRatingSummaries);
+        CompletableFuture<List<Review>> reviews = CompletableFuture.supplyAsync(store::getAllReviews);
+        if (hotels.join() != null) {
+            hotelSearcher.setHotels(hotels.join());
+        }
+        if (summaries.join() != null) {
+            hotelSearcher.setRatingSummaries(summaries.join());
+        }
+        if (reviews.join() != null) {
+            reviewSearcher.setReviews(reviews.join());
+        }
+        if (hotels.join() != null && summaries.join() != null && reviews.join() != null && version != null
+                && version.equals(store.getDataVersion())) {
+            // nothing changed while loading, so what was just loaded is a consistent view of this version
+            CatalogSnapshot fresh = new CatalogSnapshot(version, hotels.join(), reviews.join(), summaries.join());
+            new Thread(() -> {
+                try {
+                    fresh.write(path);
+                } catch (IOException e) {
+                    System.out.println("Could not write the snapshot: " + e);
+                }
+            }, "snapshot-writer").start();
+        }
+    }
+
+    /**
+     * Compiles every template under static, so the first request does not parse them
+     * @param velocity the template engine
+     */
+    private static void compileTemplates(VelocityEngine velocity) {
+        File[] files = new File("static").listFiles((dir, name) -> name.endsWith(".html"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                velocity.getTemplate("static/" + file.getName());
+            } catch (Exception e) {
+                System.out.println("Could not compile template " + file.getName() + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Finds the session cookie in a raw HTTP response
+     * @param response the raw response
+     * @return the JSESSIONID cookie, or null if there is none
+     */
+    private static String sessionCookie(String response) {
+        if (response == null) {
+            return null;
+        }
+        for (String line : response.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Set-Cookie: JSESSIONID=", 0, 23)) {
+                return line.substring("Set-Cookie: ".length()).split(";", 2)[0];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+/**
+ * Signs in the synthetic warm-up requests, so that they render the real pages instead of
+ * redirecting to the portal. Only requests arriving through the in-process LocalConnector
+ * are affected; nothing reaching the network connector can be signed in this way.
+ * Until the warm-up has completed, requests from the network get a 503, except the readiness
+ * probe and the metrics.
+ */
+public class WarmupFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {}
+
+    /**
+     * Sets the warm-up user on the session of in-process requests, and turns away network requests
+     * arriving before the warm-up has completed
+     * @param request the request
+     * @param response the response
+     * @param chain the rest of the filter chain
+     * @throws IOException if an input or output error occurs
+     * @throws ServletException if the request could not be handled
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (Warmup.isWarmupRequest(request)) {
+            HttpSession session = ((HttpServletRequest) request).getSession();
+            if (session.getAttribute("username") == null) {
+                session.setAttribute("username", Warmup.WARMUP_USER);
+            }
+        } else if (!Warmup.isReady()) {
+            String path = ((HttpServletRequest) request).getServletPath();
+            if (!path.equals("/ready") && !path.equals("/metrics")) {
+                HttpServletResponse httpResponse = (HttpServletResponse) response;
+                httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                httpResponse.setHeader("Retry-After", "5");
+                httpResponse.setContentType("text/plain");
+                httpResponse.getWriter().println("The server is starting, please retry in a moment.");
+                return;
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {}
+}
@@ -0,0 +1,184 @@
+package server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import database.SingleFlight;
+import metrics.MetricsRegistry;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Fetches the current weather for a location from the upstream forecast API on behalf of the browsers.
+ * Locations are snapped to a grid, so hotels a few hundred metres apart share one cache entry.
+ * Fresh entries are served from memory; entries past their TTL are still served while one background
+ * request refreshes them; concurrent misses for the same cell wait on a single upstream request.
+ */
+public class WeatherProxy {
+    /** The default upstream, {lat} and {lng} are replaced by the coordinates of the cell */
+    public static final String DEFAULT_URL =
+            "https://api.open-meteo.com/v1/forecast?latitude={lat}&longitude={lng}&current_weather=true";
+
+    private final String url;
+    private final double gridDegrees;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final long timeoutMillis;
+    private final HttpClient client;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final SingleFlight<String, Entry> inFlight = new SingleFlight<>("weather");
+
+    /**
+     * A cached upstream answer
+     */
+    private static class Entry {
+        private final String json;
+        private final long fetchedAt;
+
+        public Entry(String json, long fetchedAt) {
+            this.json = json;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    /**
+     * Constructor of WeatherProxy
+     * @param url the upstream URL, with {lat} and {lng} placeholders
+     * @param gridDegrees the size of a grid cell in degrees
+     * @param ttlMillis how long an answer is fresh
+     * @param staleMillis how long an answer past its TTL may still be served while it is refreshed
+     * @param timeoutMillis how long to wait for the upstream
+     */
+    public WeatherProxy(String url, double gridDegrees, long ttlMillis, long staleMillis, long timeoutMillis) {
+        this.url = url;
+        this.gridDegrees = gridDegrees;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(timeoutMillis)).build();
+        MetricsRegistry.getInstance().gauge("weather_cache_entries", "Grid cells in the weather cache", cache::size);
+    }
+
+    /**
+     * Creates a proxy configured by system properties: weather.url, weather.gridDegrees,
+     * weather.ttlSeconds, weather.staleSeconds and weather.timeoutMillis
+     * @return the proxy
+     */
+    public static WeatherProxy fromSystemProperties() {
+        return new WeatherProxy(System.getProperty("weather.url", DEFAULT_URL),
+                Double.parseDouble(System.getProperty("weather.gridDegrees", "0.05")),
+                Long.getLong("weather.ttlSeconds", 600) * 1000,
+                Long.getLong("weather.staleSeconds", 3600) * 1000,
+                Long.getLong("weather.timeoutMillis", 2000));
+    }
+
+    /**
+     * Gets the current weather at a location
+     * @param lat the latitude
+     * @param lng the longitude
+     * @return the upstream JSON with a current_weather object, or null if it is unavailable
+     */
+    public String getWeather(double lat, double lng) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        double cellLat = snap(lat);
+        double cellLng = snap(lng);
+        String key = String.format(Locale.ROOT, "%.4f,%.4f", cellLat, cellLng);
+        long now = System.currentTimeMillis();
+
+        Entry cached = cache.get(key);
+        if (cached != null && now - cached.fetchedAt < ttlMillis) {
+            count(metrics, "hit");
+            return cached.json;
+        }
+        if (cached != null && now - cached.fetchedAt < ttlMillis + staleMillis) {
+            count(metrics, "stale");
+            fetch(key, cellLat, cellLng); // refresh in the background
+            return cached.json;
+        }
+
+        count(metrics, "miss");
+        try {
+            return fetch(key, cellLat, cellLng).get(timeoutMillis, TimeUnit.MILLISECONDS).json;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.out.println("Weather upstream failed for " + key + ": " + e);
+        }
+        count(metrics, "error");
+        return cached == null ? null : cached.json; // an expired answer beats none
+    }
+
+    /**
+     * Starts an upstream request for a cell, or joins the one already running
+     * @param key the cache key of the cell
+     * @param lat the latitude of the cell
+     * @param lng the longitude of the cell
+     * @return the answer once it has been fetched and cached
+     */
+    private CompletableFuture<Entry> fetch(String key, double lat, double lng) {
+        return inFlight.submit(key, () -> {
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            metrics.counter("weather_upstream_requests_total", "Requests sent to the weather upstream").increment();
+            long start = System.nanoTime();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url
+                            .replace("{lat}", String.format(Locale.ROOT, "%.4f", lat))
+                            .replace("{lng}", String.format(Locale.ROOT, "%.4f", lng))))
+                    .timeout(Duration.ofMillis(timeoutMillis))
+                    .GET()
+                    .build();
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, error) -> {
+                metrics.histogram("weather_upstream_duration_seconds", "Time of weather upstream requests")
+                        .record(System.nanoTime() - start);
+                try {
+                    if (error != null) {
+                        throw error;
+                    }
+                    if (response.statusCode() != 200) {
+                        throw new IllegalStateException("status " + response.statusCode());
+                    }
+                    JsonObject body = new JsonParser().parse(response.body()).getAsJsonObject();
+                    if (!body.has("current_weather")) {
+                        throw new IllegalStateException("no current_weather in the answer");
+                    }
+                    JsonObject compact = new JsonObject();
+                    compact.add("current_weather", body.get("current_weather"));
+                    Entry entry = new Entry(compact.toString(), System.currentTimeMillis());
+                    cache.put(key, entry);
+                    return entry;
+                } catch (Throwable e) {
+                    metrics.counter("weather_upstream_errors_total", "Failed weather upstream requests").increment();
+                    throw new CompletionException(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Snaps a coordinate to the center of its grid cell
+     * @param degrees the coordinate
+     * @return the center of the cell
+     */
+    private double snap(double degrees) {
+        return (Math.floor(degrees / gridDegrees) + 0.5) * gridDegrees;
+    }
+
+    /**
+     * Counts a cache lookup
+     * @param metrics the metrics registry
+     * @param result hit, stale, miss or error
+     */
+    private static void count(MetricsRegistry metrics, String result) {
+        metrics.counter("weather_cache_total", "Weather lookups by cache outcome", "result", result).increment();
+    }
+}
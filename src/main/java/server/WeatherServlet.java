@@ -0,0 +1,71 @@
+package server;
+
+import hotelapp.Hotel;
+import hotelapp.HotelSearcher;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+
+/**
+ * A servlet class used to get the current weather at a hotel through the server-side weather cache
+ */
+@SuppressWarnings("serial")
+public class WeatherServlet extends HttpServlet {
+    /**
+     * Called by the server (via the service method) to allow a servlet to handle a weather GET request.
+     * @param request an HttpServletRequest object that contains the request the client has made of the servlet
+     * @param response an HttpServletResponse object that contains the response the servlet sends to the client
+     * @throws ServletException if the request for the GET could not be handled
+     * @throws IOException if an input or output error is detected when the servlet handles the GET request
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("username") == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().print("{}");
+            return;
+        }
+
+        HotelSearcher hotelSearcher = (HotelSearcher) getServletContext().getAttribute("hotelSearcher");
+        WeatherProxy weatherProxy = (WeatherProxy) getServletContext().getAttribute("weatherProxy");
+        Hotel hotel = hotelSearcher.find(request.getParameter("hotelId"));
+        if (hotel == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{}");
+            return;
+        }
+        if (hotel.getLat() == null || hotel.getLng() == null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{}");
+            return;
+        }
+        double lat;
+        double lng;
+        try {
+            lat = Double.parseDouble(hotel.getLat());
+            lng = Double.parseDouble(hotel.getLng());
+        } catch (NumberFormatException e) {
+            System.out.println(e);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{}");
+            return;
+        }
+        String weather = weatherProxy.getWeather(lat, lng);
+        if (weather == null) {
+            response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+            response.getWriter().print("{}");
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader("Cache-Control", "private, max-age=300");
+        response.getWriter().print(weather);
+    }
+}
@@ -0,0 +1,198 @@
+package database;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * A JDBC driver answering jdbc:fake:&lt;database&gt; uris with connections that run nothing: queries return
+ * no rows, updates change one row, and the lag query returns the replication lag set for the database.
+ * Every statement other than the lag query is recorded with the name of the database it was sent to.
+ */
+public class FakeDriver implements Driver {
+    /** The query to configure as replica.lagQuery */
+    public static final String LAG_QUERY = "SELECT lag";
+
+    private static final String PREFIX = "jdbc:fake:";
+    private static final Map<String, Double> lags = new ConcurrentHashMap<>();
+    private static final Set<String> down = ConcurrentHashMap.newKeySet();
+    private static final List<String> executed = new ArrayList<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new FakeDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Gets the uri of a fake database
+     * @param database the name of the database
+     * @return the jdbc uri
+     */
+    public static String uri(String database) {
+        return PREFIX + database;
+    }
+
+    /**
+     * Sets the replication lag the lag query returns for a database
+     * @param database the name of the database
+     * @param seconds the lag in seconds
+     */
+    public static void setLag(String database, double seconds) {
+        lags.put(database, seconds);
+    }
+
+    /**
+     * Makes a database refuse connections, or accept them again
+     * @param database the name of the database
+     * @param isDown true to refuse connections
+     */
+    public static void setDown(String database, boolean isDown) {
+        if (isDown) {
+            down.add(database);
+        } else {
+            down.remove(database);
+        }
+    }
+
+    /**
+     * Gets the databases the statements were sent to since the last call, in order
+     * @return the names of the databases
+     */
+    public static List<String> takeExecuted() {
+        synchronized (executed) {
+            List<String> databases = new ArrayList<>(executed);
+            executed.clear();
+            return databases;
+        }
+    }
+
+    /**
+     * Opens a fake connection
+     * @param url the jdbc uri
+     * @param info the user and password, ignored
+     * @return the connection, or null if the uri is not a fake one
+     * @throws SQLException if the database is down
+     */
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        String database = url.substring(PREFIX.length());
+        if (down.contains(database)) {
+            throw new SQLException("Database " + database + " is down");
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "createStatement" -> statement(database, null);
+                    case "prepareStatement" -> statement(database, (String) args[0]);
+                    case "isValid", "getAutoCommit" -> true;
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    /**
+     * Creates a statement running nothing
+     * @param database the name of the database
+     * @param sql the sql of a prepared statement, null for a plain statement
+     * @return the statement
+     */
+    private static Statement statement(String database, String sql) {
+        Class<?> type = sql == null ? Statement.class : PreparedStatement.class;
+        return (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (!method.getName().startsWith("execute")) {
+                        return defaultValue(method.getReturnType());
+                    }
+                    String query = args != null && args.length > 0 ? (String) args[0] : sql;
+                    if (LAG_QUERY.equals(query)) {
+                        Double lag = lags.get(database);
+                        return results(lag == null ? new Object[0] : new Object[]{lag});
+                    }
+                    synchronized (executed) {
+                        executed.add(database);
+                    }
+                    return switch (method.getName()) {
+                        case "executeQuery" -> results(new Object[0]);
+                        case "executeUpdate" -> 1;
+                        default -> defaultValue(method.getReturnType());
+                    };
+                });
+    }
+
+    /**
+     * Creates a result set of at most one row
+     * @param row the columns of the row, empty for no rows
+     * @return the result set
+     */
+    private static ResultSet results(Object[] row) {
+        boolean[] before = {row.length > 0};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "next" -> {
+                        boolean hasRow = before[0];
+                        before[0] = false;
+                        yield hasRow;
+                    }
+                    case "getDouble" -> ((Number) row[(Integer) args[0] - 1]).doubleValue();
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    /**
+     * Gets the value a method returns when there is nothing to answer
+     * @param type the return type of the method
+     * @return zero or false for primitives, null otherwise
+     */
+    private static Object defaultValue(Class<?> type) {
+        return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,191 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Checks where DatabaseHandler sends reads and writes when read replicas are configured, against fake
+ * databases whose replication lag the tests set
+ */
+public class ReplicaRoutingTest {
+    /**
+     * Forgets the statements of the previous test
+     */
+    @BeforeEach
+    public void setUp() {
+        FakeDriver.takeExecuted();
+    }
+
+    /**
+     * Leaves no request bound to the test thread
+     */
+    @AfterEach
+    public void tearDown() {
+        ReadConsistency.end();
+    }
+
+    /**
+     * Creates a handler reading from one replica
+     * @param name the name of the primary database, the replica is named after it
+     * @param checkMillis the time between two lag checks
+     * @return the handler
+     */
+    private static DatabaseHandler handler(String name, long checkMillis) {
+        Properties config = new Properties();
+        config.setProperty("uri", FakeDriver.uri(name));
+        config.setProperty("username", "test");
+        config.setProperty("password", "test");
+        config.setProperty("replicas", FakeDriver.uri(name + "-replica"));
+        config.setProperty("replica.lagQuery", FakeDriver.LAG_QUERY);
+        config.setProperty("replica.maxLagSeconds", "5");
+        config.setProperty("replica.checkMillis", String.valueOf(checkMillis));
+        return DatabaseHandler.forShard(name, config);
+    }
+
+    /**
+     * Reads until the reads go to a database
+     * @param handler the handler
+     * @param database the name of the database
+     * @throws InterruptedException if interrupted while waiting for the next lag check
+     */
+    private static void awaitReadsFrom(DatabaseHandler handler, String database) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<String> executed;
+        do {
+            handler.getFavorite("alice");
+            executed = FakeDriver.takeExecuted();
+            if (executed.equals(List.of(database))) {
+                return;
+            }
+            Thread.sleep(10);
+        } while (System.currentTimeMillis() < deadline);
+        fail("Reads still go to " + executed + " instead of " + database);
+    }
+
+    /**
+     * Reads go to a replica whose lag is under the threshold
+     */
+    @Test
+    public void readsGoToAReplicaInSync() {
+        FakeDriver.setLag("insync-replica", 0);
+        DatabaseHandler handler = handler("insync", 60_000);
+
+        handler.getFavorite("alice");
+
+        assertEquals(List.of("insync-replica"), FakeDriver.takeExecuted());
+    }
+
+    /**
+     * Reads go to the primary when the only replica lags behind by more than the threshold
+     */
+    @Test
+    public void readsFallBackToThePrimaryWhenTheReplicaLags() {
+        FakeDriver.setLag("lagging-replica", 10);
+        DatabaseHandler handler = handler("lagging", 60_000);
+
+        handler.getFavorite("alice");
+
+        assertEquals(List.of("lagging"), FakeDriver.takeExecuted());
+    }
+
+    /**
+     * Reads go to the primary when the only replica can not be reached
+     */
+    @Test
+    public void readsFallBackToThePrimaryWhenTheReplicaIsDown() {
+        FakeDriver.setLag("down-replica", 0);
+        FakeDriver.setDown("down-replica", true);
+        DatabaseHandler handler = handler("down", 60_000);
+
+        handler.getFavorite("alice");
+
+        assertEquals(List.of("down"), FakeDriver.takeExecuted());
+    }
+
+    /**
+     * The lag check stops routing reads to a replica that falls behind, and resumes once it has caught up
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void replicaIsTakenOutWhileItLagsAndBackOnceItCatchesUp() throws InterruptedException {
+        FakeDriver.setLag("catchup-replica", 0);
+        DatabaseHandler handler = handler("catchup", 20);
+        awaitReadsFrom(handler, "catchup-replica");
+
+        FakeDriver.setLag("catchup-replica", 10);
+        awaitReadsFrom(handler, "catchup");
+
+        FakeDriver.setLag("catchup-replica", 1);
+        awaitReadsFrom(handler, "catchup-replica");
+    }
+
+    /**
+     * The reads of a request that wrote go to the primary, other reads still go to the replica
+     */
+    @Test
+    public void readsStayOnThePrimaryAfterAWrite() {
+        FakeDriver.setLag("sticky-replica", 0);
+        DatabaseHandler handler = handler("sticky", 60_000);
+
+        ReadConsistency.start(0, 60_000);
+        handler.getFavorite("alice");
+        handler.addFavorite("1", "alice");
+        handler.getFavorite("alice");
+        ReadConsistency.end();
+        handler.getFavorite("alice"); // outside of a request
+
+        assertEquals(List.of("sticky-replica", "sticky", "sticky", "sticky-replica"), FakeDriver.takeExecuted());
+    }
+
+    /**
+     * A request started with the deadline of a previous one reads from the primary until the deadline
+     */
+    @Test
+    public void stickinessCarriesOverToTheNextRequestUntilItExpires() {
+        FakeDriver.setLag("session-replica", 0);
+        DatabaseHandler handler = handler("session", 60_000);
+
+        ReadConsistency writer = ReadConsistency.start(0, 60_000);
+        handler.addFavorite("1", "alice");
+        ReadConsistency.end();
+        ReadConsistency.start(writer.getPrimaryUntil(), 60_000);
+        handler.getFavorite("alice");
+        ReadConsistency.end();
+        ReadConsistency.start(System.currentTimeMillis() - 1, 60_000);
+        handler.getFavorite("alice");
+
+        assertEquals(List.of("session", "session", "session-replica"), FakeDriver.takeExecuted());
+    }
+
+    /**
+     * A write made on a worker thread bound to the request sends the request's reads to the primary
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void writesOnAnotherThreadForTheRequestKeepItsReadsOnThePrimary() throws InterruptedException {
+        FakeDriver.setLag("bound-replica", 0);
+        DatabaseHandler handler = handler("bound", 60_000);
+
+        ReadConsistency request = ReadConsistency.start(0, 60_000);
+        Thread worker = new Thread(() -> {
+            ReadConsistency.bind(request);
+            try {
+                handler.addFavorite("1", "alice");
+            } finally {
+                ReadConsistency.end();
+            }
+        });
+        worker.start();
+        worker.join();
+        handler.getFavorite("alice");
+
+        assertEquals(List.of("bound", "bound"), FakeDriver.takeExecuted());
+    }
+}
@@ -0,0 +1,160 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Checks the caching of WeatherProxy against a local upstream whose n-th answer has a temperature of n
+ */
+public class WeatherProxyTest {
+    private HttpServer upstream;
+    private ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile CountDownLatch gate; // held answers wait for it, null to answer at once
+
+    /**
+     * Starts the upstream on a free port
+     * @throws IOException if the upstream can not be started
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        upstream.createContext("/forecast", exchange -> {
+            int n = requests.incrementAndGet();
+            CountDownLatch held = gate;
+            if (held != null) {
+                try {
+                    held.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = ("{\"current_weather\":{\"temperature\":" + n + "}}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        upstream.setExecutor(executor);
+        upstream.start();
+    }
+
+    /**
+     * Stops the upstream
+     */
+    @AfterEach
+    public void tearDown() {
+        CountDownLatch held = gate;
+        if (held != null) {
+            held.countDown();
+        }
+        upstream.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Creates a proxy for the local upstream
+     * @param ttlMillis how long an answer is fresh
+     * @param staleMillis how long an answer past its TTL may still be served
+     * @return the proxy
+     */
+    private WeatherProxy proxy(long ttlMillis, long staleMillis) {
+        String url = "http://localhost:" + upstream.getAddress().getPort()
+                + "/forecast?latitude={lat}&longitude={lng}";
+        return new WeatherProxy(url, 0.05, ttlMillis, staleMillis, 5000);
+    }
+
+    /**
+     * Gets the answer with a given temperature
+     * @param temperature the temperature
+     * @return the JSON the proxy returns
+     */
+    private static String weather(int temperature) {
+        return "{\"current_weather\":{\"temperature\":" + temperature + "}}";
+    }
+
+    /**
+     * A fresh answer is served to every location of the grid cell without asking the upstream again
+     */
+    @Test
+    public void freshAnswerIsServedFromTheCache() {
+        WeatherProxy proxy = proxy(60_000, 60_000);
+
+        assertEquals(weather(1), proxy.getWeather(37.7749, -122.4194));
+        assertEquals(weather(1), proxy.getWeather(37.7751, -122.4190));
+        assertEquals(1, requests.get());
+    }
+
+    /**
+     * An answer past its TTL is returned at once while a single background request refreshes it
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void expiredAnswerIsServedWhileItIsRefreshed() throws InterruptedException {
+        WeatherProxy proxy = proxy(50, 60_000);
+        assertEquals(weather(1), proxy.getWeather(37.7749, -122.4194));
+        Thread.sleep(100);
+
+        gate = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        assertEquals(weather(1), proxy.getWeather(37.7749, -122.4194));
+        assertEquals(weather(1), proxy.getWeather(37.7749, -122.4194));
+        assertTrue(System.currentTimeMillis() - start < 1000, "the stale answer waited for the upstream");
+        gate.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!proxy.getWeather(37.7749, -122.4194).equals(weather(2))) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The answer was never refreshed");
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(2, requests.get());
+    }
+
+    /**
+     * An answer past its stale window is fetched again before it is returned
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void answerPastTheStaleWindowIsFetchedAgain() throws InterruptedException {
+        WeatherProxy proxy = proxy(50, 50);
+        assertEquals(weather(1), proxy.getWeather(37.7749, -122.4194));
+        Thread.sleep(150);
+
+        assertEquals(weather(2), proxy.getWeather(37.7749, -122.4194));
+    }
+
+    /**
+     * An expired answer is still returned when the upstream fails, rather than none
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void expiredAnswerIsKeptWhenTheUpstreamFails() throws InterruptedException {
+        WeatherProxy proxy = proxy(50, 0);
+        assertEquals(weather(1), proxy.getWeather(37.7749, -122.4194));
+        Thread.sleep(100);
+
+        status = 500;
+        assertEquals(weather(1), proxy.getWeather(37.7749, -122.4194));
+        assertEquals(2, requests.get());
+    }
+}
@@ -0,0 +1,16 @@
+ function autocomplete(input) {
+     fetch('/autocomplete?q=' + encodeURIComponent(input.value), {method :'get'}).
+     then(res => res.json()).
+     then(data => {
+         let list = document.getElementById("suggestions");
+         list.innerHTML = "";
+         data.forEach(hotel => {
+             let option = document.createElement("option");
+             option.value = hotel.name;
+             list.appendChild(option);
+         });
+      }).
+     catch(err => {
+       console.log(err);
+     });
+ };